@@ -0,0 +1,87 @@
+package com.example.trading.benchmark;
+
+import com.example.trading.model.Fill;
+import com.example.trading.service.AllocationServerService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single threaded {@link AllocationServerService#allocateFill(Fill)} throughput and latency percentiles for buys and
+ * sells over account counts and ticker universes.
+ *
+ * <p>Sell positions are bought back every {@link #SELLS_PER_REFILL} sells of a ticker so that sells keep reducing
+ * real positions, one operation in that many is a buy.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Thread)
+public class AllocationBenchmark {
+
+    private static final int SELL_QUANTITY = 10;
+    private static final int SELLS_PER_REFILL = 1000;
+
+    @Param({"3", "100", "10000"})
+    public int accountCount;
+
+    @Param({"10", "5000"})
+    public int tickerCount;
+
+    private AllocationServerService allocationServerService;
+    // one fill per ticker, the benchmarks cycle through the universe
+    private Fill[] buys;
+    private Fill[] sells;
+    private Fill[] refills;
+    private int next;
+    private int sellRounds;
+
+    @Setup
+    public void setUp() {
+        allocationServerService = new AllocationServerService();
+        allocationServerService.updateAUMSplits(Benchmarks.equalSplits(accountCount));
+        String[] tickers = Benchmarks.tickers(tickerCount);
+        buys = Benchmarks.fills(tickers, tickerCount, 100);
+        sells = Benchmarks.fills(tickers, tickerCount, -SELL_QUANTITY);
+        refills = Benchmarks.fills(tickers, tickerCount, SELL_QUANTITY * SELLS_PER_REFILL);
+        refill();
+    }
+
+    @Benchmark
+    public void buy() {
+        allocationServerService.allocateFill(buys[next]);
+        if (++next == tickerCount) {
+            next = 0;
+        }
+    }
+
+    @Benchmark
+    public void sell() {
+        allocationServerService.allocateFill(sells[next]);
+        if (++next == tickerCount) {
+            next = 0;
+            if (++sellRounds == SELLS_PER_REFILL) {
+                sellRounds = 0;
+                refill();
+            }
+        }
+    }
+
+    private void refill() {
+        for (Fill refill : refills) {
+            allocationServerService.allocateFill(refill);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.trading.benchmark;
+
+import com.example.trading.model.Fill;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Data shared by the benchmarks: equal AUM splits and a preallocated universe of fills.
+ */
+final class Benchmarks {
+
+    private Benchmarks() {
+    }
+
+    /**
+     * @return equal splits of 100% over {@code accountCount} accounts, rounded down to a basis point
+     */
+    static Map<String, Double> equalSplits(int accountCount) {
+        return splits(accountCount, 0);
+    }
+
+    /**
+     * @return splits over {@code accountCount} accounts where the weights are rotated by {@code shift}
+     */
+    static Map<String, Double> splits(int accountCount, int shift) {
+        Map<String, Double> splits = new HashMap<>();
+        int bps = Math.max(1, 10_000 / accountCount);
+        for (int i = 0; i < accountCount; i++) {
+            // one account gets a bit more so that consecutive updates differ
+            int weight = (i + shift) % accountCount == 0 ? bps + 1 : bps;
+            splits.put("Account" + (i + 1), weight / 100.0);
+        }
+        return splits;
+    }
+
+    static String[] tickers(int tickerCount) {
+        String[] tickers = new String[tickerCount];
+        for (int i = 0; i < tickerCount; i++) {
+            tickers[i] = "TICKER" + i;
+        }
+        return tickers;
+    }
+
+    /**
+     * @return a ring of {@code size} fills cycling through the tickers with the given quantity
+     */
+    static Fill[] fills(final String[] tickers, int size, int quantity) {
+        Fill[] fills = new Fill[size];
+        for (int i = 0; i < size; i++) {
+            fills[i] = new Fill(tickers[i % tickers.length], 100.0 + i % 50, quantity);
+        }
+        return fills;
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.trading.benchmark;
+
+import com.example.trading.engine.AllocationEngine;
+import com.example.trading.engine.BackpressureStrategy;
+import com.example.trading.model.Fill;
+import com.example.trading.service.AllocationServerService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Several producer threads submitting fills to the {@link AllocationEngine}, measuring the submit throughput and
+ * latency the producers see while the shards allocate. Fills are bought and sold alternately so positions stay
+ * bounded, use {@code -t} to change the number of producers.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class ContendedAllocationBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Engine {
+
+        @Param({"3", "100"})
+        public int accountCount;
+
+        @Param({"10", "5000"})
+        public int tickerCount;
+
+        @Param({"4"})
+        public int shards;
+
+        private AllocationEngine allocationEngine;
+        private String[] tickers;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            AllocationServerService allocationServerService = new AllocationServerService();
+            allocationServerService.updateAUMSplits(Benchmarks.equalSplits(accountCount));
+            tickers = Benchmarks.tickers(tickerCount);
+            allocationEngine = new AllocationEngine(shards, 1024, BackpressureStrategy.BLOCK,
+                    (fills, count) -> allocationServerService.allocateFills(fills, count));
+            allocationEngine.start();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws InterruptedException {
+            allocationEngine.shutdown();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Producer {
+
+        private Fill[] fills;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUp(Engine engine) {
+            // each producer starts at a different ticker
+            int offset = ThreadLocalRandom.current().nextInt(engine.tickerCount);
+            fills = new Fill[engine.tickerCount * 2];
+            for (int i = 0; i < engine.tickerCount; i++) {
+                String ticker = engine.tickers[(i + offset) % engine.tickerCount];
+                fills[2 * i] = new Fill(ticker, 100.0, 100);
+                fills[2 * i + 1] = new Fill(ticker, 101.0, -100);
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean submit(Engine engine, Producer producer) {
+        Fill fill = producer.fills[producer.next];
+        if (++producer.next == producer.fills.length) {
+            producer.next = 0;
+        }
+        return engine.allocationEngine.submit(fill);
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.trading.benchmark;
+
+import com.example.trading.book.PositionBook;
+import com.example.trading.book.PositionDeltaTracker;
+import com.example.trading.book.RowSnapshot;
+import com.example.trading.model.Fill;
+import com.example.trading.model.Position;
+import com.example.trading.model.PositionDelta;
+import com.example.trading.service.AllocationServerService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of reading positions: a consistent copy of one row, the full {@code account -> ticker -> Position} view,
+ * and collecting the deltas of a publish after {@code changedTickers} tickers were written.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Thread)
+public class PositionReadBenchmark {
+
+    @Param({"3", "100", "10000"})
+    public int accountCount;
+
+    @Param({"10", "5000"})
+    public int tickerCount;
+
+    @Param({"10"})
+    public int changedTickers;
+
+    private AllocationServerService allocationServerService;
+    private PositionBook positionBook;
+    private PositionDeltaTracker positionDeltaTracker;
+    private final RowSnapshot snapshot = new RowSnapshot();
+    private Fill[] changes;
+    private int nextRow;
+
+    @Setup
+    public void setUp() {
+        allocationServerService = new AllocationServerService();
+        allocationServerService.updateAUMSplits(Benchmarks.equalSplits(accountCount));
+        String[] tickers = Benchmarks.tickers(tickerCount);
+        for (Fill fill : Benchmarks.fills(tickers, tickerCount, accountCount * 10)) {
+            allocationServerService.allocateFill(fill);
+        }
+        positionBook = allocationServerService.getPositionBook();
+        positionDeltaTracker = new PositionDeltaTracker(positionBook);
+        positionDeltaTracker.collectChanges();
+        changes = Benchmarks.fills(tickers, Math.min(changedTickers, tickerCount), 1);
+    }
+
+    @Benchmark
+    public RowSnapshot copyRow() {
+        positionBook.row(nextRow).copyTo(snapshot);
+        if (++nextRow == tickerCount) {
+            nextRow = 0;
+        }
+        return snapshot;
+    }
+
+    @Benchmark
+    public Map<String, Map<String, Position>> positionMap() {
+        return allocationServerService.getAccountPositions();
+    }
+
+    @Benchmark
+    public List<PositionDelta> publishDeltas() {
+        allocationServerService.allocateFills(changes);
+        return positionDeltaTracker.collectChanges();
+    }
+}
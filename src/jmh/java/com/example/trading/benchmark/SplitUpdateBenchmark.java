@@ -0,0 +1,91 @@
+package com.example.trading.benchmark;
+
+import com.example.trading.model.Fill;
+import com.example.trading.service.AllocationServerService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of {@link AllocationServerService#updateAUMSplits(Map)}, alone and while another thread keeps allocating
+ * fills, and the allocation latency seen during split updates.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class SplitUpdateBenchmark {
+
+    private static final int VARIANTS = 16;
+
+    @Param({"3", "100", "10000"})
+    public int accountCount;
+
+    private AllocationServerService allocationServerService;
+    private Map<String, Double>[] splits;
+    private Fill[] fills;
+    // only touched by the updating thread
+    private int nextSplits;
+    // only touched by the allocating thread
+    private int nextFill;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        allocationServerService = new AllocationServerService();
+        splits = new Map[VARIANTS];
+        for (int i = 0; i < VARIANTS; i++) {
+            splits[i] = Benchmarks.splits(accountCount, i);
+        }
+        allocationServerService.updateAUMSplits(splits[0]);
+        // a buy and a sell per ticker so positions stay bounded
+        String[] tickers = Benchmarks.tickers(10);
+        fills = new Fill[tickers.length * 2];
+        for (int i = 0; i < tickers.length; i++) {
+            fills[2 * i] = new Fill(tickers[i], 100.0, 100);
+            fills[2 * i + 1] = new Fill(tickers[i], 100.0, -100);
+        }
+    }
+
+    @Benchmark
+    @Group("updateOnly")
+    public void updateAlone() {
+        updateSplits();
+    }
+
+    @Benchmark
+    @Group("updateWhileAllocating")
+    @GroupThreads(1)
+    public void update() {
+        updateSplits();
+    }
+
+    @Benchmark
+    @Group("updateWhileAllocating")
+    @GroupThreads(1)
+    public void allocate() {
+        allocationServerService.allocateFill(fills[nextFill]);
+        if (++nextFill == fills.length) {
+            nextFill = 0;
+        }
+    }
+
+    private void updateSplits() {
+        allocationServerService.updateAUMSplits(splits[nextSplits++ & (VARIANTS - 1)]);
+    }
+}
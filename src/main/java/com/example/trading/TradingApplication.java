@@ -2,7 +2,9 @@ package com.example.trading;
 
 import com.example.trading.service.AUMServerService;
 import com.example.trading.service.FillServerService;
+import com.example.trading.service.LoadGeneratorService;
 import com.example.trading.service.PositionServerService;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
@@ -22,14 +24,21 @@ public class TradingApplication {
 	@Bean
 	public CommandLineRunner run(FillServerService fillServerService,
 						  AUMServerService aumServerService,
-						  PositionServerService positionServerService) {
+						  PositionServerService positionServerService,
+						  LoadGeneratorService loadGeneratorService,
+						  @Value("${fill.sources:3}") int fillSources) {
 		return args -> {
-			// Run X fill servers simulating fill generating logic
-			for (int i = 0; i < 3; i++) {
-				fillServerService.simulateFills();
-			}
+			if (loadGeneratorService.isEnabled()) {
+				// a reproducible load with fixed splits replaces the simulators
+				loadGeneratorService.runLoad();
+			} else {
+				// Run X fill servers simulating fill generating logic
+				for (int i = 0; i < fillSources; i++) {
+					fillServerService.simulateFills();
+				}
 
-			aumServerService.simulateAUMSplits();
+				aumServerService.simulateAUMSplits();
+			}
 			positionServerService.sendPositions();
 		};
 	}
@@ -0,0 +1,173 @@
+package com.example.trading.allocation;
+
+import com.example.trading.book.PositionBook;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * The {@code AllocationPlan} class is the immutable, compiled form of a set of AUM splits.
+ *
+ * <p>Splits are compiled once when they are updated:
+ * <ul>
+ *     <li>accounts are sorted by name and interned to position book ids,</li>
+ *     <li>percentages are converted to integer basis points (1% = 100 bps),</li>
+ *     <li>the order in which rounding remainders are handed out is precomputed, highest weight first and first
+ *     account name on ties.</li>
+ * </ul>
+ * The order of the accounts never depends on the iteration order of the splits or on the order in which accounts
+ * were interned, so the same splits allocate the same shares live, when the journal is replayed and on any node.
+ * Allocating a quantity is then a single pass over two int arrays using exact integer math, the shares of an
+ * account are {@code floor(quantity * weight / totalWeight)} and the few shares lost to rounding (always less than
+ * the number of accounts) are given one by one following the remainder order.
+ *
+ * <p>A plan is numbered with a version and stamped with the time it took effect, fills executed from that time on are
+ * allocated against it until a newer plan takes effect, see {@link PlanHistory}.
+ */
+public final class AllocationPlan {
+
+    public static final AllocationPlan EMPTY = new AllocationPlan(0, 0, new int[0], new int[0], new int[0], 0);
+
+    private final long version;
+    // epoch millis from which fills are allocated against the plan, 0 if unknown
+    private final long effectiveFromMillis;
+    private final int[] accountIds;
+    private final int[] weightsBps;
+    private final int[] remainderOrder;
+    private final int totalBps;
+
+    private AllocationPlan(long version, long effectiveFromMillis, int[] accountIds, int[] weightsBps,
+                           int[] remainderOrder, int totalBps) {
+        this.version = version;
+        this.effectiveFromMillis = effectiveFromMillis;
+        this.accountIds = accountIds;
+        this.weightsBps = weightsBps;
+        this.remainderOrder = remainderOrder;
+        this.totalBps = totalBps;
+    }
+
+    /**
+     * Compiles AUM splits given in percent into a plan.
+     *
+     * @throws IllegalArgumentException if a split is negative or all splits are zero
+     */
+    public static AllocationPlan compile(final Map<String, Double> aumSplits, final PositionBook positionBook, long version) {
+        return compile(aumSplits, positionBook, version, 0);
+    }
+
+    /**
+     * Compiles AUM splits given in percent into a plan taking effect at {@code effectiveFromMillis}.
+     *
+     * @throws IllegalArgumentException if a split is negative or all splits are zero
+     */
+    public static AllocationPlan compile(final Map<String, Double> aumSplits, final PositionBook positionBook, long version,
+                                         long effectiveFromMillis) {
+        String[] accounts = aumSplits.keySet().toArray(new String[0]);
+        Arrays.sort(accounts);
+        int size = accounts.length;
+        int[] accountIds = new int[size];
+        int[] weightsBps = new int[size];
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            double percentage = aumSplits.get(accounts[i]);
+            if (!(percentage >= 0)) {
+                throw new IllegalArgumentException("Invalid AUM split " + percentage + " for " + accounts[i]);
+            }
+            accountIds[i] = positionBook.accountId(accounts[i]);
+            weightsBps[i] = (int) Math.round(percentage * 100);
+            total += weightsBps[i];
+        }
+        if (size > 0 && total == 0) {
+            throw new IllegalArgumentException("AUM splits must not all be zero: " + aumSplits);
+        }
+        if (total > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("AUM splits are too large: " + aumSplits);
+        }
+        return new AllocationPlan(version, effectiveFromMillis, accountIds, weightsBps, remainderOrder(weightsBps),
+                (int) total);
+    }
+
+    private static int[] remainderOrder(final int[] weightsBps) {
+        long[] order = new long[weightsBps.length];
+        for (int i = 0; i < weightsBps.length; i++) {
+            // highest weight first, lowest index (account name) first on ties
+            order[i] = ((long) (Integer.MAX_VALUE - weightsBps[i]) << 32) | i;
+        }
+        Arrays.sort(order);
+        int[] indexes = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            indexes[i] = (int) order[i];
+        }
+        return indexes;
+    }
+
+    /**
+     * Writes the rounded down share of every account into {@code shares}, indexed like {@link #accountId(int)}.
+     *
+     * @return the sum of the shares written
+     */
+    public int allocateFloor(int quantity, final int[] shares) {
+        int allocated = 0;
+        for (int i = 0; i < accountIds.length; i++) {
+            int share = (int) ((long) quantity * weightsBps[i] / totalBps);
+            shares[i] = share;
+            allocated += share;
+        }
+        return allocated;
+    }
+
+    /**
+     * Writes the share of every account into {@code shares} so that they sum up exactly to {@code quantity}.
+     */
+    public void allocate(int quantity, final int[] shares) {
+        int remainder = quantity - allocateFloor(quantity, shares);
+        for (int i = 0; remainder > 0; i++, remainder--) {
+            shares[remainderOrder[i % remainderOrder.length]]++;
+        }
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the epoch millis from which fills are allocated against the plan, 0 if unknown
+     */
+    public long getEffectiveFromMillis() {
+        return effectiveFromMillis;
+    }
+
+    public int size() {
+        return accountIds.length;
+    }
+
+    public boolean isEmpty() {
+        return accountIds.length == 0;
+    }
+
+    public int accountId(int index) {
+        return accountIds[index];
+    }
+
+    public int weightBps(int index) {
+        return weightsBps[index];
+    }
+
+    public int getTotalBps() {
+        return totalBps;
+    }
+
+    /**
+     * @return the index of the account receiving rounding differences first, the one with the highest split
+     */
+    public int highestSplitIndex() {
+        return remainderOrder[0];
+    }
+
+    /**
+     * @return the index of the account receiving rounding differences in position {@code rank}, highest split first
+     */
+    public int remainderIndex(int rank) {
+        return remainderOrder[rank];
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.trading.allocation;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Summary of one call to {@code AllocationServerService.allocateFills}.
+ */
+@AllArgsConstructor
+@Getter
+@ToString
+public class BatchAllocationResult {
+
+    // fills received in the batch
+    private final int fillCount;
+    // allocations actually applied to the position book, one per netted group of fills
+    private final int allocationCount;
+    // fills merged into the allocation of a previous fill of the same ticker and side
+    private final int nettedFills;
+    // fills with a zero quantity or received while no AUM splits were available
+    private final int skippedFills;
+    // versions of the oldest and newest allocation plans fills of the batch were allocated against, 0 if none was
+    private final long oldestPlanVersion;
+    private final long planVersion;
+    private final long elapsedNanos;
+}
@@ -0,0 +1,328 @@
+package com.example.trading.allocation;
+
+import com.example.trading.book.PositionBook;
+import com.example.trading.book.RowSnapshot;
+import com.example.trading.model.Prices;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The {@code ExposureLimits} class checks the positions of every account against its exposure limits while fills are
+ * allocated, and reports the allocations breaching them.
+ *
+ * <p>Limits of an account, 0 for none:
+ * <ul>
+ *     <li>the absolute quantity of each of its positions,</li>
+ *     <li>the notional of each of its positions, the absolute value at the mark price,</li>
+ *     <li>the notional of all its positions together.</li>
+ * </ul>
+ * The allocation calls {@link #onUpdate(PositionBook.Row, int, int, long)} right after updating a position inside the
+ * row's write section, so the row itself holds the position being checked and no other structure is looked up. Limits
+ * are primitive arrays indexed by account id, with a single flag read when no limit is configured. The notional of an
+ * account is the sum over the shards allocating its tickers, it is kept in atomic counters updated in the same pass.
+ * The counters live in fixed chunks that are never copied or replaced, so a concurrent update is never lost, and are
+ * only updated while an account notional limit is configured. When the first one is configured each row is counted
+ * exactly once while fills keep being allocated: from a consistent copy of the row, or by its writer if it updates the
+ * row first. The version of the row it was counted at decides which later updates are added to the counters.
+ *
+ * <p>Fills are executed trades, every share has to be allocated to the accounts of the splits: a breach does not
+ * change the allocation, it is counted per {@link Breach} and logged on the {@code allocation.breaches} logger. A sell
+ * of more shares than the accounts hold is reported as {@link Breach#OVERSOLD}, whether limits are configured or not.
+ * <p>Note: limits.position.maxQuantity, limits.position.maxNotional and limits.account.maxNotional can be used to
+ * configure the default limits of every account
+ */
+public class ExposureLimits {
+
+    private static final Logger BREACHES = LoggerFactory.getLogger("allocation.breaches");
+    private static final int CHUNK_SIZE = 1024;
+    private static final int POSITION_QUANTITY = 0;
+    private static final int POSITION_NOTIONAL = 1;
+    private static final int ACCOUNT_NOTIONAL = 2;
+
+    /**
+     * The kinds of breach reported.
+     */
+    public enum Breach {
+        POSITION_QUANTITY,
+        POSITION_NOTIONAL,
+        ACCOUNT_NOTIONAL,
+        OVERSOLD
+    }
+
+    private final PositionBook positionBook;
+    private final AtomicLongArray breachCounts = new AtomicLongArray(Breach.values().length);
+    // default limit of every kind, Long.MAX_VALUE for none
+    private final long[] defaults = {Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE};
+    // limits of every kind set for an account, indexed by account id, 0 to use the default
+    private volatile long[][] accountLimits = new long[3][0];
+    private volatile boolean enabled;
+    private volatile boolean trackingAccounts;
+    private volatile boolean paused;
+    // notional of every account in ticks, indexed by account id
+    private final Chunks accountNotionals = new Chunks();
+    // first version of every row whose updates are added to the account notionals, indexed by ticker id, 0 until the
+    // row is counted
+    private final Chunks countedFrom = new Chunks();
+
+    public ExposureLimits(PositionBook positionBook) {
+        this.positionBook = positionBook;
+    }
+
+    /**
+     * Sets the limits of the accounts without limits of their own.
+     *
+     * @param maxPositionQuantity absolute quantity of a position, 0 for none
+     * @param maxPositionNotional notional of a position in price ticks, 0 for none
+     * @param maxAccountNotional  notional of all the positions of an account in price ticks, 0 for none
+     */
+    public synchronized void setDefaultLimits(long maxPositionQuantity, long maxPositionNotional, long maxAccountNotional) {
+        defaults[POSITION_QUANTITY] = orNone(maxPositionQuantity);
+        defaults[POSITION_NOTIONAL] = orNone(maxPositionNotional);
+        defaults[ACCOUNT_NOTIONAL] = orNone(maxAccountNotional);
+        configured();
+    }
+
+    /**
+     * Sets the limits of one account, same units as {@link #setDefaultLimits(long, long, long)}, 0 keeps the default.
+     */
+    public synchronized void setAccountLimits(int accountId, long maxPositionQuantity, long maxPositionNotional,
+                                              long maxAccountNotional) {
+        long[][] limits = new long[3][];
+        for (int kind = 0; kind < limits.length; kind++) {
+            limits[kind] = Arrays.copyOf(accountLimits[kind], Math.max(accountLimits[kind].length, accountId + 1));
+        }
+        limits[POSITION_QUANTITY][accountId] = Math.max(maxPositionQuantity, 0);
+        limits[POSITION_NOTIONAL][accountId] = Math.max(maxPositionNotional, 0);
+        limits[ACCOUNT_NOTIONAL][accountId] = Math.max(maxAccountNotional, 0);
+        accountLimits = limits;
+        configured();
+    }
+
+    private void configured() {
+        boolean accounts = defaults[ACCOUNT_NOTIONAL] != Long.MAX_VALUE;
+        for (long limit : accountLimits[ACCOUNT_NOTIONAL]) {
+            accounts |= limit != 0;
+        }
+        boolean positions = defaults[POSITION_QUANTITY] != Long.MAX_VALUE || defaults[POSITION_NOTIONAL] != Long.MAX_VALUE;
+        for (int kind = POSITION_QUANTITY; kind <= POSITION_NOTIONAL; kind++) {
+            for (long limit : accountLimits[kind]) {
+                positions |= limit != 0;
+            }
+        }
+        boolean starting = accounts && !trackingAccounts;
+        if (!accounts && trackingAccounts) {
+            trackingAccounts = false;
+            accountNotionals.clear();
+            countedFrom.clear();
+        }
+        trackingAccounts = accounts;
+        enabled = !paused && (accounts || positions);
+        if (starting && !paused) {
+            // the rows not counted by their writer meanwhile are counted from a copy
+            countRows();
+        }
+    }
+
+    /**
+     * Stops checking and reporting, e.g. while positions are rebuilt from fills already checked when first allocated.
+     */
+    public synchronized void pause() {
+        paused = true;
+        enabled = false;
+    }
+
+    /**
+     * Checks and reports again. The notional of every account is recounted from the position book first, positions
+     * must not be allocated until this returns, e.g. it ends the rebuild of the positions from the journal.
+     */
+    public synchronized void resume() {
+        paused = false;
+        if (trackingAccounts) {
+            accountNotionals.clear();
+            countedFrom.clear();
+            countRows();
+        }
+        configured();
+    }
+
+    /**
+     * Adds the notional of every row not counted yet to the counters of its accounts, from a consistent copy of the
+     * row. A row counted by its writer since is left to it.
+     */
+    private void countRows() {
+        RowSnapshot snapshot = new RowSnapshot();
+        for (int tickerId = 0; tickerId < positionBook.getTickers().size(); tickerId++) {
+            AtomicLongArray counted = countedFrom.chunk(tickerId);
+            if (counted.get(tickerId % CHUNK_SIZE) != 0) {
+                continue;
+            }
+            positionBook.row(tickerId).copyTo(snapshot);
+            // the writes after the copy are added by the writer
+            if (counted.compareAndSet(tickerId % CHUNK_SIZE, 0, snapshot.getVersion() + 1)) {
+                for (int accountId = 0; accountId < snapshot.getAccountCount(); accountId++) {
+                    addAccountNotional(accountId, Math.abs(snapshot.getValues()[accountId]));
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the update of a position to the notional of its account, or the whole row if it was not counted yet. Called
+     * by the row's writer inside its write section.
+     *
+     * @return the notional of the account
+     */
+    private long countUpdate(final PositionBook.Row row, int accountId, long delta) {
+        AtomicLongArray counted = countedFrom.chunk(row.getTickerId());
+        int index = row.getTickerId() % CHUNK_SIZE;
+        long version = row.getVersion();
+        long from = counted.get(index);
+        if (from == 0 && counted.compareAndSet(index, 0, version)) {
+            // counted as it is now, the updates of this write still to come are added
+            for (int account = 0; account < positionBook.getAccounts().size(); account++) {
+                addAccountNotional(account, Math.abs(row.getTotalValue(account)));
+            }
+            return accountNotionals.chunk(accountId).get(accountId % CHUNK_SIZE);
+        }
+        from = counted.get(index);
+        if (version >= from) {
+            return accountNotionals.chunk(accountId).addAndGet(accountId % CHUNK_SIZE, delta);
+        }
+        return accountNotionals.chunk(accountId).get(accountId % CHUNK_SIZE);
+    }
+
+    private void addAccountNotional(int accountId, long notional) {
+        if (notional != 0) {
+            accountNotionals.chunk(accountId).addAndGet(accountId % CHUNK_SIZE, notional);
+        }
+    }
+
+    /**
+     * Checks the position of the account in the row, right after it was updated by its writer.
+     *
+     * @param previousQuantity quantity of the position before the update
+     * @param previousValue    total value of the position before the update
+     */
+    public void onUpdate(final PositionBook.Row row, int accountId, int previousQuantity, long previousValue) {
+        if (!enabled) {
+            return;
+        }
+        long quantity = Math.abs((long) row.getQuantity(accountId));
+        long notional = Math.abs(row.getTotalValue(accountId));
+        long[][] limits = accountLimits;
+        if (quantity > Math.abs((long) previousQuantity) && quantity > limit(limits, POSITION_QUANTITY, accountId)) {
+            report(Breach.POSITION_QUANTITY, accountId, row.getTickerId(), quantity,
+                    limit(limits, POSITION_QUANTITY, accountId));
+        }
+        long delta = notional - Math.abs(previousValue);
+        if (delta > 0 && notional > limit(limits, POSITION_NOTIONAL, accountId)) {
+            report(Breach.POSITION_NOTIONAL, accountId, row.getTickerId(), notional,
+                    limit(limits, POSITION_NOTIONAL, accountId));
+        }
+        if (trackingAccounts && delta != 0) {
+            long accountNotional = countUpdate(row, accountId, delta);
+            if (delta > 0 && accountNotional > limit(limits, ACCOUNT_NOTIONAL, accountId)) {
+                report(Breach.ACCOUNT_NOTIONAL, accountId, row.getTickerId(), accountNotional,
+                        limit(limits, ACCOUNT_NOTIONAL, accountId));
+            }
+        }
+    }
+
+    /**
+     * Reports the shares of a sell that none of the accounts of the splits held.
+     */
+    public void onOversold(final PositionBook.Row row, int soldQuantity, int unallocatedQuantity) {
+        if (paused) {
+            return;
+        }
+        breachCounts.incrementAndGet(Breach.OVERSOLD.ordinal());
+        BREACHES.warn("breach={} ticker={} qty={} unallocated={}", Breach.OVERSOLD,
+                positionBook.getTickers().nameOf(row.getTickerId()), soldQuantity, unallocatedQuantity);
+    }
+
+    private long limit(final long[][] limits, int kind, int accountId) {
+        long limit = accountId < limits[kind].length ? limits[kind][accountId] : 0;
+        return limit != 0 ? limit : defaults[kind];
+    }
+
+    private void report(final Breach breach, int accountId, int tickerId, long value, long limit) {
+        breachCounts.incrementAndGet(breach.ordinal());
+        if (BREACHES.isWarnEnabled()) {
+            boolean notional = breach != Breach.POSITION_QUANTITY;
+            BREACHES.warn("breach={} account={} ticker={} value={} limit={}", breach,
+                    positionBook.getAccounts().nameOf(accountId), positionBook.getTickers().nameOf(tickerId),
+                    notional ? Prices.toString(value) : Long.toString(value),
+                    notional ? Prices.toString(limit) : Long.toString(limit));
+        }
+    }
+
+    private static long orNone(long limit) {
+        return limit > 0 ? limit : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return the notional of all the positions of the account in price ticks, 0 while no account limit is configured
+     */
+    public long getAccountNotional(int accountId) {
+        return trackingAccounts ? accountNotionals.get(accountId) : 0;
+    }
+
+    public long getBreachCount(final Breach breach) {
+        return breachCounts.get(breach.ordinal());
+    }
+
+    /**
+     * @return whether any limit is configured
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Atomic counters in chunks of {@code CHUNK_SIZE}, added as needed and never copied or replaced.
+     */
+    private static final class Chunks {
+
+        private volatile AtomicLongArray[] chunks = new AtomicLongArray[0];
+
+        AtomicLongArray chunk(int index) {
+            AtomicLongArray[] current = chunks;
+            int chunk = index / CHUNK_SIZE;
+            if (chunk < current.length) {
+                return current[chunk];
+            }
+            return addChunks(chunk);
+        }
+
+        private synchronized AtomicLongArray addChunks(int chunk) {
+            AtomicLongArray[] current = chunks;
+            if (chunk >= current.length) {
+                int length = current.length;
+                // the existing chunks are shared, not copied
+                current = Arrays.copyOf(current, chunk + 1);
+                for (int i = length; i < current.length; i++) {
+                    current[i] = new AtomicLongArray(CHUNK_SIZE);
+                }
+                chunks = current;
+            }
+            return current[chunk];
+        }
+
+        long get(int index) {
+            AtomicLongArray[] current = chunks;
+            int chunk = index / CHUNK_SIZE;
+            return chunk < current.length ? current[chunk].get(index % CHUNK_SIZE) : 0;
+        }
+
+        void clear() {
+            for (AtomicLongArray chunk : chunks) {
+                for (int i = 0; i < CHUNK_SIZE; i++) {
+                    chunk.set(i, 0);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.trading.allocation;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The {@code PlanHistory} class is an immutable, bounded history of the {@link AllocationPlan}s published one after
+ * the other, used to find the plan in effect when a fill was executed.
+ *
+ * <p>Plans are kept in version order in one array and their effective times in a parallel {@code long[]}, which the
+ * versions keep sorted: a plan never takes effect before the one it replaces. Looking up the plan in effect at a time is
+ * a binary search over the times, preceded by a check of the latest plan since most fills are executed after it took
+ * effect. Publishing a plan copies both arrays into a new history, splits change rarely and readers then only need a
+ * single volatile read of the history to see a consistent set of plans.
+ *
+ * <p>Only the {@code maxSize} latest plans are kept, a fill executed before the oldest one is allocated against it.
+ */
+public final class PlanHistory {
+
+    public static final PlanHistory EMPTY = new PlanHistory(new AllocationPlan[0], new long[0]);
+
+    // oldest first
+    private final AllocationPlan[] plans;
+    private final long[] effectiveFromMillis;
+
+    private PlanHistory(AllocationPlan[] plans, long[] effectiveFromMillis) {
+        this.plans = plans;
+        this.effectiveFromMillis = effectiveFromMillis;
+    }
+
+    /**
+     * @param plans plans in version order
+     * @throws IllegalArgumentException if the plans are not in version and effective time order
+     */
+    public static PlanHistory of(final List<AllocationPlan> plans, int maxSize) {
+        PlanHistory history = EMPTY;
+        for (AllocationPlan plan : plans) {
+            history = history.with(plan, maxSize);
+        }
+        return history;
+    }
+
+    /**
+     * @return a new history ending with the plan, without the oldest plans above {@code maxSize}
+     * @throws IllegalArgumentException if the plan is not newer than the latest one or takes effect before it
+     */
+    public PlanHistory with(final AllocationPlan plan, int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("AUM splits history size must be positive, was " + maxSize);
+        }
+        AllocationPlan latest = latest();
+        if (plans.length > 0 && plan.getVersion() <= latest.getVersion()) {
+            throw new IllegalArgumentException("AUM splits version " + plan.getVersion()
+                    + " is not newer than version " + latest.getVersion());
+        }
+        if (plan.getEffectiveFromMillis() < latest.getEffectiveFromMillis()) {
+            throw new IllegalArgumentException("AUM splits version " + plan.getVersion() + " takes effect at "
+                    + plan.getEffectiveFromMillis() + " before version " + latest.getVersion() + " at "
+                    + latest.getEffectiveFromMillis());
+        }
+        int kept = Math.min(plans.length, maxSize - 1);
+        AllocationPlan[] nextPlans = new AllocationPlan[kept + 1];
+        long[] nextTimes = new long[kept + 1];
+        System.arraycopy(plans, plans.length - kept, nextPlans, 0, kept);
+        System.arraycopy(effectiveFromMillis, plans.length - kept, nextTimes, 0, kept);
+        nextPlans[kept] = plan;
+        nextTimes[kept] = plan.getEffectiveFromMillis();
+        return new PlanHistory(nextPlans, nextTimes);
+    }
+
+    /**
+     * @return the latest plan, {@link AllocationPlan#EMPTY} if no plan was published
+     */
+    public AllocationPlan latest() {
+        return plans.length == 0 ? AllocationPlan.EMPTY : plans[plans.length - 1];
+    }
+
+    /**
+     * Finds the plan in effect at a time: the latest plan taking effect at or before it.
+     *
+     * @param timestampMillis epoch millis, 0 or less if unknown
+     * @return the plan in effect, the latest one for an unknown time, the oldest one kept for a time before it, or
+     * {@link AllocationPlan#EMPTY} if no plan was published
+     */
+    public AllocationPlan planAt(long timestampMillis) {
+        int last = plans.length - 1;
+        if (last < 0 || timestampMillis <= 0 || timestampMillis >= effectiveFromMillis[last]) {
+            return latest();
+        }
+        // the first plan taking effect after the time, the one before it is in effect
+        int low = 0;
+        int high = last;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (effectiveFromMillis[middle] <= timestampMillis) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return plans[Math.max(low - 1, 0)];
+    }
+
+    /**
+     * @return the plan with the version, or null if it is not kept
+     */
+    public AllocationPlan plan(long version) {
+        int low = 0;
+        int high = plans.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleVersion = plans[middle].getVersion();
+            if (middleVersion < version) {
+                low = middle + 1;
+            } else if (middleVersion > version) {
+                high = middle - 1;
+            } else {
+                return plans[middle];
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return plans.length;
+    }
+
+    public boolean isEmpty() {
+        return plans.length == 0;
+    }
+
+    /**
+     * @return the plans oldest first
+     */
+    public List<AllocationPlan> getPlans() {
+        return Arrays.asList(plans.clone());
+    }
+}
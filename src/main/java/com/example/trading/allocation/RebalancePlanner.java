@@ -0,0 +1,229 @@
+package com.example.trading.allocation;
+
+import com.example.trading.book.PositionBook;
+import com.example.trading.book.RowSnapshot;
+
+import java.util.Arrays;
+
+/**
+ * The {@code RebalancePlanner} class computes the transfers between accounts that bring the positions of one ticker
+ * back in line with an {@link AllocationPlan}, after the splits changed under positions allocated with older ones.
+ *
+ * <p>When the accounts hold {@code T} shares in total the exact share of an account is
+ * {@code T * weight / totalWeight}. An account is in line when it holds that share rounded down or up, an account
+ * outside the plan when it holds nothing. Targets are computed with exact integer math:
+ * <ul>
+ *     <li>every account keeps its quantity if it is in line, or is moved to the nearest of its two bounds,</li>
+ *     <li>the targets are then fixed to add up to {@code T} with the largest remainder method, accounts at their
+ *     rounded down share with the largest remainders are rounded up first, or accounts at their rounded up share with
+ *     the smallest remainders are rounded down first, the lowest index in the plan first on ties.</li>
+ * </ul>
+ * Accounts already in line therefore only move when rounding requires it, and a row filled under the plan is usually
+ * in line without any transfer. Accounts above their target are finally matched with accounts below it in account
+ * id order, which takes fewer transfers than there are accounts moving.
+ *
+ * <p>A planner reuses its arrays, planning a row does not create any object once they have grown to the number of
+ * accounts. It is not thread-safe.
+ */
+public final class RebalancePlanner {
+
+    private int[] quantities = new int[16];
+    private int[] targets = new int[16];
+    // rounded down exact share and remainder of every account of the plan, indexed like the plan
+    private int[] floors = new int[16];
+    private int[] remainders = new int[16];
+    private long[] candidates = new long[16];
+    private int[] fromAccounts = new int[16];
+    private int[] toAccounts = new int[16];
+    private int[] transferQuantities = new int[16];
+    private int transferCount;
+
+    /**
+     * Plans the transfers of a consistent copy of a row, e.g. to find the rows out of line from any thread.
+     *
+     * @return the number of transfers
+     */
+    public int plan(final AllocationPlan plan, final RowSnapshot snapshot) {
+        int accountCount = snapshot.getAccountCount();
+        quantities = grow(quantities, accountCount);
+        System.arraycopy(snapshot.getQuantities(), 0, quantities, 0, accountCount);
+        return plan(plan, accountCount);
+    }
+
+    /**
+     * Plans the transfers of a row, which must not be written concurrently, e.g. by the row's writer.
+     *
+     * @param accountCount the number of accounts of the position book
+     * @return the number of transfers
+     */
+    public int plan(final AllocationPlan plan, final PositionBook.Row row, int accountCount) {
+        quantities = grow(quantities, accountCount);
+        for (int accountId = 0; accountId < accountCount; accountId++) {
+            quantities[accountId] = row.getQuantity(accountId);
+        }
+        return plan(plan, accountCount);
+    }
+
+    private int plan(final AllocationPlan plan, int accountCount) {
+        transferCount = 0;
+        if (plan.isEmpty()) {
+            return 0;
+        }
+        // accounts of the plan may not have had a position in the row yet
+        int size = accountCount;
+        for (int i = 0; i < plan.size(); i++) {
+            size = Math.max(size, plan.accountId(i) + 1);
+        }
+        quantities = grow(quantities, size);
+        Arrays.fill(quantities, accountCount, size, 0);
+        targets = grow(targets, size);
+        Arrays.fill(targets, 0, size, 0);
+
+        long sum = 0;
+        for (int accountId = 0; accountId < size; accountId++) {
+            sum += quantities[accountId];
+        }
+        int total = Math.toIntExact(sum);
+        long assigned = computeTargets(plan, total);
+        if (assigned < total) {
+            roundUp(plan, (int) (total - assigned));
+        } else if (assigned > total) {
+            roundDown(plan, (int) (assigned - total));
+        }
+        matchTransfers(size);
+        return transferCount;
+    }
+
+    /**
+     * Moves every account of the plan to the nearest bound of its exact share.
+     *
+     * @return the sum of the targets
+     */
+    private long computeTargets(final AllocationPlan plan, int total) {
+        floors = grow(floors, plan.size());
+        remainders = grow(remainders, plan.size());
+        long assigned = 0;
+        for (int i = 0; i < plan.size(); i++) {
+            int accountId = plan.accountId(i);
+            long share = (long) total * plan.weightBps(i);
+            int floor = (int) (share / plan.getTotalBps());
+            int remainder = (int) (share % plan.getTotalBps());
+            int ceil = remainder == 0 ? floor : floor + 1;
+            int target = Math.min(Math.max(quantities[accountId], floor), ceil);
+            floors[i] = floor;
+            remainders[i] = remainder;
+            targets[accountId] = target;
+            assigned += target;
+        }
+        return assigned;
+    }
+
+    private void roundUp(final AllocationPlan plan, int count) {
+        int candidateCount = 0;
+        candidates = grow(candidates, plan.size());
+        for (int i = 0; i < plan.size(); i++) {
+            // at its rounded down share
+            if (remainders[i] != 0 && targets[plan.accountId(i)] == floors[i]) {
+                // largest remainder first, then lowest index
+                candidates[candidateCount++] = ((long) (plan.getTotalBps() - remainders[i]) << 32) | i;
+            }
+        }
+        Arrays.sort(candidates, 0, candidateCount);
+        for (int i = 0; i < count; i++) {
+            targets[plan.accountId((int) candidates[i])]++;
+        }
+    }
+
+    private void roundDown(final AllocationPlan plan, int count) {
+        int candidateCount = 0;
+        candidates = grow(candidates, plan.size());
+        for (int i = 0; i < plan.size(); i++) {
+            // at its rounded up share
+            if (remainders[i] != 0 && targets[plan.accountId(i)] == floors[i] + 1) {
+                // smallest remainder first, then lowest index
+                candidates[candidateCount++] = ((long) remainders[i] << 32) | i;
+            }
+        }
+        Arrays.sort(candidates, 0, candidateCount);
+        for (int i = 0; i < count; i++) {
+            targets[plan.accountId((int) candidates[i])]--;
+        }
+    }
+
+    private void matchTransfers(int size) {
+        int from = nextAbove(0, size);
+        int to = nextBelow(0, size);
+        int surplus = from < size ? quantities[from] - targets[from] : 0;
+        int deficit = to < size ? targets[to] - quantities[to] : 0;
+        while (from < size && to < size) {
+            int quantity = Math.min(surplus, deficit);
+            addTransfer(from, to, quantity);
+            surplus -= quantity;
+            deficit -= quantity;
+            if (surplus == 0) {
+                from = nextAbove(from + 1, size);
+                surplus = from < size ? quantities[from] - targets[from] : 0;
+            }
+            if (deficit == 0) {
+                to = nextBelow(to + 1, size);
+                deficit = to < size ? targets[to] - quantities[to] : 0;
+            }
+        }
+    }
+
+    private int nextAbove(int accountId, int size) {
+        while (accountId < size && quantities[accountId] <= targets[accountId]) {
+            accountId++;
+        }
+        return accountId;
+    }
+
+    private int nextBelow(int accountId, int size) {
+        while (accountId < size && quantities[accountId] >= targets[accountId]) {
+            accountId++;
+        }
+        return accountId;
+    }
+
+    private void addTransfer(int from, int to, int quantity) {
+        if (transferCount == fromAccounts.length) {
+            fromAccounts = Arrays.copyOf(fromAccounts, transferCount * 2);
+            toAccounts = Arrays.copyOf(toAccounts, transferCount * 2);
+            transferQuantities = Arrays.copyOf(transferQuantities, transferCount * 2);
+        }
+        fromAccounts[transferCount] = from;
+        toAccounts[transferCount] = to;
+        transferQuantities[transferCount] = quantity;
+        transferCount++;
+    }
+
+    private static int[] grow(final int[] array, int length) {
+        return array.length >= length ? array : Arrays.copyOf(array, Math.max(length, array.length * 2));
+    }
+
+    private static long[] grow(final long[] array, int length) {
+        return array.length >= length ? array : Arrays.copyOf(array, Math.max(length, array.length * 2));
+    }
+
+    public int getTransferCount() {
+        return transferCount;
+    }
+
+    /**
+     * @return the account id giving the shares of the transfer
+     */
+    public int fromAccount(int transfer) {
+        return fromAccounts[transfer];
+    }
+
+    /**
+     * @return the account id receiving the shares of the transfer
+     */
+    public int toAccount(int transfer) {
+        return toAccounts[transfer];
+    }
+
+    public int quantity(int transfer) {
+        return transferQuantities[transfer];
+    }
+}
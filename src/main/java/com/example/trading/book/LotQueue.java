@@ -0,0 +1,213 @@
+package com.example.trading.book;
+
+/**
+ * The {@code LotQueue} class holds the tax lots of one account in one ticker, as a quantity and a price in ticks per
+ * lot, in the order a {@link LotRelief} method sells them.
+ *
+ * <p>Lots are kept in two primitive arrays that only grow:
+ * <ul>
+ *     <li>{@link LotRelief#FIFO} and {@link LotRelief#LIFO} use them as a ring buffer, lots are added at the tail and
+ *     sold from the head or the tail. A lot bought at the same price as the newest lot is merged into it.</li>
+ *     <li>{@link LotRelief#HIGHEST_COST} uses them as a binary max-heap on the price.</li>
+ * </ul>
+ * A sell touching {@code k} of {@code n} lots therefore costs {@code O(k)}, or {@code O(k log n)} for the heap, and
+ * never scans the other lots or creates any object.
+ *
+ * <p>A queue belongs to a {@link PositionBook.Row} and is only written by the row's writer.
+ */
+public final class LotQueue {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private final LotRelief relief;
+    private int[] quantities = new int[INITIAL_CAPACITY];
+    private long[] prices = new long[INITIAL_CAPACITY];
+    // index of the oldest lot in the ring buffer, always 0 for the heap
+    private int head;
+    private int size;
+
+    LotQueue(LotRelief relief) {
+        if (relief == LotRelief.AVERAGE) {
+            throw new IllegalArgumentException("Lots are not kept for " + relief);
+        }
+        this.relief = relief;
+    }
+
+    /**
+     * Adds a lot of {@code quantity} shares bought at {@code priceTicks}.
+     */
+    public void add(int quantity, long priceTicks) {
+        if (quantity <= 0) {
+            return;
+        }
+        if (relief == LotRelief.HIGHEST_COST) {
+            ensureCapacity();
+            quantities[size] = quantity;
+            prices[size] = priceTicks;
+            siftUp(size++);
+            return;
+        }
+        int mask = quantities.length - 1;
+        if (size > 0) {
+            int tail = (head + size - 1) & mask;
+            if (prices[tail] == priceTicks && quantities[tail] <= Integer.MAX_VALUE - quantity) {
+                quantities[tail] += quantity;
+                return;
+            }
+        }
+        ensureCapacity();
+        mask = quantities.length - 1;
+        int tail = (head + size) & mask;
+        quantities[tail] = quantity;
+        prices[tail] = priceTicks;
+        size++;
+    }
+
+    /**
+     * Removes {@code quantity} shares, following the relief method, from as many lots as needed.
+     *
+     * @return the cost of the shares removed in ticks, which only covers the shares held if fewer were held
+     */
+    public long relieve(int quantity) {
+        long cost = 0;
+        while (quantity > 0 && size > 0) {
+            int index = nextIndex();
+            int lotQuantity = quantities[index];
+            if (lotQuantity > quantity) {
+                quantities[index] = lotQuantity - quantity;
+                return cost + (long) quantity * prices[index];
+            }
+            cost += (long) lotQuantity * prices[index];
+            quantity -= lotQuantity;
+            removeNext();
+        }
+        return cost;
+    }
+
+    private int nextIndex() {
+        return switch (relief) {
+            case FIFO -> head;
+            case LIFO -> (head + size - 1) & (quantities.length - 1);
+            default -> 0;
+        };
+    }
+
+    private void removeNext() {
+        switch (relief) {
+            case FIFO -> {
+                head = (head + 1) & (quantities.length - 1);
+                size--;
+            }
+            case LIFO -> size--;
+            default -> {
+                size--;
+                if (size > 0) {
+                    quantities[0] = quantities[size];
+                    prices[0] = prices[size];
+                    siftDown(0);
+                }
+            }
+        }
+        if (size == 0) {
+            head = 0;
+        }
+    }
+
+    private void siftUp(int index) {
+        int quantity = quantities[index];
+        long price = prices[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (prices[parent] >= price) {
+                break;
+            }
+            quantities[index] = quantities[parent];
+            prices[index] = prices[parent];
+            index = parent;
+        }
+        quantities[index] = quantity;
+        prices[index] = price;
+    }
+
+    private void siftDown(int index) {
+        int quantity = quantities[index];
+        long price = prices[index];
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            if (child + 1 < size && prices[child + 1] > prices[child]) {
+                child++;
+            }
+            if (price >= prices[child]) {
+                break;
+            }
+            quantities[index] = quantities[child];
+            prices[index] = prices[child];
+            index = child;
+        }
+        quantities[index] = quantity;
+        prices[index] = price;
+    }
+
+    private void ensureCapacity() {
+        if (size < quantities.length) {
+            return;
+        }
+        // capacities stay powers of two for the ring buffer mask, the ring is unwrapped to start at 0
+        int capacity = quantities.length * 2;
+        int[] newQuantities = new int[capacity];
+        long[] newPrices = new long[capacity];
+        int mask = quantities.length - 1;
+        for (int i = 0; i < size; i++) {
+            newQuantities[i] = quantities[(head + i) & mask];
+            newPrices[i] = prices[(head + i) & mask];
+        }
+        // prices first, readers bound their copy on the shorter of the two arrays
+        prices = newPrices;
+        quantities = newQuantities;
+        head = 0;
+    }
+
+    /**
+     * Copies the lots into the arrays from {@code offset}, oldest first for the ring buffer and in heap order for the
+     * heap, so that adding them back in that order rebuilds an equivalent queue. May be called from another thread
+     * than the writer, the copy is then only valid if the row version did not move meanwhile.
+     *
+     * @return the number of lots copied, or -1 if they do not fit in the arrays
+     */
+    int copyTo(final int[] lotQuantities, final long[] lotPrices, int offset) {
+        int[] currentQuantities = quantities;
+        long[] currentPrices = prices;
+        int capacity = Math.min(currentQuantities.length, currentPrices.length);
+        int count = Math.min(size, capacity);
+        if (offset + count > Math.min(lotQuantities.length, lotPrices.length)) {
+            return -1;
+        }
+        int start = relief == LotRelief.HIGHEST_COST ? 0 : head;
+        int mask = capacity - 1;
+        for (int i = 0; i < count; i++) {
+            int index = (start + i) & mask;
+            lotQuantities[offset + i] = currentQuantities[index];
+            lotPrices[offset + i] = currentPrices[index];
+        }
+        return count;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the shares held over all lots
+     */
+    public long quantity() {
+        long quantity = 0;
+        int mask = quantities.length - 1;
+        int start = relief == LotRelief.HIGHEST_COST ? 0 : head;
+        for (int i = 0; i < size; i++) {
+            quantity += quantities[(start + i) & mask];
+        }
+        return quantity;
+    }
+
+}
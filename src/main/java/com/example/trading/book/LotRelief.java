@@ -0,0 +1,18 @@
+package com.example.trading.book;
+
+/**
+ * Defines which shares a sell takes out of a position, which decides the cost basis relieved and the P&L realized.
+ * <ul>
+ *     <li>{@link #AVERAGE} - every share costs the average cost of the position, no lots are kept.</li>
+ *     <li>{@link #FIFO} - the oldest lots are sold first.</li>
+ *     <li>{@link #LIFO} - the newest lots are sold first.</li>
+ *     <li>{@link #HIGHEST_COST} - the lots bought at the highest price are sold first.</li>
+ * </ul>
+ * <p>Note: position.lots.relief can be used to configure the method
+ */
+public enum LotRelief {
+    AVERAGE,
+    FIFO,
+    LIFO,
+    HIGHEST_COST
+}
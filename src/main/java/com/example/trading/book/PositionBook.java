@@ -0,0 +1,355 @@
+package com.example.trading.book;
+
+import com.example.trading.model.Position;
+import com.example.trading.model.Prices;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The {@code PositionBook} class stores the positions of every account in primitive arrays.
+ *
+ * <p>Accounts and stock tickers are interned to int ids by {@link SymbolTable}s. Each ticker owns a {@link Row}
+ * holding the quantity, total value, cost basis and realized P&L of every account indexed by account id, so updating a
+ * position is a few array writes and does not create any object once the row has grown to the number of accounts.
+ * Amounts are fixed-point {@link Prices} ticks, the cost basis and realized P&L are kept up to date incrementally with
+ * exact integer math as positions are bought and sold. By default a sell relieves the average cost of the position,
+ * with another {@link LotRelief} method every account keeps its tax lots in a {@link LotQueue} and a sell relieves the
+ * cost of the lots it takes out.
+ *
+ * <p>A row must only be written by one thread at a time, which the allocation engine guarantees by owning every
+ * ticker on a single shard. Rows can be read from any thread, a consistent copy of a row can be taken without ever
+ * blocking its writer with {@link Row#copyTo(RowSnapshot)}: writes wrapped in {@link Row#beginWrite()} /
+ * {@link Row#endWrite()} bump the row version to odd then even again (a seqlock) and the copy is retried if the
+ * version moved while copying.
+ */
+public class PositionBook {
+
+    private static final int INITIAL_ACCOUNTS = 8;
+
+    private final SymbolTable accounts = new SymbolTable();
+    private final SymbolTable tickers = new SymbolTable();
+    private volatile Row[] rows = new Row[16];
+    private volatile LotRelief lotRelief = LotRelief.AVERAGE;
+
+    public int accountId(final String account) {
+        return accounts.intern(account);
+    }
+
+    public int tickerId(final String stockTicker) {
+        return tickers.intern(stockTicker);
+    }
+
+    public SymbolTable getAccounts() {
+        return accounts;
+    }
+
+    public SymbolTable getTickers() {
+        return tickers;
+    }
+
+    public LotRelief getLotRelief() {
+        return lotRelief;
+    }
+
+    /**
+     * Sets how sells relieve the cost basis, which can only be chosen before the first row is created.
+     *
+     * @throws IllegalStateException if the book already holds a row
+     */
+    public synchronized void setLotRelief(final LotRelief lotRelief) {
+        if (lotRelief == this.lotRelief) {
+            return;
+        }
+        for (Row row : rows) {
+            if (row != null) {
+                throw new IllegalStateException("Lot relief cannot be changed once positions exist");
+            }
+        }
+        this.lotRelief = lotRelief;
+    }
+
+    /**
+     * @return the row of the ticker, creating it on first use
+     */
+    public Row row(int tickerId) {
+        Row[] current = rows;
+        if (tickerId < current.length && current[tickerId] != null) {
+            return current[tickerId];
+        }
+        return createRow(tickerId);
+    }
+
+    private synchronized Row createRow(int tickerId) {
+        Row[] current = rows;
+        if (tickerId >= current.length) {
+            current = Arrays.copyOf(current, Math.max(current.length * 2, tickerId + 1));
+        }
+        if (current[tickerId] == null) {
+            current[tickerId] = new Row(tickerId, lotRelief);
+        }
+        rows = current;
+        return current[tickerId];
+    }
+
+    public int getQuantity(final String account, final String stockTicker) {
+        int accountId = accounts.idOf(account);
+        int tickerId = tickers.idOf(stockTicker);
+        if (accountId < 0 || tickerId < 0) {
+            return 0;
+        }
+        return row(tickerId).getQuantity(accountId);
+    }
+
+    /**
+     * Builds a {@code account -> ticker -> Position} view of the book. Accounts without any open position are
+     * left out. The view is a copy, it is not updated by later fills, and every ticker is copied consistently.
+     */
+    public Map<String, Map<String, Position>> toPositionMap() {
+        Map<String, Map<String, Position>> positions = new HashMap<>();
+        RowSnapshot snapshot = new RowSnapshot();
+        int tickerCount = tickers.size();
+        for (int tickerId = 0; tickerId < tickerCount; tickerId++) {
+            row(tickerId).copyTo(snapshot);
+            String stockTicker = tickers.nameOf(tickerId);
+            int[] quantities = snapshot.getQuantities();
+            for (int accountId = 0; accountId < snapshot.getAccountCount(); accountId++) {
+                if (quantities[accountId] != 0) {
+                    positions.computeIfAbsent(accounts.nameOf(accountId), k -> new HashMap<>())
+                            .put(stockTicker, new Position(stockTicker, quantities[accountId], snapshot.getValues()[accountId],
+                                    snapshot.getCostBases()[accountId], snapshot.getRealizedPnls()[accountId]));
+                }
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * The positions of all accounts in one stock ticker.
+     */
+    public static final class Row {
+
+        private final int tickerId;
+        private final LotRelief lotRelief;
+        private volatile int[] quantities = new int[INITIAL_ACCOUNTS];
+        private volatile long[] values = new long[INITIAL_ACCOUNTS];
+        private volatile long[] costBases = new long[INITIAL_ACCOUNTS];
+        private volatile long[] realizedPnls = new long[INITIAL_ACCOUNTS];
+        // tax lots per account, null when the average cost is relieved, a queue is created on the account's first buy
+        private volatile LotQueue[] lots;
+        // odd while a write is in progress, only ever incremented by the writer
+        private volatile long version;
+        // sequence of the last journal record applied to the row
+        private long journalSequence;
+
+        private Row(int tickerId, LotRelief lotRelief) {
+            this.tickerId = tickerId;
+            this.lotRelief = lotRelief;
+            if (lotRelief != LotRelief.AVERAGE) {
+                this.lots = new LotQueue[INITIAL_ACCOUNTS];
+            }
+        }
+
+        public int getTickerId() {
+            return tickerId;
+        }
+
+        public int getQuantity(int accountId) {
+            int[] current = quantities;
+            return accountId < current.length ? current[accountId] : 0;
+        }
+
+        public long getTotalValue(int accountId) {
+            long[] current = values;
+            return accountId < current.length ? current[accountId] : 0;
+        }
+
+        public long getCostBasis(int accountId) {
+            long[] current = costBases;
+            return accountId < current.length ? current[accountId] : 0;
+        }
+
+        public long getRealizedPnl(int accountId) {
+            long[] current = realizedPnls;
+            return accountId < current.length ? current[accountId] : 0;
+        }
+
+        /**
+         * @return whether the row keeps tax lots
+         */
+        public boolean hasLots() {
+            return lots != null;
+        }
+
+        public void beginWrite() {
+            version++;
+            // the odd version must be visible before any of the writes that follow
+            VarHandle.storeStoreFence();
+        }
+
+        public void endWrite() {
+            version++;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public long getJournalSequence() {
+            return journalSequence;
+        }
+
+        public void setJournalSequence(long journalSequence) {
+            this.journalSequence = journalSequence;
+        }
+
+        /**
+         * Copies the row into the snapshot, retrying until the copy is not torn by a concurrent write.
+         */
+        public void copyTo(final RowSnapshot snapshot) {
+            copyTo(snapshot, false);
+        }
+
+        /**
+         * Copies the row into the snapshot like {@link #copyTo(RowSnapshot)}, with the tax lots of every account when
+         * {@code withLots} is set and the row keeps lots.
+         */
+        public void copyTo(final RowSnapshot snapshot, boolean withLots) {
+            while (true) {
+                long before = version;
+                if ((before & 1) != 0) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                int[] currentQuantities = quantities;
+                long[] currentValues = values;
+                long[] currentCostBases = costBases;
+                long[] currentRealizedPnls = realizedPnls;
+                int accountCount = Math.min(Math.min(currentQuantities.length, currentValues.length),
+                        Math.min(currentCostBases.length, currentRealizedPnls.length));
+                snapshot.ensureCapacity(accountCount);
+                System.arraycopy(currentQuantities, 0, snapshot.getQuantities(), 0, accountCount);
+                System.arraycopy(currentValues, 0, snapshot.getValues(), 0, accountCount);
+                System.arraycopy(currentCostBases, 0, snapshot.getCostBases(), 0, accountCount);
+                System.arraycopy(currentRealizedPnls, 0, snapshot.getRealizedPnls(), 0, accountCount);
+                if (!copyLotsTo(snapshot, withLots ? lots : null, accountCount)) {
+                    continue;
+                }
+                long sequence = journalSequence;
+                VarHandle.loadLoadFence();
+                if (version == before) {
+                    snapshot.set(tickerId, accountCount, before, sequence);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * @return false if the lots did not fit in the snapshot, which has then been grown for a retry
+         */
+        private static boolean copyLotsTo(final RowSnapshot snapshot, final LotQueue[] currentLots, int accountCount) {
+            snapshot.ensureLotCounts(accountCount);
+            int[] lotCounts = snapshot.getLotCounts();
+            if (currentLots == null) {
+                Arrays.fill(lotCounts, 0, accountCount, 0);
+                snapshot.setLotTotal(0);
+                return true;
+            }
+            int total = 0;
+            for (int accountId = 0; accountId < accountCount; accountId++) {
+                LotQueue queue = accountId < currentLots.length ? currentLots[accountId] : null;
+                int count = queue == null ? 0 : queue.copyTo(snapshot.getLotQuantities(), snapshot.getLotPrices(), total);
+                if (count < 0) {
+                    snapshot.ensureLotCapacity(total + queue.size());
+                    return false;
+                }
+                lotCounts[accountId] = count;
+                total += count;
+            }
+            snapshot.setLotTotal(total);
+            return true;
+        }
+
+        /**
+         * Moves the account to {@code quantity} at a price of {@code priceTicks} and marks it at that price. Shares
+         * added are added to the cost basis at the price, as a new lot when the row keeps lots. Shares removed relieve
+         * the cost of the lots they are taken from, or the average cost, and realize the difference with the price.
+         */
+        public void update(int accountId, int quantity, long priceTicks) {
+            ensureCapacity(accountId);
+            int currentQuantity = quantities[accountId];
+            long costBasis = costBases[accountId];
+            if (quantity > currentQuantity) {
+                costBasis += (long) (quantity - currentQuantity) * priceTicks;
+                if (lots != null) {
+                    lotsOf(accountId).add(quantity - currentQuantity, priceTicks);
+                }
+            } else if (quantity < currentQuantity) {
+                long relievedCost;
+                if (lots != null) {
+                    relievedCost = lotsOf(accountId).relieve(currentQuantity - quantity);
+                } else {
+                    // rounding of the average cost stays with the shares still held, closing a position relieves all of it
+                    relievedCost = costBasis - Prices.prorate(costBasis, quantity, currentQuantity);
+                }
+                realizedPnls[accountId] += (long) (currentQuantity - quantity) * priceTicks - relievedCost;
+                costBasis -= relievedCost;
+            }
+            quantities[accountId] = quantity;
+            values[accountId] = (long) quantity * priceTicks;
+            costBases[accountId] = costBasis;
+        }
+
+        /**
+         * Overwrites the account's position, used to restore a saved state. The account's lots are cleared, they are
+         * restored with {@link #addLot(int, int, long)}.
+         */
+        public void set(int accountId, int quantity, long totalValue, long costBasis, long realizedPnl) {
+            ensureCapacity(accountId);
+            quantities[accountId] = quantity;
+            values[accountId] = totalValue;
+            costBases[accountId] = costBasis;
+            realizedPnls[accountId] = realizedPnl;
+            if (lots != null) {
+                lots[accountId] = null;
+            }
+        }
+
+        /**
+         * Appends a lot to the account's lots without touching its position, used to restore a saved state. Ignored
+         * when the row does not keep lots.
+         */
+        public void addLot(int accountId, int quantity, long priceTicks) {
+            ensureCapacity(accountId);
+            if (lots != null) {
+                lotsOf(accountId).add(quantity, priceTicks);
+            }
+        }
+
+        private LotQueue lotsOf(int accountId) {
+            LotQueue queue = lots[accountId];
+            if (queue == null) {
+                queue = new LotQueue(lotRelief);
+                lots[accountId] = queue;
+            }
+            return queue;
+        }
+
+        private void ensureCapacity(int accountId) {
+            if (accountId < quantities.length) {
+                return;
+            }
+            int newLength = Math.max(quantities.length * 2, accountId + 1);
+            // quantities last, readers size their loop on the shortest of the arrays
+            if (lots != null) {
+                lots = Arrays.copyOf(lots, newLength);
+            }
+            values = Arrays.copyOf(values, newLength);
+            costBases = Arrays.copyOf(costBases, newLength);
+            realizedPnls = Arrays.copyOf(realizedPnls, newLength);
+            quantities = Arrays.copyOf(quantities, newLength);
+        }
+    }
+}
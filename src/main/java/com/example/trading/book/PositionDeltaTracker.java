@@ -0,0 +1,112 @@
+package com.example.trading.book;
+
+import com.example.trading.model.PositionDelta;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The {@code PositionDeltaTracker} class remembers the last published state of a {@link PositionBook} and collects
+ * the positions that changed since then.
+ *
+ * <p>Each publish is an epoch. Rows whose version did not move since the previous epoch are skipped with a single
+ * volatile read, changed rows are copied consistently with {@link PositionBook.Row#copyTo(RowSnapshot)} and compared
+ * account by account against the published copy, so the cost of a publish follows the number of changed tickers and
+ * not the size of the book. Allocation threads are never blocked.
+ */
+public class PositionDeltaTracker {
+
+    private final PositionBook positionBook;
+    private final RowSnapshot snapshot = new RowSnapshot();
+    // last published state, indexed by ticker id
+    private long[] publishedVersions = new long[0];
+    private int[][] publishedQuantities = new int[0][];
+    private long[][] publishedValues = new long[0][];
+    private long epoch;
+
+    public PositionDeltaTracker(PositionBook positionBook) {
+        this.positionBook = positionBook;
+    }
+
+    /**
+     * @return true if any row was written since the last {@link #collectChanges()}
+     */
+    public synchronized boolean hasChanges() {
+        int tickerCount = positionBook.getTickers().size();
+        for (int tickerId = 0; tickerId < tickerCount; tickerId++) {
+            if (positionBook.row(tickerId).getVersion() != publishedVersion(tickerId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Starts a new epoch and returns the positions that changed since the previous one.
+     */
+    public synchronized List<PositionDelta> collectChanges() {
+        List<PositionDelta> deltas = new ArrayList<>();
+        int tickerCount = positionBook.getTickers().size();
+        ensureCapacity(tickerCount);
+        for (int tickerId = 0; tickerId < tickerCount; tickerId++) {
+            PositionBook.Row row = positionBook.row(tickerId);
+            if (row.getVersion() == publishedVersions[tickerId]) {
+                continue;
+            }
+            row.copyTo(snapshot);
+            collectRow(tickerId, deltas);
+            publishedVersions[tickerId] = snapshot.getVersion();
+        }
+        epoch++;
+        return deltas;
+    }
+
+    private void collectRow(int tickerId, final List<PositionDelta> deltas) {
+        int accountCount = snapshot.getAccountCount();
+        int[] quantities = publishedQuantities[tickerId];
+        long[] values = publishedValues[tickerId];
+        if (quantities.length < accountCount) {
+            quantities = publishedQuantities[tickerId] = Arrays.copyOf(quantities, accountCount);
+            values = publishedValues[tickerId] = Arrays.copyOf(values, accountCount);
+        }
+        String stockTicker = positionBook.getTickers().nameOf(tickerId);
+        for (int accountId = 0; accountId < accountCount; accountId++) {
+            int quantity = snapshot.getQuantities()[accountId];
+            long totalValue = snapshot.getValues()[accountId];
+            // the cost basis and realized P&L only move along with the quantity
+            if (quantity != quantities[accountId] || totalValue != values[accountId]) {
+                quantities[accountId] = quantity;
+                values[accountId] = totalValue;
+                deltas.add(new PositionDelta(positionBook.getAccounts().nameOf(accountId), stockTicker, quantity, totalValue,
+                        snapshot.getCostBases()[accountId], snapshot.getRealizedPnls()[accountId]));
+            }
+        }
+    }
+
+    private long publishedVersion(int tickerId) {
+        return tickerId < publishedVersions.length ? publishedVersions[tickerId] : 0;
+    }
+
+    private void ensureCapacity(int tickerCount) {
+        if (publishedVersions.length >= tickerCount) {
+            return;
+        }
+        int oldLength = publishedVersions.length;
+        int newLength = Math.max(tickerCount, oldLength * 2);
+        publishedVersions = Arrays.copyOf(publishedVersions, newLength);
+        publishedQuantities = Arrays.copyOf(publishedQuantities, newLength);
+        publishedValues = Arrays.copyOf(publishedValues, newLength);
+        for (int tickerId = oldLength; tickerId < newLength; tickerId++) {
+            publishedQuantities[tickerId] = new int[0];
+            publishedValues[tickerId] = new long[0];
+        }
+    }
+
+    /**
+     * @return the number of epochs collected so far
+     */
+    public synchronized long getEpoch() {
+        return epoch;
+    }
+}
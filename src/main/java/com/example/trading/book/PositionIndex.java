@@ -0,0 +1,361 @@
+package com.example.trading.book;
+
+import java.util.Arrays;
+
+/**
+ * The {@code PositionIndex} class maintains a read-optimized copy of a {@link PositionBook}: the accounts holding
+ * every ticker, the tickers held by every account and the aggregates of every ticker and account, published as an
+ * immutable {@link View}.
+ *
+ * <p>A refresh works like {@link PositionDeltaTracker}: rows whose version did not move since the previous view are
+ * skipped with a single volatile read and keep their {@link TickerPositions}, changed rows are copied consistently
+ * with {@link PositionBook.Row#copyTo(RowSnapshot)} into a new one holding only the accounts with an open position.
+ * The account aggregates and ticker lists are updated incrementally by taking out the old positions of a changed ticker
+ * and adding its new ones, so the cost of a refresh follows the number of changed tickers and not the size of the book.
+ * The ticker list of an account is copied once by the first refresh changing it, the lists of other accounts are
+ * shared with the previous view.
+ *
+ * <p>The view is published with a single volatile write. Readers never take a lock and never touch the rows, so
+ * queries do not slow down the allocation threads, and answer from the last refresh.
+ */
+public class PositionIndex {
+
+    private final PositionBook positionBook;
+    private final RowSnapshot snapshot = new RowSnapshot();
+    private volatile View view = View.EMPTY;
+
+    public PositionIndex(PositionBook positionBook) {
+        this.positionBook = positionBook;
+    }
+
+    /**
+     * @return the view published by the last refresh
+     */
+    public View getView() {
+        return view;
+    }
+
+    /**
+     * Publishes a new view if any row was written since the previous one.
+     *
+     * @return the current view
+     */
+    public synchronized View refresh() {
+        View current = view;
+        int tickerCount = positionBook.getTickers().size();
+        TickerPositions[] tickers = null;
+        Accounts accounts = null;
+        for (int tickerId = 0; tickerId < tickerCount; tickerId++) {
+            PositionBook.Row row = positionBook.row(tickerId);
+            TickerPositions previous = current.ticker(tickerId);
+            if (previous != null && row.getVersion() == previous.version) {
+                continue;
+            }
+            row.copyTo(snapshot);
+            TickerPositions next = TickerPositions.of(snapshot);
+            if (tickers == null) {
+                // copy on the first change only, an unchanged book keeps its view
+                tickers = Arrays.copyOf(current.tickers, tickerCount);
+                accounts = new Accounts(current);
+            }
+            if (previous != null) {
+                accounts.addTo(previous, -1);
+            }
+            accounts.addTo(next, 1);
+            tickers[tickerId] = next;
+        }
+        if (tickers != null) {
+            view = new View(current.epoch + 1, tickers, accounts.totals, accounts.tickerIds);
+        }
+        return view;
+    }
+
+    /**
+     * The account totals and ticker lists of the view being built.
+     */
+    private static final class Accounts {
+
+        private long[][] totals;
+        private int[][] tickerIds;
+        // the ticker lists copied by this refresh, which it may change in place
+        private boolean[] copied;
+
+        private Accounts(final View current) {
+            totals = current.copyAccountTotals();
+            tickerIds = current.accountTickerIds.clone();
+            copied = new boolean[tickerIds.length];
+        }
+
+        private void addTo(final TickerPositions ticker, int sign) {
+            for (int i = 0; i < ticker.accountIds.length; i++) {
+                int accountId = ticker.accountIds[i];
+                if (accountId >= totals[0].length) {
+                    int length = Math.max(accountId + 1, totals[0].length * 2);
+                    for (int total = 0; total < totals.length; total++) {
+                        totals[total] = Arrays.copyOf(totals[total], length);
+                    }
+                    tickerIds = Arrays.copyOf(tickerIds, length);
+                    copied = Arrays.copyOf(copied, length);
+                }
+                int count = (int) totals[View.POSITIONS][accountId];
+                if (sign > 0) {
+                    addTicker(accountId, count, ticker.tickerId);
+                } else {
+                    removeTicker(accountId, count, ticker.tickerId);
+                }
+                int quantity = ticker.quantities[i];
+                totals[View.POSITIONS][accountId] += sign;
+                totals[View.GROSS][accountId] += sign * (long) Math.abs(quantity);
+                totals[View.NET][accountId] += sign * (long) quantity;
+                totals[View.NOTIONAL][accountId] += sign * Math.abs(ticker.values[i]);
+            }
+        }
+
+        private void addTicker(int accountId, int count, int tickerId) {
+            int[] ids = writableTickerIds(accountId, count + 1);
+            int index = -Arrays.binarySearch(ids, 0, count, tickerId) - 1;
+            System.arraycopy(ids, index, ids, index + 1, count - index);
+            ids[index] = tickerId;
+        }
+
+        private void removeTicker(int accountId, int count, int tickerId) {
+            int[] ids = writableTickerIds(accountId, count);
+            int index = Arrays.binarySearch(ids, 0, count, tickerId);
+            System.arraycopy(ids, index + 1, ids, index, count - index - 1);
+        }
+
+        private int[] writableTickerIds(int accountId, int capacity) {
+            int[] ids = tickerIds[accountId];
+            if (ids == null) {
+                ids = new int[0];
+            }
+            if (!copied[accountId] || ids.length < capacity) {
+                int length = ids.length < capacity ? Math.max(capacity, Math.min(ids.length * 2, ids.length + 1024)) : ids.length;
+                ids = Arrays.copyOf(ids, length);
+                tickerIds[accountId] = ids;
+                copied[accountId] = true;
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * An immutable copy of the book, indexed by ticker id and account id.
+     */
+    public static final class View {
+
+        static final View EMPTY = new View(0, new TickerPositions[0], new long[4][0], new int[0][]);
+
+        private static final int POSITIONS = 0;
+        private static final int GROSS = 1;
+        private static final int NET = 2;
+        private static final int NOTIONAL = 3;
+
+        private final long epoch;
+        // null for tickers that never had a row
+        private final TickerPositions[] tickers;
+        // positions held, gross quantity, net quantity and notional in ticks of every account
+        private final long[][] accountTotals;
+        // the ids of the tickers held by every account in ascending order, the first positions held are valid
+        private final int[][] accountTickerIds;
+
+        private View(long epoch, TickerPositions[] tickers, long[][] accountTotals, int[][] accountTickerIds) {
+            this.epoch = epoch;
+            this.tickers = tickers;
+            this.accountTotals = accountTotals;
+            this.accountTickerIds = accountTickerIds;
+        }
+
+        private long[][] copyAccountTotals() {
+            long[][] copy = new long[accountTotals.length][];
+            for (int total = 0; total < accountTotals.length; total++) {
+                copy[total] = accountTotals[total].clone();
+            }
+            return copy;
+        }
+
+        /**
+         * @return the number of refreshes that published a new view
+         */
+        public long getEpoch() {
+            return epoch;
+        }
+
+        public int getTickerCount() {
+            return tickers.length;
+        }
+
+        /**
+         * @return the positions in the ticker, or null if the ticker is not in the view
+         */
+        public TickerPositions ticker(int tickerId) {
+            return tickerId >= 0 && tickerId < tickers.length ? tickers[tickerId] : null;
+        }
+
+        /**
+         * @return the number of tickers the account holds
+         */
+        public int getPositionCount(int accountId) {
+            return (int) accountTotal(POSITIONS, accountId);
+        }
+
+        /**
+         * @param position from 0 to the account's position count excluded
+         * @return the id of the account's ticker at that position, the tickers are in ascending id order
+         */
+        public int tickerId(int accountId, int position) {
+            return accountTickerIds[accountId][position];
+        }
+
+        /**
+         * @return the sum of the absolute quantities held by the account
+         */
+        public long getGrossQuantity(int accountId) {
+            return accountTotal(GROSS, accountId);
+        }
+
+        public long getNetQuantity(int accountId) {
+            return accountTotal(NET, accountId);
+        }
+
+        /**
+         * @return the sum of the absolute total values of the account's positions, in price ticks
+         */
+        public long getNotional(int accountId) {
+            return accountTotal(NOTIONAL, accountId);
+        }
+
+        private long accountTotal(int total, int accountId) {
+            long[] totals = accountTotals[total];
+            return accountId >= 0 && accountId < totals.length ? totals[accountId] : 0;
+        }
+    }
+
+    /**
+     * The open positions of one ticker, sorted by account id, and their aggregates.
+     */
+    public static final class TickerPositions {
+
+        private final int tickerId;
+        private final long version;
+        private final int[] accountIds;
+        private final int[] quantities;
+        private final long[] values;
+        private final long[] costBases;
+        private final long[] realizedPnls;
+        private final long grossQuantity;
+        private final long netQuantity;
+        private final long notional;
+
+        private TickerPositions(int tickerId, long version, int[] accountIds, int[] quantities, long[] values,
+                                long[] costBases, long[] realizedPnls) {
+            this.tickerId = tickerId;
+            this.version = version;
+            this.accountIds = accountIds;
+            this.quantities = quantities;
+            this.values = values;
+            this.costBases = costBases;
+            this.realizedPnls = realizedPnls;
+            long gross = 0;
+            long net = 0;
+            long notionalTicks = 0;
+            for (int i = 0; i < accountIds.length; i++) {
+                gross += Math.abs(quantities[i]);
+                net += quantities[i];
+                notionalTicks += Math.abs(values[i]);
+            }
+            this.grossQuantity = gross;
+            this.netQuantity = net;
+            this.notional = notionalTicks;
+        }
+
+        private static TickerPositions of(final RowSnapshot snapshot) {
+            int[] rowQuantities = snapshot.getQuantities();
+            int count = 0;
+            for (int accountId = 0; accountId < snapshot.getAccountCount(); accountId++) {
+                if (rowQuantities[accountId] != 0) {
+                    count++;
+                }
+            }
+            int[] accountIds = new int[count];
+            int[] quantities = new int[count];
+            long[] values = new long[count];
+            long[] costBases = new long[count];
+            long[] realizedPnls = new long[count];
+            int i = 0;
+            for (int accountId = 0; accountId < snapshot.getAccountCount(); accountId++) {
+                if (rowQuantities[accountId] != 0) {
+                    accountIds[i] = accountId;
+                    quantities[i] = rowQuantities[accountId];
+                    values[i] = snapshot.getValues()[accountId];
+                    costBases[i] = snapshot.getCostBases()[accountId];
+                    realizedPnls[i] = snapshot.getRealizedPnls()[accountId];
+                    i++;
+                }
+            }
+            return new TickerPositions(snapshot.getTickerId(), snapshot.getVersion(), accountIds, quantities, values,
+                    costBases, realizedPnls);
+        }
+
+        public int getTickerId() {
+            return tickerId;
+        }
+
+        /**
+         * @return the row version the positions were copied at
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * @return the number of accounts holding the ticker
+         */
+        public int getHolderCount() {
+            return accountIds.length;
+        }
+
+        /**
+         * @return the index of the account among the holders, or -1 if it does not hold the ticker
+         */
+        public int indexOf(int accountId) {
+            int index = Arrays.binarySearch(accountIds, accountId);
+            return index >= 0 ? index : -1;
+        }
+
+        public int accountId(int holder) {
+            return accountIds[holder];
+        }
+
+        public int quantity(int holder) {
+            return quantities[holder];
+        }
+
+        public long totalValue(int holder) {
+            return values[holder];
+        }
+
+        public long costBasis(int holder) {
+            return costBases[holder];
+        }
+
+        public long realizedPnl(int holder) {
+            return realizedPnls[holder];
+        }
+
+        public long getGrossQuantity() {
+            return grossQuantity;
+        }
+
+        public long getNetQuantity() {
+            return netQuantity;
+        }
+
+        /**
+         * @return the sum of the absolute total values of the holders, in price ticks
+         */
+        public long getNotional() {
+            return notional;
+        }
+    }
+}
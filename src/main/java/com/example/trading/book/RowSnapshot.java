@@ -0,0 +1,129 @@
+package com.example.trading.book;
+
+import java.util.Arrays;
+
+/**
+ * A reusable, consistent copy of one {@link PositionBook.Row}, filled by {@link PositionBook.Row#copyTo(RowSnapshot)}.
+ * Arrays only grow, so copying rows into the same snapshot over and over does not allocate.
+ */
+public class RowSnapshot {
+
+    private int tickerId;
+    private int accountCount;
+    private long version;
+    private long journalSequence;
+    private int[] quantities = new int[0];
+    private long[] values = new long[0];
+    private long[] costBases = new long[0];
+    private long[] realizedPnls = new long[0];
+    private int[] lotCounts = new int[0];
+    private int lotTotal;
+    private int[] lotQuantities = new int[0];
+    private long[] lotPrices = new long[0];
+
+    void ensureCapacity(int accountCount) {
+        if (quantities.length < accountCount) {
+            quantities = Arrays.copyOf(quantities, accountCount);
+            values = Arrays.copyOf(values, accountCount);
+            costBases = Arrays.copyOf(costBases, accountCount);
+            realizedPnls = Arrays.copyOf(realizedPnls, accountCount);
+        }
+    }
+
+    void ensureLotCounts(int accountCount) {
+        if (lotCounts.length < accountCount) {
+            lotCounts = Arrays.copyOf(lotCounts, accountCount);
+        }
+    }
+
+    void ensureLotCapacity(int lotCount) {
+        if (lotQuantities.length < lotCount) {
+            int newLength = Math.max(lotCount, lotQuantities.length * 2);
+            lotQuantities = Arrays.copyOf(lotQuantities, newLength);
+            lotPrices = Arrays.copyOf(lotPrices, newLength);
+        }
+    }
+
+    void setLotTotal(int lotTotal) {
+        this.lotTotal = lotTotal;
+    }
+
+    void set(int tickerId, int accountCount, long version, long journalSequence) {
+        this.tickerId = tickerId;
+        this.accountCount = accountCount;
+        this.version = version;
+        this.journalSequence = journalSequence;
+    }
+
+    public int getTickerId() {
+        return tickerId;
+    }
+
+    /**
+     * @return the number of valid entries in the arrays of the snapshot, indexed by account id
+     */
+    public int getAccountCount() {
+        return accountCount;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getJournalSequence() {
+        return journalSequence;
+    }
+
+    public int[] getQuantities() {
+        return quantities;
+    }
+
+    /**
+     * @return the total values in price ticks
+     */
+    public long[] getValues() {
+        return values;
+    }
+
+    /**
+     * @return the cost bases in price ticks
+     */
+    public long[] getCostBases() {
+        return costBases;
+    }
+
+    /**
+     * @return the realized P&L in price ticks
+     */
+    public long[] getRealizedPnls() {
+        return realizedPnls;
+    }
+
+    /**
+     * @return the number of lots of every account, all 0 unless the row was copied with its lots
+     */
+    public int[] getLotCounts() {
+        return lotCounts;
+    }
+
+    /**
+     * @return the number of valid entries in the lot arrays
+     */
+    public int getLotTotal() {
+        return lotTotal;
+    }
+
+    /**
+     * @return the quantities of the lots of every account one after the other, in account id order
+     */
+    public int[] getLotQuantities() {
+        return lotQuantities;
+    }
+
+    /**
+     * @return the prices in ticks of the lots, matching {@link #getLotQuantities()}
+     */
+    public long[] getLotPrices() {
+        return lotPrices;
+    }
+}
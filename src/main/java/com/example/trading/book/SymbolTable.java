@@ -0,0 +1,60 @@
+package com.example.trading.book;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@code SymbolTable} class interns names (accounts, stock tickers) to dense int ids starting at 0.
+ *
+ * <p>Looking up an existing name does not allocate, only the first sighting of a name takes a lock to assign
+ * the next id. Ids are never reused, so they can be used as indexes into primitive arrays.
+ */
+public class SymbolTable {
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[16];
+    private volatile int size;
+
+    /**
+     * @return the id of the name, assigning a new one if the name was never seen
+     */
+    public int intern(final String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(name);
+            if (id != null) {
+                return id;
+            }
+            int newId = size;
+            String[] current = names;
+            if (newId == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            current[newId] = name;
+            names = current;
+            ids.put(name, newId);
+            size = newId + 1;
+            return newId;
+        }
+    }
+
+    /**
+     * @return the id of the name or -1 if the name was never interned
+     */
+    public int idOf(final String name) {
+        Integer id = ids.get(name);
+        return id != null ? id : -1;
+    }
+
+    public String nameOf(int id) {
+        return names[id];
+    }
+
+    public int size() {
+        return size;
+    }
+}
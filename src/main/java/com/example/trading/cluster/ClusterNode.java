@@ -0,0 +1,64 @@
+package com.example.trading.cluster;
+
+import com.example.trading.engine.AllocationEngine;
+import com.example.trading.model.Fill;
+import com.example.trading.model.Position;
+import com.example.trading.service.AllocationServerService;
+
+import java.util.Map;
+
+/**
+ * The {@code ClusterNode} class is one node of a partitioned cluster, it allocates the fills of the tickers the
+ * {@link ConsistentHashRing} assigns to it with its own {@link AllocationServerService}.
+ *
+ * <p>Fills received from the transport are submitted to the node's {@link AllocationEngine}, or allocated on the
+ * receiving thread without an engine. Split updates are applied under the version and effective time the router
+ * assigned them, so every node allocates against the same numbered splits and a late or repeated update is ignored.
+ */
+public class ClusterNode {
+
+    private final String nodeId;
+    private final AllocationServerService allocationServerService;
+    // null when fills are allocated on the receiving thread
+    private final AllocationEngine allocationEngine;
+
+    public ClusterNode(String nodeId, AllocationServerService allocationServerService, AllocationEngine allocationEngine) {
+        this.nodeId = nodeId;
+        this.allocationServerService = allocationServerService;
+        this.allocationEngine = allocationEngine;
+    }
+
+    /**
+     * @return false if the engine rejected the fill
+     */
+    public boolean onFill(final Fill fill) {
+        if (allocationEngine != null) {
+            return allocationEngine.submit(fill);
+        }
+        allocationServerService.allocateFill(fill);
+        return true;
+    }
+
+    /**
+     * @return false if the node already has these or newer splits
+     */
+    public boolean onSplits(long version, long effectiveFromMillis, final Map<String, Double> aumSplits) {
+        return allocationServerService.updateAUMSplits(aumSplits, version, effectiveFromMillis);
+    }
+
+    public Map<String, Map<String, Position>> queryPositions() {
+        return allocationServerService.getAccountPositions();
+    }
+
+    public long getSplitsVersion() {
+        return allocationServerService.getAllocationPlan().getVersion();
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public AllocationServerService getAllocationServerService() {
+        return allocationServerService;
+    }
+}
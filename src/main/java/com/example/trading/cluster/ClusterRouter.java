@@ -0,0 +1,210 @@
+package com.example.trading.cluster;
+
+import com.example.trading.model.Fill;
+import com.example.trading.model.Position;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The {@code ClusterRouter} class partitions allocation by ticker across the nodes of a cluster.
+ *
+ * <p>Responsibilities:
+ * <ul>
+ *     <li>fills are sent to the node owning their ticker on the {@link ConsistentHashRing}, so every fill of a ticker
+ *     is allocated by the same node in order,</li>
+ *     <li>AUM split updates are numbered, stamped with the time they take effect and broadcast to every node, the
+ *     version keeps the nodes on the same splits whatever the order the updates arrive in, and the latest splits are
+ *     sent again to the nodes of a new ring,</li>
+ *     <li>position queries fan out to every node in parallel and the answers are merged per account and ticker.</li>
+ * </ul>
+ * Split updates must all go through one router, which owns the version sequence.
+ *
+ * <p>Positions are not migrated when the ring changes. A ticker still held on the node that owned it before is pinned
+ * to that node, which keeps allocating its fills, sells included, until a position query finds it flat there; only
+ * then do its fills go to the new owner, which starts from an empty position. Nodes that left the ring keep receiving
+ * splits and queries until they hold no position and no pinned ticker. Flat positions are not reported by nodes, so
+ * the realized P&L of a ticker closed on a node that left is no longer seen once it has drained. The handover is not
+ * atomic: a fill still queued on a node when a query finds it flat, or opening a position while the ring is being
+ * changed, can leave a ticker held on two nodes. The merged query then adds up both parts, but sells on the new owner
+ * are only checked against the shares it holds.
+ */
+@Slf4j
+public class ClusterRouter {
+
+    private final ClusterTransport transport;
+    private final int virtualNodes;
+    private volatile ConsistentHashRing ring;
+    // tickers held on a node other than their owner on the ring, until they are found flat there
+    private volatile Map<String, String> pinnedTickers = Map.of();
+    // nodes that left the ring while holding positions, guarded by this
+    private final Set<String> departedNodes = new LinkedHashSet<>();
+    private long splitsVersion;
+    private long splitsEffectiveFromMillis;
+    private Map<String, Double> lastSplits;
+
+    public ClusterRouter(ClusterTransport transport, Collection<String> nodes, int virtualNodes) {
+        this.transport = transport;
+        this.virtualNodes = virtualNodes;
+        this.ring = new ConsistentHashRing(nodes, virtualNodes);
+    }
+
+    /**
+     * Sends the fill to the node allocating its ticker.
+     *
+     * @return false if the fill could not be delivered or was rejected
+     */
+    public boolean submit(final Fill fill) {
+        return transport.sendFill(nodeFor(fill.getStockTicker()), fill);
+    }
+
+    /**
+     * @return the node the ticker is pinned to if any, else its owner on the ring
+     */
+    public String nodeFor(final String stockTicker) {
+        String pinned = pinnedTickers.get(stockTicker);
+        return pinned != null ? pinned : ring.nodeFor(stockTicker);
+    }
+
+    /**
+     * Numbers the splits with the next version and broadcasts them to every node, taking effect now.
+     *
+     * @return the version of the splits
+     */
+    public synchronized long updateAUMSplits(final Map<String, Double> aumSplits) {
+        splitsVersion++;
+        splitsEffectiveFromMillis = Math.max(System.currentTimeMillis(), splitsEffectiveFromMillis);
+        lastSplits = Map.copyOf(aumSplits);
+        broadcastSplits();
+        return splitsVersion;
+    }
+
+    private void broadcastSplits() {
+        for (String node : allNodes()) {
+            if (!transport.sendSplits(node, splitsVersion, splitsEffectiveFromMillis, lastSplits)) {
+                log.warn("Could not send AUM splits version {} to node {}", splitsVersion, node);
+            }
+        }
+    }
+
+    /**
+     * Replaces the nodes of the ring, pins the tickers held on a node that no longer owns them to that node and sends
+     * the latest splits to every node, nodes already on them ignore them.
+     *
+     * @throws java.util.concurrent.CompletionException if a node could not report its positions, the ring is then
+     * left unchanged
+     */
+    public synchronized void setNodes(final Collection<String> nodes) {
+        ConsistentHashRing newRing = new ConsistentHashRing(nodes, virtualNodes);
+        Map<String, Map<String, Map<String, Position>>> answers = query(allNodes());
+        Map<String, String> pinned = new HashMap<>();
+        departedNodes.clear();
+        answers.forEach((node, positions) -> {
+            for (Map<String, Position> tickers : positions.values()) {
+                for (String stockTicker : tickers.keySet()) {
+                    if (!newRing.nodeFor(stockTicker).equals(node)) {
+                        pinned.putIfAbsent(stockTicker, node);
+                    }
+                }
+            }
+            if (!positions.isEmpty() && !newRing.getNodes().contains(node)) {
+                departedNodes.add(node);
+            }
+        });
+        ring = newRing;
+        pinnedTickers = Map.copyOf(pinned);
+        if (!pinned.isEmpty()) {
+            log.info("Ring changed to {}, {} tickers stay on their previous node until flat", nodes, pinned.size());
+        }
+        if (lastSplits != null) {
+            broadcastSplits();
+        }
+    }
+
+    /**
+     * Queries every node in parallel, including nodes that left the ring and still hold positions, and merges the
+     * positions, a position split over two nodes is added up. Pinned tickers found flat are handed to their owner on
+     * the ring.
+     *
+     * @throws java.util.concurrent.CompletionException if a node could not answer
+     */
+    public Map<String, Map<String, Position>> queryPositions() {
+        Map<String, Map<String, Map<String, Position>>> answers = query(allNodes());
+        Map<String, Map<String, Position>> positions = new HashMap<>();
+        for (Map<String, Map<String, Position>> answer : answers.values()) {
+            answer.forEach((account, tickers) -> {
+                Map<String, Position> merged = positions.computeIfAbsent(account, k -> new HashMap<>());
+                tickers.forEach((stockTicker, position) -> merged.merge(stockTicker, position, ClusterRouter::add));
+            });
+        }
+        if (!pinnedTickers.isEmpty() || hasDepartedNodes()) {
+            releaseDrained(answers);
+        }
+        return positions;
+    }
+
+    private Map<String, Map<String, Map<String, Position>>> query(final Collection<String> nodes) {
+        Map<String, CompletableFuture<Map<String, Map<String, Position>>>> answers = new HashMap<>();
+        for (String node : nodes) {
+            answers.put(node, transport.queryPositions(node));
+        }
+        Map<String, Map<String, Map<String, Position>>> positions = new HashMap<>();
+        answers.forEach((node, answer) -> positions.put(node, answer.join()));
+        return positions;
+    }
+
+    /**
+     * Unpins the tickers no longer held on their pinned node and forgets the departed nodes left without positions.
+     */
+    private synchronized void releaseDrained(final Map<String, Map<String, Map<String, Position>>> answers) {
+        Map<String, String> pinned = new HashMap<>(pinnedTickers);
+        pinned.entrySet().removeIf(pin -> {
+            Map<String, Map<String, Position>> positions = answers.get(pin.getValue());
+            return positions != null && positions.values().stream().noneMatch(tickers -> tickers.containsKey(pin.getKey()));
+        });
+        if (pinned.size() != pinnedTickers.size()) {
+            log.info("{} tickers drained and moved to their node on the ring", pinnedTickers.size() - pinned.size());
+            pinnedTickers = Map.copyOf(pinned);
+        }
+        departedNodes.removeIf(node -> answers.containsKey(node) && answers.get(node).isEmpty()
+                && !pinned.containsValue(node));
+    }
+
+    private synchronized boolean hasDepartedNodes() {
+        return !departedNodes.isEmpty();
+    }
+
+    /**
+     * @return the nodes of the ring followed by the nodes that left it and still hold positions
+     */
+    private synchronized List<String> allNodes() {
+        List<String> nodes = new ArrayList<>(ring.getNodes());
+        for (String node : departedNodes) {
+            if (!nodes.contains(node)) {
+                nodes.add(node);
+            }
+        }
+        return nodes;
+    }
+
+    private static Position add(final Position a, final Position b) {
+        return new Position(a.getStockTicker(), a.getQuantity() + b.getQuantity(),
+                a.getTotalValueTicks() + b.getTotalValueTicks(), a.getCostBasisTicks() + b.getCostBasisTicks(),
+                a.getRealizedPnlTicks() + b.getRealizedPnlTicks());
+    }
+
+    public synchronized long getSplitsVersion() {
+        return splitsVersion;
+    }
+
+    public ConsistentHashRing getRing() {
+        return ring;
+    }
+}
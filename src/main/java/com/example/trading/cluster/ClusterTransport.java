@@ -0,0 +1,42 @@
+package com.example.trading.cluster;
+
+import com.example.trading.model.Fill;
+import com.example.trading.model.Position;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Carries the messages of a partitioned cluster between a {@link ClusterRouter} and the {@link ClusterNode}s.
+ *
+ * <p>Implementations decide how messages travel, in process with {@link LocalTransport} or over the network. Fills of a
+ * ticker must be delivered to the node in the order they were sent. Split updates carry their version and may be
+ * delivered more than once or out of order, nodes ignore the ones older than their current splits. They also carry the
+ * time they take effect, so every node allocates a fill against the same splits whatever its own clock says.
+ */
+public interface ClusterTransport {
+
+    /**
+     * Makes the node reachable under its id.
+     */
+    void register(ClusterNode node);
+
+    void unregister(String nodeId);
+
+    /**
+     * Sends the fill to the node allocating its ticker. The fill may be reused by the caller once this returns.
+     *
+     * @return false if the fill could not be delivered or was rejected by the node
+     */
+    boolean sendFill(String nodeId, Fill fill);
+
+    /**
+     * @return false if the splits could not be delivered
+     */
+    boolean sendSplits(String nodeId, long version, long effectiveFromMillis, Map<String, Double> aumSplits);
+
+    /**
+     * @return the positions of the tickers allocated by the node, per account and ticker
+     */
+    CompletableFuture<Map<String, Map<String, Position>>> queryPositions(String nodeId);
+}
@@ -0,0 +1,88 @@
+package com.example.trading.cluster;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The {@code ConsistentHashRing} class assigns stock tickers to the nodes of a cluster.
+ *
+ * <p>Every node is placed on a ring of 64-bit hashes at {@code virtualNodes} points, a ticker belongs to the node of the
+ * first point at or after the hash of the ticker. Adding or removing a node therefore only moves the tickers of the
+ * arcs it gains or loses, about {@code 1 / nodes} of them, and the virtual nodes even out the share of every node.
+ *
+ * <p>A ring is immutable, membership changes build a new one. Looking up a ticker hashes it and binary searches a
+ * sorted array of points, it does not lock nor create any object.
+ */
+public final class ConsistentHashRing {
+
+    private final List<String> nodes;
+    private final long[] points;
+    // owner of every point
+    private final String[] owners;
+
+    public ConsistentHashRing(final Collection<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("A hash ring needs at least one node");
+        }
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("Virtual nodes must be positive, was " + virtualNodes);
+        }
+        this.nodes = List.copyOf(nodes);
+        long[] entries = new long[this.nodes.size() * virtualNodes];
+        String[] pointOwners = new String[entries.length];
+        int i = 0;
+        for (String node : this.nodes) {
+            for (int virtualNode = 0; virtualNode < virtualNodes; virtualNode++) {
+                entries[i] = hash(node + '#' + virtualNode);
+                pointOwners[i] = node;
+                i++;
+            }
+        }
+        // sort the points and their owners together, on ties the owner comes first in node order
+        Integer[] order = new Integer[entries.length];
+        for (i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> entries[a] != entries[b] ? Long.compare(entries[a], entries[b]) : Integer.compare(a, b));
+        this.points = new long[entries.length];
+        this.owners = new String[entries.length];
+        for (i = 0; i < order.length; i++) {
+            points[i] = entries[order[i]];
+            owners[i] = pointOwners[order[i]];
+        }
+    }
+
+    /**
+     * @return the node owning the ticker
+     */
+    public String nodeFor(final String stockTicker) {
+        int index = Arrays.binarySearch(points, hash(stockTicker));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * 64-bit FNV-1a of the characters followed by the MurmurHash3 finalizer, which spreads the bits of short keys
+     * such as tickers. Stable across JVMs, so every node computes the same assignment.
+     */
+    static long hash(final String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
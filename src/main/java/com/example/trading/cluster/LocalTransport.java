@@ -0,0 +1,54 @@
+package com.example.trading.cluster;
+
+import com.example.trading.model.Fill;
+import com.example.trading.model.Position;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@code LocalTransport} class is an in-process {@link ClusterTransport}: every node lives in the same JVM and
+ * messages are method calls on the calling thread. It stands in for a network transport in tests and when a single
+ * JVM runs several nodes, e.g. one per group of cores.
+ */
+public class LocalTransport implements ClusterTransport {
+
+    private final ConcurrentHashMap<String, ClusterNode> nodes = new ConcurrentHashMap<>();
+
+    @Override
+    public void register(final ClusterNode node) {
+        nodes.put(node.getNodeId(), node);
+    }
+
+    @Override
+    public void unregister(final String nodeId) {
+        nodes.remove(nodeId);
+    }
+
+    @Override
+    public boolean sendFill(final String nodeId, final Fill fill) {
+        ClusterNode node = nodes.get(nodeId);
+        return node != null && node.onFill(fill);
+    }
+
+    @Override
+    public boolean sendSplits(final String nodeId, long version, long effectiveFromMillis,
+                              final Map<String, Double> aumSplits) {
+        ClusterNode node = nodes.get(nodeId);
+        if (node == null) {
+            return false;
+        }
+        node.onSplits(version, effectiveFromMillis, aumSplits);
+        return true;
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Map<String, Position>>> queryPositions(final String nodeId) {
+        ClusterNode node = nodes.get(nodeId);
+        if (node == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Unknown cluster node " + nodeId));
+        }
+        return CompletableFuture.supplyAsync(node::queryPositions);
+    }
+}
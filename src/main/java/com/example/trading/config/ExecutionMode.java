@@ -0,0 +1,16 @@
+package com.example.trading.config;
+
+/**
+ * Defines which threads run the fill, AUM and position loops.
+ * <ul>
+ *     <li>{@link #PLATFORM} - bounded pools of platform threads, sized by the fill.executor properties.</li>
+ *     <li>{@link #VIRTUAL} - one virtual thread per loop, no pool to size, a sleeping loop does not hold a carrier
+ *     thread so thousands of fill sources can run at once.</li>
+ * </ul>
+ * <p>The allocation engine shards always run on platform threads, they spin while idle and would pin their carrier.
+ * <p>Note: execution.mode can be used to configure the mode
+ */
+public enum ExecutionMode {
+    PLATFORM,
+    VIRTUAL
+}
@@ -1,66 +1,163 @@
 package com.example.trading.config;
 
+import com.example.trading.engine.AllocationEngine;
+import com.example.trading.engine.BackpressureStrategy;
+import com.example.trading.gateway.FillGateway;
+import com.example.trading.journal.FillJournal;
+import com.example.trading.journal.PositionCheckpointer;
+import com.example.trading.metrics.TradingMetrics;
+import com.example.trading.service.AllocationServerService;
+import com.example.trading.service.WarmupService;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.concurrent.Executor;
 
 @Configuration
 public class TradingAppConfig {
 
+    private static final long VIRTUAL_TERMINATION_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Keeps the beans of the allocation path eager when {@code spring.main.lazy-initialization} is enabled: the
+     * positions are recovered, the allocation path warmed up and the gateway listening before the application is
+     * ready, instead of on the first fill.
+     */
+    @Bean
+    public static LazyInitializationExcludeFilter allocationPathExcludeFilter() {
+        return LazyInitializationExcludeFilter.forBeanTypes(TradingMetrics.class, FillJournal.class,
+                PositionCheckpointer.class, AllocationServerService.class, AllocationEngine.class, WarmupService.class,
+                FillGateway.class);
+    }
+
+    @Bean(name = "tradingMetrics")
+    public TradingMetrics tradingMetrics(MeterRegistry meterRegistry) {
+        return new TradingMetrics(meterRegistry);
+    }
 
     @Bean(name = "fillServerExecutor")
-    public Executor fillServerExecutor(@Value("${fill.executor.corePoolSize:3}") int corePoolSize,
+    public Executor fillServerExecutor(TradingMetrics tradingMetrics,
+                                      @Value("${execution.mode:PLATFORM}") ExecutionMode executionMode,
+                                      @Value("${fill.executor.corePoolSize:3}") int corePoolSize,
                                       @Value("${fill.executor.maximumPoolSize:5}") int maximumPoolSize,
                                       @Value("${fill.executor.keepAliveTime:60}") int keepAliveTime,
                                       @Value("${fill.executor.queueCapacity:15}") int queueCapacity) {
+        if (executionMode == ExecutionMode.VIRTUAL) {
+            return virtualThreadExecutor("FillServer-");
+        }
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
         executor.setCorePoolSize(corePoolSize);
         executor.setMaxPoolSize(maximumPoolSize);
         executor.setQueueCapacity(queueCapacity);
         executor.setKeepAliveSeconds(keepAliveTime);
         executor.setThreadNamePrefix("FillServer-");
+        executor.setRejectedExecutionHandler(tradingMetrics.countingRejections("fillServer"));
         executor.initialize();
         return executor;
     }
 
     @Bean(name = "aumServerExecutor")
-    public Executor aumServerExecutor() {
+    public Executor aumServerExecutor(TradingMetrics tradingMetrics,
+                                      @Value("${execution.mode:PLATFORM}") ExecutionMode executionMode) {
+        if (executionMode == ExecutionMode.VIRTUAL) {
+            return virtualThreadExecutor("AUMServer-");
+        }
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
         executor.setCorePoolSize(1);
         executor.setMaxPoolSize(1);
         executor.setQueueCapacity(1);
         executor.setThreadNamePrefix("AUMServer-");
+        executor.setRejectedExecutionHandler(tradingMetrics.countingRejections("aumServer"));
         executor.initialize();
         return executor;
     }
 
-    @Bean(name = "allocationServerExecutor")
-    public Executor allocationServerExecutor(@Value("${allocation.executor.corePoolSize:3}") int corePoolSize,
-                                             @Value("${allocation.executor.maximumPoolSize:10}") int maximumPoolSize,
-                                             @Value("${allocation.executor.keepAliveTime:60}") int keepAliveTime,
-                                             @Value("${allocation.executor.queueCapacity:50}") int queueCapacity) {
-        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        executor.setCorePoolSize(corePoolSize);
-        executor.setMaxPoolSize(maximumPoolSize);
-        executor.setQueueCapacity(queueCapacity);
-        executor.setKeepAliveSeconds(keepAliveTime);
-        executor.setThreadNamePrefix("AllocationServer-");
-        executor.initialize();
-        return executor;
+    @Bean(name = "allocationEngine", destroyMethod = "shutdown")
+    public AllocationEngine allocationEngine(AllocationServerService allocationServerService,
+                                             TradingMetrics tradingMetrics,
+                                             @Value("${allocation.engine.shards:4}") int shards,
+                                             @Value("${allocation.engine.ringSize:1024}") int ringSize,
+                                             @Value("${allocation.engine.backpressure:BLOCK}") BackpressureStrategy backpressure) {
+        AllocationEngine engine = new AllocationEngine(shards, ringSize, backpressure,
+                (fills, count) -> allocationServerService.allocateFills(fills, count));
+        tradingMetrics.bindEngine(engine);
+        engine.start();
+        return engine;
+    }
+
+    // live fills are only accepted once the allocation path is warmed up
+    @Bean(name = "fillGateway", destroyMethod = "close")
+    @DependsOn("warmupService")
+    @ConditionalOnProperty(name = "gateway.enabled", havingValue = "true")
+    public FillGateway fillGateway(AllocationEngine allocationEngine,
+                                   TradingMetrics tradingMetrics,
+                                   @Value("${gateway.port:9010}") int port,
+                                   @Value("${gateway.tickers:AAPL,GOOGL,INTC,AMZN,TSLA,JPM,NFLX,META,FIDL,WMT}") String[] tickers,
+                                   @Value("${gateway.priceScale:4}") int priceScale,
+                                   @Value("${gateway.bufferSize:65536}") int bufferSize,
+                                   @Value("${gateway.sources:256}") int sources,
+                                   @Value("${gateway.sequenceWindow:1024}") int sequenceWindow,
+                                   @Value("${gateway.gapTimeoutMillis:1000}") long gapTimeoutMillis) throws IOException {
+        FillGateway gateway = new FillGateway(port, tickers, priceScale, bufferSize, sources, sequenceWindow,
+                gapTimeoutMillis, allocationEngine);
+        tradingMetrics.bindGateway(gateway);
+        gateway.start();
+        return gateway;
+    }
+
+    @Bean(name = "fillJournal", destroyMethod = "close")
+    @ConditionalOnProperty(name = "journal.enabled", havingValue = "true", matchIfMissing = true)
+    public FillJournal fillJournal(@Value("${journal.directory:journal}") String directory,
+                                   @Value("${journal.partitions:${allocation.engine.shards:4}}") int partitions,
+                                   @Value("${journal.segmentSize:67108864}") int segmentSize,
+                                   @Value("${journal.fsync.everyRecords:0}") int fsyncEveryRecords,
+                                   @Value("${journal.fsync.intervalMillis:100}") long fsyncIntervalMillis) throws IOException {
+        return new FillJournal(Path.of(directory), partitions, segmentSize, fsyncEveryRecords, fsyncIntervalMillis);
+    }
+
+    @Bean(name = "positionCheckpointer", destroyMethod = "close")
+    @ConditionalOnExpression("${journal.enabled:true} and ${checkpoint.enabled:true}")
+    public PositionCheckpointer positionCheckpointer(FillJournal fillJournal,
+                                                     @Value("${checkpoint.directory:checkpoints}") String directory,
+                                                     @Value("${checkpoint.fullEvery:10}") int fullEvery) throws IOException {
+        return new PositionCheckpointer(Path.of(directory), fullEvery, fillJournal);
     }
 
     @Bean(name = "positionServerExecutor")
-    public Executor positionServerExecutor() {
+    public Executor positionServerExecutor(TradingMetrics tradingMetrics,
+                                           @Value("${execution.mode:PLATFORM}") ExecutionMode executionMode) {
+        if (executionMode == ExecutionMode.VIRTUAL) {
+            return virtualThreadExecutor("PositionServer-");
+        }
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
         executor.setCorePoolSize(1);
         executor.setMaxPoolSize(1);
         executor.setQueueCapacity(1);
         executor.setThreadNamePrefix("PositionServer-");
+        executor.setRejectedExecutionHandler(tradingMetrics.countingRejections("positionServer"));
         executor.initialize();
         return executor;
     }
 
+    /**
+     * Starts a new virtual thread per task. On shutdown the loops still running are interrupted and given
+     * {@value #VIRTUAL_TERMINATION_TIMEOUT_MILLIS} ms to exit.
+     */
+    private static Executor virtualThreadExecutor(String threadNamePrefix) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(threadNamePrefix);
+        executor.setVirtualThreads(true);
+        executor.setTaskTerminationTimeout(VIRTUAL_TERMINATION_TIMEOUT_MILLIS);
+        return executor;
+    }
+
 }
@@ -0,0 +1,59 @@
+package com.example.trading.controller;
+
+import com.example.trading.model.Position;
+import com.example.trading.model.PositionTotals;
+import com.example.trading.service.PositionQueryService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * The {@code PositionQueryController} class exposes the {@link PositionQueryService} over REST. Unknown accounts and
+ * tickers are answered with 404.
+ */
+@RestController
+@RequestMapping("/positions")
+public class PositionQueryController {
+
+    private final PositionQueryService positionQueryService;
+
+    public PositionQueryController(PositionQueryService positionQueryService) {
+        this.positionQueryService = positionQueryService;
+    }
+
+    @GetMapping("/accounts")
+    public List<PositionTotals> getAccountTotals() {
+        return positionQueryService.getAccountTotals();
+    }
+
+    @GetMapping("/accounts/{account}")
+    public ResponseEntity<PositionTotals> getAccountTotals(@PathVariable String account) {
+        return ResponseEntity.of(Optional.ofNullable(positionQueryService.getAccountTotals(account)));
+    }
+
+    @GetMapping("/accounts/{account}/positions")
+    public ResponseEntity<Map<String, Position>> getPositions(@PathVariable String account) {
+        return ResponseEntity.of(Optional.ofNullable(positionQueryService.getPositions(account)));
+    }
+
+    @GetMapping("/tickers")
+    public List<PositionTotals> getTickerTotals() {
+        return positionQueryService.getTickerTotals();
+    }
+
+    @GetMapping("/tickers/{stockTicker}")
+    public ResponseEntity<PositionTotals> getTickerTotals(@PathVariable String stockTicker) {
+        return ResponseEntity.of(Optional.ofNullable(positionQueryService.getTickerTotals(stockTicker)));
+    }
+
+    @GetMapping("/tickers/{stockTicker}/holders")
+    public ResponseEntity<Map<String, Position>> getHolders(@PathVariable String stockTicker) {
+        return ResponseEntity.of(Optional.ofNullable(positionQueryService.getHolders(stockTicker)));
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.trading.engine;
+
+import com.example.trading.model.Fill;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * The {@code AllocationEngine} class routes fills to a fixed number of single-writer {@link AllocationShard}s.
+ *
+ * <p>The shard is picked from the hash of the stock ticker, so every fill of a given ticker is allocated
+ * by the same thread in the order it was submitted. This removes the lost updates of concurrent
+ * read-modify-write on the same position without taking any lock, while different tickers are
+ * allocated in parallel on as many shards as configured.
+ *
+ * <p>When the ring buffer of a shard is full the configured {@link BackpressureStrategy} is applied.
+ * <p>Work other than fills that writes the positions of a ticker, like rebalancing them, is handed to the owning shard
+ * with {@link #execute(String, Runnable)} and runs on the shard thread between two batches of fills.
+ * <p>Note: allocation.engine.shards, allocation.engine.ringSize and allocation.engine.backpressure can be used to
+ * configure the engine
+ */
+public class AllocationEngine {
+
+    private static final long BLOCK_PARK_NANOS = 10_000;
+    private static final int MAX_BATCH_SIZE = 256;
+
+    private final AllocationShard[] shards;
+    private final Thread[] threads;
+    private final BackpressureStrategy backpressureStrategy;
+    private final LongAdder rejectedFills = new LongAdder();
+    private volatile boolean running;
+
+    /**
+     * Creates an engine allocating one fill at a time.
+     */
+    public AllocationEngine(int shardCount, int ringSize, BackpressureStrategy backpressureStrategy,
+                            Consumer<Fill> handler) {
+        this(shardCount, ringSize, backpressureStrategy, (fills, count) -> {
+            for (int i = 0; i < count; i++) {
+                handler.accept(fills[i]);
+            }
+        });
+    }
+
+    /**
+     * Creates an engine handing every shard's pending fills to the handler as one batch.
+     */
+    public AllocationEngine(int shardCount, int ringSize, BackpressureStrategy backpressureStrategy,
+                            FillBatchHandler handler) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be positive, was " + shardCount);
+        }
+        this.backpressureStrategy = backpressureStrategy;
+        this.shards = new AllocationShard[shardCount];
+        this.threads = new Thread[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new AllocationShard(i, ringSize, MAX_BATCH_SIZE, handler);
+            threads[i] = new Thread(shards[i], "AllocationShard-" + i);
+        }
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        for (Thread thread : threads) {
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops accepting fills, lets every shard drain what is already queued and waits for the shard threads to exit.
+     */
+    public synchronized void shutdown() throws InterruptedException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        for (AllocationShard shard : shards) {
+            shard.stop();
+        }
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    /**
+     * Queues the fill on the shard owning its ticker. The fill is copied, so the caller may reuse the instance.
+     *
+     * @return false if the fill was rejected because the engine is stopped, the shard is full under
+     * {@link BackpressureStrategy#REJECT} or the producer was interrupted while waiting for a free slot, in which case
+     * its interrupt status is kept
+     */
+    public boolean submit(final Fill fill) {
+        FillRingBuffer ringBuffer = shards[shardFor(fill.getStockTicker())].getRingBuffer();
+        while (running) {
+            if (ringBuffer.offer(fill)) {
+                return true;
+            }
+            switch (backpressureStrategy) {
+                case BLOCK -> LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                case SPIN -> Thread.onSpinWait();
+                case REJECT -> {
+                    rejectedFills.increment();
+                    return false;
+                }
+            }
+            // parking returns immediately once interrupted, stop waiting instead of spinning until shutdown
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+        }
+        rejectedFills.increment();
+        return false;
+    }
+
+    /**
+     * Queues the task on the shard owning the ticker, it runs on the shard thread before the next batch of fills.
+     *
+     * @return false if the engine is stopped
+     */
+    public boolean execute(final String stockTicker, final Runnable task) {
+        if (!running) {
+            return false;
+        }
+        shards[shardFor(stockTicker)].execute(task);
+        return true;
+    }
+
+    public int shardFor(final String stockTicker) {
+        return shardOf(stockTicker, shards.length);
+    }
+
+    /**
+     * @return the shard owning the ticker among {@code shardCount} shards
+     */
+    public static int shardOf(final String stockTicker, int shardCount) {
+        int hash = stockTicker.hashCode();
+        // spread the high bits so that tickers sharing a prefix do not cluster on one shard
+        hash ^= (hash >>> 16);
+        return Math.floorMod(hash, shardCount);
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public int getQueueDepth(int shard) {
+        return shards[shard].getRingBuffer().size();
+    }
+
+    public int getQueueCapacity(int shard) {
+        return shards[shard].getRingBuffer().capacity();
+    }
+
+    public long getProcessedCount(int shard) {
+        return shards[shard].getProcessedCount();
+    }
+
+    public long getRejectedCount() {
+        return rejectedFills.sum();
+    }
+
+    public BackpressureStrategy getBackpressureStrategy() {
+        return backpressureStrategy;
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.trading.engine;
+
+import com.example.trading.model.Fill;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The {@code AllocationShard} class is a single-threaded worker that drains its own {@link FillRingBuffer}
+ * and hands the fills to the allocation handler in batches of whatever has been published, up to {@code batchSize}.
+ *
+ * <p>Since a ticker always maps to the same shard, all fills of a ticker are applied in arrival order by
+ * a single thread and the positions of that ticker never need to be locked. Tasks queued with
+ * {@link #execute(Runnable)} run on the same thread before the next batch, so they can write those positions too.
+ */
+@Slf4j
+class AllocationShard implements Runnable {
+
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+    private static final long PARK_NANOS = 50_000;
+
+    private final int index;
+    private final FillRingBuffer ringBuffer;
+    private final Fill[] batch;
+    private final FillBatchHandler handler;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+    private volatile long processedCount;
+
+    AllocationShard(int index, int ringSize, int batchSize, FillBatchHandler handler) {
+        this.index = index;
+        this.ringBuffer = new FillRingBuffer(ringSize);
+        this.batch = new Fill[Math.min(batchSize, ringSize)];
+        this.handler = handler;
+    }
+
+    @Override
+    public void run() {
+        int idleCount = 0;
+        while (running || ringBuffer.size() > 0 || !tasks.isEmpty()) {
+            boolean ranTasks = runTasks();
+            int count = ringBuffer.drain(batch);
+            if (count == 0) {
+                if (ranTasks) {
+                    idleCount = 0;
+                    continue;
+                }
+                idle(idleCount++);
+                continue;
+            }
+            idleCount = 0;
+            try {
+                handler.onFills(batch, count);
+            } catch (RuntimeException e) {
+                log.error("Allocation shard {} failed to allocate {} fills", index, count, e);
+            } finally {
+                ringBuffer.release(count);
+                processedCount += count;
+            }
+        }
+    }
+
+    /**
+     * @return whether any task ran
+     */
+    private boolean runTasks() {
+        Runnable task = tasks.poll();
+        if (task == null) {
+            return false;
+        }
+        do {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                log.error("Allocation shard {} failed to run a task", index, e);
+            }
+            task = tasks.poll();
+        } while (task != null);
+        return true;
+    }
+
+    private void idle(int idleCount) {
+        if (idleCount < SPIN_TRIES) {
+            Thread.onSpinWait();
+        } else if (idleCount < SPIN_TRIES + YIELD_TRIES) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    void execute(final Runnable task) {
+        tasks.add(task);
+    }
+
+    void stop() {
+        running = false;
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    FillRingBuffer getRingBuffer() {
+        return ringBuffer;
+    }
+
+    long getProcessedCount() {
+        return processedCount;
+    }
+}
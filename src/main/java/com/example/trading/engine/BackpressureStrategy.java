@@ -0,0 +1,16 @@
+package com.example.trading.engine;
+
+/**
+ * Defines what a producer does when the ring buffer of the shard owning a fill is full.
+ * <ul>
+ *     <li>{@link #BLOCK} - parks the producer briefly until the shard frees a slot.</li>
+ *     <li>{@link #SPIN} - busy spins the producer until the shard frees a slot, lowest latency but burns a core.</li>
+ *     <li>{@link #REJECT} - drops the fill immediately and counts it as rejected.</li>
+ * </ul>
+ * <p>Note: allocation.engine.backpressure can be used to configure the strategy
+ */
+public enum BackpressureStrategy {
+    BLOCK,
+    SPIN,
+    REJECT
+}
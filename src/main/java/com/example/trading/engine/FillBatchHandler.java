@@ -0,0 +1,13 @@
+package com.example.trading.engine;
+
+import com.example.trading.model.Fill;
+
+/**
+ * Receives the fills drained by a shard in one go. The fills are ring buffer slots, they are only valid during the
+ * call and must not be kept.
+ */
+@FunctionalInterface
+public interface FillBatchHandler {
+
+    void onFills(Fill[] fills, int count);
+}
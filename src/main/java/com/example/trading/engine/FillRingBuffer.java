@@ -0,0 +1,100 @@
+package com.example.trading.engine;
+
+import com.example.trading.model.Fill;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The {@code FillRingBuffer} class is a bounded, lock-free, multi-producer single-consumer ring buffer of fills.
+ *
+ * <p>Slots are pre-allocated {@link Fill} instances, producers copy the incoming fill into a claimed slot so that
+ * no objects are created per fill. Every slot carries a sequence number which tells whether it is free for the
+ * producer claiming position {@code p} (sequence == p) or ready for the consumer (sequence == p + 1).
+ *
+ * <p>Only one thread may call {@link #drain(Fill[])} / {@link #release(int)}.
+ */
+public class FillRingBuffer {
+
+    private final Fill[] slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final int mask;
+    // owned by the consumer thread, volatile so that size() can be read from other threads
+    private volatile long head;
+
+    public FillRingBuffer(int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Ring buffer capacity must be a power of two, was " + capacity);
+        }
+        this.mask = capacity - 1;
+        this.slots = new Fill[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Fill();
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Copies the fill into the next free slot.
+     *
+     * @return false if the buffer is full
+     */
+    public boolean offer(final Fill fill) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long sequence = sequences.get(index);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots[index].copyFrom(fill);
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+            } else if (sequence < position) {
+                return false;
+            }
+            // else another producer claimed the slot first, retry with the new tail
+        }
+    }
+
+    /**
+     * Collects the fills published at the head of the buffer, in order and without removing them. The slots must be
+     * handed back with {@link #release(int)} before draining again.
+     *
+     * @return the number of fills written into {@code batch}, 0 if nothing has been published yet
+     */
+    public int drain(final Fill[] batch) {
+        long position = head;
+        int count = 0;
+        while (count < batch.length) {
+            int index = (int) (position + count) & mask;
+            if (sequences.get(index) != position + count + 1) {
+                break;
+            }
+            batch[count++] = slots[index];
+        }
+        return count;
+    }
+
+    /**
+     * Frees the first {@code count} slots returned by the last {@link #drain(Fill[])} so producers can reuse them.
+     */
+    public void release(int count) {
+        long position = head;
+        for (int i = 0; i < count; i++) {
+            sequences.lazySet((int) (position + i) & mask, position + i + mask + 1);
+        }
+        head = position + count;
+    }
+
+    public int size() {
+        long size = tail.get() - head;
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+}
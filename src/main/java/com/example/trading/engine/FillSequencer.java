@@ -0,0 +1,249 @@
+package com.example.trading.engine;
+
+import com.example.trading.model.Fill;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * The {@code FillSequencer} class makes the delivery of sequenced fills idempotent and ordered before they reach the
+ * {@link AllocationEngine}, so an upstream delivering at least once does not allocate a fill twice.
+ *
+ * <p>Every source numbers its fills from 1. For each source the sequencer keeps the next sequence it expects and a
+ * window of the {@code windowSize} sequences after it:
+ * <ul>
+ *     <li>a fill below the next sequence was already delivered and is dropped as a duplicate,</li>
+ *     <li>the expected fill is delivered at once, followed by the fills buffered right after it,</li>
+ *     <li>a fill further in the window is copied into the window's slot for its sequence and marked in a bitmap, a
+ *     fill already marked is a duplicate,</li>
+ *     <li>a fill beyond the window slides it forward, the missing fills it leaves behind are given up as a gap and
+ *     the buffered ones delivered in order.</li>
+ * </ul>
+ * A gap still open after {@code gapTimeoutNanos} is given up by {@link #expireGaps(long)} too. A fill given up on and
+ * delivered later falls below the next sequence and is dropped, the window bounds both the memory and how late a fill
+ * may arrive. Fills without a sequence are delivered as they come.
+ *
+ * <p>A sequencer is not thread-safe, it belongs to the thread receiving its sources, e.g. the gateway's selector
+ * thread, and takes no lock. Its slots and bitmaps are allocated once per source, offering a fill does not allocate.
+ */
+@Slf4j
+public class FillSequencer {
+
+    private final Predicate<Fill> sink;
+    private final int maxSources;
+    private final int windowSize;
+    private final long gapTimeoutNanos;
+    // indexed by source id, created on a source's first sequenced fill
+    private Window[] windows = new Window[0];
+    // only written by the owning thread, volatile for the metrics
+    private volatile long deliveredFills;
+    private volatile long duplicateFills;
+    private volatile long missingFills;
+    private volatile long rejectedFills;
+
+    /**
+     * @param sink       receives the fills in sequence order, returns false if it rejected the fill
+     * @param windowSize number of sequences buffered per source, a power of two
+     */
+    public FillSequencer(Predicate<Fill> sink, int maxSources, int windowSize, long gapTimeoutNanos) {
+        if (windowSize < 64 || Integer.bitCount(windowSize) != 1) {
+            throw new IllegalArgumentException("Window size must be a power of two of at least 64, was " + windowSize);
+        }
+        this.sink = sink;
+        this.maxSources = maxSources;
+        this.windowSize = windowSize;
+        this.gapTimeoutNanos = gapTimeoutNanos;
+    }
+
+    /**
+     * @return whether fills of the source can be offered
+     */
+    public boolean accepts(int sourceId) {
+        return sourceId >= 0 && sourceId < maxSources;
+    }
+
+    /**
+     * Delivers the fill, and any buffered fill it unblocks, unless it is a duplicate. The fill is copied if it has to
+     * wait, so the caller may reuse the instance.
+     *
+     * @throws IllegalArgumentException if the source id is not accepted
+     */
+    public void offer(final Fill fill, long nowNanos) {
+        long sequence = fill.getSequence();
+        if (sequence <= 0) {
+            deliver(fill);
+            return;
+        }
+        if (!accepts(fill.getSourceId())) {
+            throw new IllegalArgumentException("Invalid source id " + fill.getSourceId());
+        }
+        Window window = window(fill.getSourceId());
+        if (sequence < window.next) {
+            duplicateFills++;
+            return;
+        }
+        if (sequence - window.next >= windowSize) {
+            skipTo(window, sequence - windowSize + 1);
+        }
+        if (sequence == window.next) {
+            deliver(fill);
+            window.next++;
+            deliverBuffered(window);
+        } else if (window.isBuffered(sequence)) {
+            duplicateFills++;
+        } else {
+            window.buffer(fill);
+            if (window.gapSinceNanos == 0) {
+                window.gapSinceNanos = nowNanos;
+            }
+        }
+    }
+
+    /**
+     * Gives up on the gaps open for longer than the timeout and delivers the fills buffered after them.
+     */
+    public void expireGaps(long nowNanos) {
+        for (Window window : windows) {
+            while (window != null && window.bufferedCount > 0 && nowNanos - window.gapSinceNanos >= gapTimeoutNanos) {
+                skipTo(window, window.firstBuffered());
+                window.gapSinceNanos = window.bufferedCount > 0 ? nowNanos : 0;
+            }
+        }
+    }
+
+    /**
+     * Moves the next sequence of the window to {@code target}, delivering the fills buffered on the way and counting
+     * the others as missing, then delivers the fills buffered right after it.
+     */
+    private void skipTo(final Window window, long target) {
+        long from = window.next;
+        long missing = 0;
+        long end = Math.min(target, window.next + windowSize);
+        for (long sequence = window.next; sequence < end; sequence++) {
+            if (window.isBuffered(sequence)) {
+                deliver(window.release(sequence));
+            } else {
+                missing++;
+            }
+        }
+        missing += target - end;
+        window.next = target;
+        missingFills += missing;
+        if (missing > 0) {
+            log.warn("Gave up on {} missing fills of source {} between sequences {} and {}", missing,
+                    window.sourceId, from, target - 1);
+        }
+        deliverBuffered(window);
+    }
+
+    private void deliverBuffered(final Window window) {
+        while (window.isBuffered(window.next)) {
+            deliver(window.release(window.next));
+            window.next++;
+        }
+        if (window.bufferedCount == 0) {
+            window.gapSinceNanos = 0;
+        }
+    }
+
+    private void deliver(final Fill fill) {
+        deliveredFills++;
+        if (!sink.test(fill)) {
+            rejectedFills++;
+        }
+    }
+
+    private Window window(int sourceId) {
+        if (sourceId >= windows.length) {
+            windows = Arrays.copyOf(windows, Math.min(maxSources, Math.max(sourceId + 1, windows.length * 2)));
+        }
+        Window window = windows[sourceId];
+        if (window == null) {
+            window = windows[sourceId] = new Window(sourceId, windowSize);
+        }
+        return window;
+    }
+
+    /**
+     * @return the next sequence expected from the source
+     */
+    public long getNextSequence(int sourceId) {
+        return sourceId >= 0 && sourceId < windows.length && windows[sourceId] != null ? windows[sourceId].next : 1;
+    }
+
+    public long getDeliveredCount() {
+        return deliveredFills;
+    }
+
+    public long getDuplicateCount() {
+        return duplicateFills;
+    }
+
+    /**
+     * @return the number of sequences given up on, never delivered or delivered too late
+     */
+    public long getMissingCount() {
+        return missingFills;
+    }
+
+    public long getRejectedCount() {
+        return rejectedFills;
+    }
+
+    /**
+     * The sequences after the next one expected from a source: a bitmap of the buffered ones and their fills, both
+     * indexed by sequence modulo the window size.
+     */
+    private static final class Window {
+
+        private final int sourceId;
+        private final int mask;
+        private final long[] bits;
+        private final Fill[] slots;
+        private long next = 1;
+        private int bufferedCount;
+        // System.nanoTime() when the oldest open gap was seen, 0 when nothing is buffered
+        private long gapSinceNanos;
+
+        private Window(int sourceId, int size) {
+            this.sourceId = sourceId;
+            this.mask = size - 1;
+            this.bits = new long[size / 64];
+            this.slots = new Fill[size];
+            for (int i = 0; i < size; i++) {
+                slots[i] = new Fill();
+            }
+        }
+
+        private boolean isBuffered(long sequence) {
+            int slot = (int) (sequence & mask);
+            return (bits[slot >>> 6] & (1L << slot)) != 0;
+        }
+
+        private void buffer(final Fill fill) {
+            int slot = (int) (fill.getSequence() & mask);
+            slots[slot].copyFrom(fill);
+            bits[slot >>> 6] |= 1L << slot;
+            bufferedCount++;
+        }
+
+        private Fill release(long sequence) {
+            int slot = (int) (sequence & mask);
+            bits[slot >>> 6] &= ~(1L << slot);
+            bufferedCount--;
+            return slots[slot];
+        }
+
+        /**
+         * @return the lowest buffered sequence, only valid when a fill is buffered
+         */
+        private long firstBuffered() {
+            long sequence = next;
+            while (!isBuffered(sequence)) {
+                sequence++;
+            }
+            return sequence;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.example.trading.gateway;
+
+import com.example.trading.engine.AllocationEngine;
+import com.example.trading.engine.FillSequencer;
+import com.example.trading.model.Fill;
+import com.example.trading.model.Prices;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code FillGateway} class is a non-blocking TCP listener receiving {@link FillMessage}s and submitting them to
+ * the {@link AllocationEngine}.
+ *
+ * <p>A single selector thread accepts the connections and reads them into a direct buffer owned by each connection.
+ * Every complete message is decoded straight from that buffer into one reusable {@link Fill}, which the engine copies
+ * into its ring buffer, so decoding creates no objects per message. A message cut across two reads stays in the buffer
+ * until the rest arrives.
+ *
+ * <p>Messages go through a {@link FillSequencer} before the engine, so a message sent again by its source is dropped
+ * and the messages of a source are allocated in sequence order even if they arrive out of order, over one connection
+ * or several. A message dropped as invalid still takes its sequence so it does not hold back the next ones.
+ * Messages carry no execution time, fills are stamped with the time they were received and allocated against the AUM
+ * splits in effect then, even if they wait in the sequencer or the engine across a split update.
+ *
+ * <p>Ticker ids are indexes into the configured ticker table, prices are converted from the wire scale to
+ * {@link Prices} ticks. Messages with an unknown ticker id or a price out of range are dropped. When the
+ * engine applies {@link com.example.trading.engine.BackpressureStrategy#BLOCK} a full shard blocks the selector thread,
+ * which stops reading and lets TCP flow control push back on the senders.
+ * <p>Note: gateway.enabled, gateway.port, gateway.tickers, gateway.priceScale, gateway.bufferSize, gateway.sources,
+ * gateway.sequenceWindow and gateway.gapTimeoutMillis can be used to configure the gateway
+ */
+@Slf4j
+public class FillGateway implements Closeable {
+
+    private static final long SELECT_TIMEOUT_MILLIS = 100;
+    private static final int DEFAULT_SOURCES = 256;
+    private static final int DEFAULT_SEQUENCE_WINDOW = 1024;
+    private static final long DEFAULT_GAP_TIMEOUT_MILLIS = 1000;
+
+    private final AllocationEngine allocationEngine;
+    private final String[] tickers;
+    private final int priceScale;
+    private final int bufferSize;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final Thread thread;
+    // only touched by the selector thread
+    private final FillSequencer sequencer;
+    // reused for every decoded message, only touched by the selector thread
+    private final Fill fill = new Fill();
+    private volatile boolean running;
+    private volatile long receivedFills;
+    private volatile long droppedFills;
+
+    public FillGateway(int port, String[] tickers, int priceScale, int bufferSize,
+                       AllocationEngine allocationEngine) throws IOException {
+        this(port, tickers, priceScale, bufferSize, DEFAULT_SOURCES, DEFAULT_SEQUENCE_WINDOW,
+                DEFAULT_GAP_TIMEOUT_MILLIS, allocationEngine);
+    }
+
+    /**
+     * @param sources         number of source ids accepted, from 0
+     * @param sequenceWindow  number of messages buffered per source while waiting for a missing one, a power of two
+     * @param gapTimeoutMillis time after which a missing message is given up on
+     */
+    public FillGateway(int port, String[] tickers, int priceScale, int bufferSize, int sources, int sequenceWindow,
+                       long gapTimeoutMillis, AllocationEngine allocationEngine) throws IOException {
+        if (bufferSize < FillMessage.SIZE) {
+            throw new IllegalArgumentException("Gateway buffer size must be at least " + FillMessage.SIZE + " bytes, was " + bufferSize);
+        }
+        this.allocationEngine = allocationEngine;
+        this.tickers = tickers.clone();
+        // fails fast on a scale prices cannot be converted from
+        Prices.rescale(0, priceScale);
+        this.priceScale = priceScale;
+        this.bufferSize = bufferSize;
+        this.sequencer = new FillSequencer(this::submit, sources, sequenceWindow,
+                TimeUnit.MILLISECONDS.toNanos(gapTimeoutMillis));
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        this.thread = new Thread(this::run, "FillGateway");
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread.start();
+        log.info("Fill gateway listening on port {}", getPort());
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                selector.select(this::onReady, SELECT_TIMEOUT_MILLIS);
+                sequencer.expireGaps(System.nanoTime());
+            } catch (IOException e) {
+                log.error("Fill gateway selector failed", e);
+            }
+        }
+    }
+
+    private void onReady(final SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.isAcceptable()) {
+            accept();
+        } else if (key.isReadable()) {
+            read(key);
+        }
+    }
+
+    private void accept() {
+        try {
+            SocketChannel channel = serverChannel.accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            // the read buffer of the connection, kept as the key attachment
+            channel.register(selector, SelectionKey.OP_READ, ByteBuffer.allocateDirect(bufferSize));
+            log.info("Fill gateway accepted {}", channel.getRemoteAddress());
+        } catch (IOException e) {
+            log.warn("Fill gateway could not accept a connection", e);
+        }
+    }
+
+    private void read(final SelectionKey key) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        ByteBuffer buffer = (ByteBuffer) key.attachment();
+        int read;
+        try {
+            read = channel.read(buffer);
+        } catch (IOException e) {
+            log.warn("Fill gateway connection failed, closing it", e);
+            close(key);
+            return;
+        }
+        if (read < 0) {
+            if (buffer.position() > 0) {
+                log.warn("Fill gateway connection closed with {} bytes of a partial message", buffer.position());
+            }
+            close(key);
+            return;
+        }
+        buffer.flip();
+        long now = System.nanoTime();
+        long nowMillis = System.currentTimeMillis();
+        while (buffer.remaining() >= FillMessage.SIZE) {
+            decode(buffer, now, nowMillis);
+        }
+        buffer.compact();
+    }
+
+    private void decode(final ByteBuffer buffer, long receivedNanos, long receivedMillis) {
+        int sourceId = buffer.getInt();
+        int tickerId = buffer.getInt();
+        long priceTicks = buffer.getLong();
+        int quantity = buffer.getInt();
+        long sequence = buffer.getLong();
+        receivedFills++;
+        if (!sequencer.accepts(sourceId)) {
+            droppedFills++;
+            log.warn("Fill gateway dropped message {} with unknown source id {}", sequence, sourceId);
+            return;
+        }
+        String stockTicker = null;
+        long price = 0;
+        if (tickerId < 0 || tickerId >= tickers.length) {
+            droppedFills++;
+            log.warn("Fill gateway dropped message {} of source {} with unknown ticker id {}", sequence, sourceId,
+                    tickerId);
+        } else {
+            try {
+                price = Prices.rescale(priceTicks, priceScale);
+                stockTicker = tickers[tickerId];
+            } catch (ArithmeticException e) {
+                droppedFills++;
+                log.warn("Fill gateway dropped message {} of source {} with out of range price {}", sequence, sourceId,
+                        priceTicks);
+            }
+        }
+        // a dropped message is still sequenced, without a ticker
+        fill.setStockTicker(stockTicker);
+        fill.setPriceTicks(price);
+        fill.setQuantity(stockTicker == null ? 0 : quantity);
+        fill.setReceivedNanos(receivedNanos);
+        fill.setSourceId(sourceId);
+        fill.setSequence(sequence);
+        fill.setExecutedAtMillis(receivedMillis);
+        sequencer.offer(fill, receivedNanos);
+    }
+
+    /**
+     * Submits a fill released by the sequencer.
+     *
+     * @return false if the engine rejected the fill
+     */
+    private boolean submit(final Fill sequenced) {
+        return sequenced.getStockTicker() == null || allocationEngine.submit(sequenced);
+    }
+
+    private void close(final SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            log.warn("Fill gateway could not close a connection", e);
+        }
+    }
+
+    /**
+     * Stops the selector thread and closes every connection, fills already submitted stay queued in the engine.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (running) {
+                running = false;
+                selector.wakeup();
+                try {
+                    thread.join(TimeUnit.SECONDS.toMillis(5));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+    }
+
+    /**
+     * @return the local port, useful when the gateway was bound to port 0
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public long getReceivedCount() {
+        return receivedFills;
+    }
+
+    public long getDroppedCount() {
+        return droppedFills;
+    }
+
+    public long getRejectedCount() {
+        return sequencer.getRejectedCount();
+    }
+
+    /**
+     * @return the number of messages dropped because their source had already sent them
+     */
+    public long getDuplicateCount() {
+        return sequencer.getDuplicateCount();
+    }
+
+    /**
+     * @return the number of messages given up on because they did not arrive in time
+     */
+    public long getMissingCount() {
+        return sequencer.getMissingCount();
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.trading.gateway;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The fixed-width binary fill message accepted by the {@link FillGateway}, big-endian:
+ * <pre>
+ * int sourceId | int tickerId | long priceTicks | int quantity | long sequence
+ * </pre>
+ * <ul>
+ *     <li>{@code sourceId} - id of the sender, which numbers its messages.</li>
+ *     <li>{@code tickerId} - index of the ticker in the gateway's ticker table.</li>
+ *     <li>{@code priceTicks} - price in ticks of {@code 10^-priceScale}, e.g. 1501234 is 150.1234 with a scale of 4.</li>
+ *     <li>{@code quantity} - signed quantity, negative for a sell.</li>
+ *     <li>{@code sequence} - sequence number assigned by the sender, starting at 1, or 0 for a message that may be
+ *     allocated more than once if it is sent again.</li>
+ * </ul>
+ * Messages are sent back to back on the connection without any other framing.
+ */
+public final class FillMessage {
+
+    public static final int SIZE = 4 + 4 + 8 + 4 + 8;
+
+    private FillMessage() {
+    }
+
+    /**
+     * Writes one message at the position of the buffer.
+     */
+    public static void encode(final ByteBuffer buffer, int sourceId, int tickerId, long priceTicks, int quantity,
+                              long sequence) {
+        buffer.putInt(sourceId);
+        buffer.putInt(tickerId);
+        buffer.putLong(priceTicks);
+        buffer.putInt(quantity);
+        buffer.putLong(sequence);
+    }
+}
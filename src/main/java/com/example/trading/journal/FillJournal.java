@@ -0,0 +1,608 @@
+package com.example.trading.journal;
+
+import com.example.trading.engine.AllocationEngine;
+import com.example.trading.model.Prices;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * The {@code FillJournal} class is an append-only binary journal of allocated fills, AUM split updates and
+ * rebalancings, written to memory-mapped segment files so that positions can be rebuilt after a restart.
+ *
+ * <p>The journal is split in {@code partitions} partitions, the records of a ticker always go to the partition the
+ * {@link AllocationEngine} shard of the same index would own, split records to partition 0. Each partition has its own
+ * segments and lock, so the shards of an engine with as many shards as partitions never wait for each other while
+ * they append inside a row's write section. Sequences are taken from one counter shared by every partition, they
+ * increase within a partition and replay merges the partitions back into sequence order. A journal found with more
+ * partitions than configured keeps all of them.
+ *
+ * <p>Every segment is a file of {@code segmentSize} bytes named after the sequence of its first record, followed by
+ * its partition unless it belongs to partition 0. It starts with a magic number and a format version, followed by
+ * records laid out as:
+ * <pre>
+ * int length | int crc32 | byte type | long sequence | payload
+ * </pre>
+ * where {@code length} and {@code crc32} cover everything after the crc. The length is written last, so a record torn
+ * by a crash reads as the end of the partition. When a record does not fit in the current segment a new one is
+ * started. Prices are written as {@link Prices} ticks, segments of format version 1 stored them as doubles and are
+ * still read. Split records carry the time their splits took effect since format version 3, older ones replay as
+ * taking effect at an unknown time 0. Fills netted with the next fill of their ticker are written as netted fill
+ * records since format version 4.
+ *
+ * <p>Appending only copies a few bytes into the mapped segment under the partition's lock and creates no objects,
+ * data reaches the disk when the OS flushes the pages or when the journal forces them: every
+ * {@code fsyncEveryRecords} records of a partition and/or every {@code fsyncIntervalMillis} from a background thread
+ * (0 disables either).
+ * <p>Note: journal.enabled, journal.directory, journal.partitions, journal.segmentSize, journal.fsync.everyRecords and
+ * journal.fsync.intervalMillis can be used to configure the journal
+ */
+@Slf4j
+public final class FillJournal implements Closeable {
+
+    static final byte FILL = 1;
+    static final byte SPLITS = 2;
+    static final byte REBALANCE = 3;
+    static final byte NETTED_FILL = 4;
+
+    private static final int MAGIC = 0x464A524E;
+    private static final int FORMAT_VERSION = 4;
+    // split records without their effective time
+    private static final int FORMAT_VERSION_NO_SPLIT_TIMES = 2;
+    // fill prices as doubles
+    private static final int FORMAT_VERSION_DOUBLE_PRICES = 1;
+    private static final int SEGMENT_HEADER_SIZE = 8;
+    // length and crc
+    private static final int RECORD_PREFIX_SIZE = 8;
+    // type and sequence
+    private static final int RECORD_HEADER_SIZE = 9;
+    private static final String SEGMENT_SUFFIX = ".journal";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int fsyncEveryRecords;
+    private final Partition[] partitions;
+    // sequence of the last record appended to any partition
+    private final AtomicLong lastSequence = new AtomicLong();
+    private final ScheduledExecutorService flusher;
+
+    public FillJournal(Path directory, int partitions, int segmentSize, int fsyncEveryRecords, long fsyncIntervalMillis)
+            throws IOException {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("Journal partitions must be at least 1, was " + partitions);
+        }
+        if (segmentSize < 1024) {
+            throw new IllegalArgumentException("Journal segment size must be at least 1024 bytes, was " + segmentSize);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.fsyncEveryRecords = fsyncEveryRecords;
+        Files.createDirectories(directory);
+        Map<Integer, List<Path>> segments = segments();
+        int count = segments.isEmpty() ? partitions : Math.max(partitions, segments.keySet().stream().max(Integer::compare).orElseThrow() + 1);
+        if (count > partitions) {
+            log.warn("Journal {} has {} partitions, more than the {} configured, all of them are kept", directory, count, partitions);
+        }
+        this.partitions = new Partition[count];
+        long last = 0;
+        for (int i = 0; i < count; i++) {
+            this.partitions[i] = new Partition(i);
+            last = Math.max(last, this.partitions[i].open(segments.getOrDefault(i, List.of())));
+        }
+        lastSequence.set(last);
+        for (Partition partition : this.partitions) {
+            partition.prepareAppend(last + 1);
+        }
+        if (fsyncIntervalMillis > 0) {
+            flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "JournalFlusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::flush, fsyncIntervalMillis, fsyncIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    /**
+     * Appends an allocated fill, or the last fill of a netted group.
+     *
+     * @return the sequence of the record
+     */
+    public long appendFill(final String stockTicker, long priceTicks, int quantity, long planVersion) {
+        return appendFill(FILL, stockTicker, priceTicks, quantity, planVersion);
+    }
+
+    /**
+     * Appends a fill allocated as one quantity with the next fill appended for its ticker, which is either netted
+     * with the one after it too or appended by {@link #appendFill}.
+     *
+     * @return the sequence of the record
+     */
+    public long appendNettedFill(final String stockTicker, long priceTicks, int quantity, long planVersion) {
+        return appendFill(NETTED_FILL, stockTicker, priceTicks, quantity, planVersion);
+    }
+
+    private long appendFill(byte type, final String stockTicker, long priceTicks, int quantity, long planVersion) {
+        Partition partition = partitionOf(stockTicker);
+        synchronized (partition) {
+            int start = partition.beginRecord(type, 8 + 8 + 4 + stringSize(stockTicker));
+            MappedByteBuffer segment = partition.segment;
+            segment.putLong(planVersion);
+            segment.putLong(priceTicks);
+            segment.putInt(quantity);
+            putString(segment, stockTicker);
+            return partition.endRecord(start);
+        }
+    }
+
+    /**
+     * Appends the AUM splits published as the given plan version, taking effect at {@code effectiveFromMillis}.
+     *
+     * @return the sequence of the record
+     */
+    public long appendSplits(final Map<String, Double> aumSplits, long planVersion, long effectiveFromMillis) {
+        int payloadSize = 8 + 8 + 4;
+        for (String account : aumSplits.keySet()) {
+            payloadSize += stringSize(account) + 8;
+        }
+        Partition partition = partitions[0];
+        synchronized (partition) {
+            int start = partition.beginRecord(SPLITS, payloadSize);
+            MappedByteBuffer segment = partition.segment;
+            segment.putLong(planVersion);
+            segment.putLong(effectiveFromMillis);
+            segment.putInt(aumSplits.size());
+            for (Map.Entry<String, Double> entry : aumSplits.entrySet()) {
+                putString(segment, entry.getKey());
+                segment.putDouble(entry.getValue());
+            }
+            return partition.endRecord(start);
+        }
+    }
+
+    /**
+     * Appends the rebalancing of a ticker to the given plan version. The transfers are not written, replaying the
+     * record against the same positions and plan computes them again.
+     *
+     * @return the sequence of the record
+     */
+    public long appendRebalance(final String stockTicker, long planVersion) {
+        Partition partition = partitionOf(stockTicker);
+        synchronized (partition) {
+            int start = partition.beginRecord(REBALANCE, 8 + stringSize(stockTicker));
+            partition.segment.putLong(planVersion);
+            putString(partition.segment, stockTicker);
+            return partition.endRecord(start);
+        }
+    }
+
+    private Partition partitionOf(final String stockTicker) {
+        return partitions[AllocationEngine.shardOf(stockTicker, partitions.length)];
+    }
+
+    private static int stringSize(final String value) {
+        return 2 + value.length() * 2;
+    }
+
+    private static void putString(final MappedByteBuffer buffer, final String value) {
+        buffer.putShort((short) value.length());
+        for (int i = 0; i < value.length(); i++) {
+            buffer.putChar(value.charAt(i));
+        }
+    }
+
+    private static String getString(final MappedByteBuffer buffer) {
+        char[] chars = new char[buffer.getShort()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = buffer.getChar();
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Forces the pages written so far to the disk.
+     */
+    public void flush() {
+        for (Partition partition : partitions) {
+            MappedByteBuffer current;
+            synchronized (partition) {
+                if (!partition.dirty) {
+                    continue;
+                }
+                partition.dirty = false;
+                current = partition.segment;
+            }
+            // outside of the lock, forcing can take milliseconds
+            current.force();
+        }
+    }
+
+    /**
+     * Replays every record with a sequence of at least {@code fromSequence} in sequence order, merging the partitions.
+     *
+     * @return the number of records replayed
+     */
+    public long replay(long fromSequence, final JournalListener listener) throws IOException {
+        long replayed = 0;
+        List<Cursor> cursors = new ArrayList<>();
+        try {
+            for (List<Path> segments : segments().values()) {
+                Cursor cursor = new Cursor(segments, fromSequence);
+                if (cursor.advance()) {
+                    cursors.add(cursor);
+                }
+            }
+            while (!cursors.isEmpty()) {
+                int next = 0;
+                for (int i = 1; i < cursors.size(); i++) {
+                    if (cursors.get(i).sequence < cursors.get(next).sequence) {
+                        next = i;
+                    }
+                }
+                Cursor cursor = cursors.get(next);
+                replayRecord(cursor.type, cursor.sequence, cursor.version, cursor.buffer, listener);
+                replayed++;
+                if (!cursor.advance()) {
+                    cursors.remove(next);
+                }
+            }
+        } finally {
+            for (Cursor cursor : cursors) {
+                cursor.close();
+            }
+        }
+        return replayed;
+    }
+
+    private static void replayRecord(byte type, long sequence, int version, final MappedByteBuffer buffer,
+                                     final JournalListener listener) {
+        long planVersion = buffer.getLong();
+        if (type == FILL || type == NETTED_FILL) {
+            long priceTicks = version == FORMAT_VERSION_DOUBLE_PRICES ? Prices.toTicks(buffer.getDouble()) : buffer.getLong();
+            int quantity = buffer.getInt();
+            if (type == FILL) {
+                listener.onFill(sequence, planVersion, getString(buffer), priceTicks, quantity);
+            } else {
+                listener.onNettedFill(sequence, planVersion, getString(buffer), priceTicks, quantity);
+            }
+        } else if (type == SPLITS) {
+            long effectiveFromMillis = version > FORMAT_VERSION_NO_SPLIT_TIMES ? buffer.getLong() : 0;
+            int count = buffer.getInt();
+            Map<String, Double> aumSplits = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                String account = getString(buffer);
+                aumSplits.put(account, buffer.getDouble());
+            }
+            listener.onSplits(sequence, planVersion, effectiveFromMillis, aumSplits);
+        } else if (type == REBALANCE) {
+            listener.onRebalance(sequence, planVersion, getString(buffer));
+        }
+    }
+
+    /**
+     * @return the length of the valid record at the buffer position, 0 at the end of the partition or of a torn record
+     */
+    private static int nextRecordLength(final MappedByteBuffer buffer, final CRC32 crc) {
+        int position = buffer.position();
+        if (buffer.limit() - position < RECORD_PREFIX_SIZE + RECORD_HEADER_SIZE) {
+            return 0;
+        }
+        int length = buffer.getInt(position);
+        if (length < RECORD_HEADER_SIZE || length > buffer.limit() - position - RECORD_PREFIX_SIZE) {
+            return 0;
+        }
+        crc.reset();
+        int limit = buffer.limit();
+        buffer.position(position + RECORD_PREFIX_SIZE);
+        buffer.limit(position + RECORD_PREFIX_SIZE + length);
+        crc.update(buffer);
+        buffer.limit(limit);
+        buffer.position(position);
+        return (int) crc.getValue() == buffer.getInt(position + 4) ? length : 0;
+    }
+
+    /**
+     * Deletes the segments holding only records older than {@code sequence}, the current segment of every partition
+     * is always kept.
+     */
+    public synchronized void deleteSegmentsBefore(long sequence) throws IOException {
+        for (List<Path> segments : segments().values()) {
+            for (int i = 0; i + 1 < segments.size(); i++) {
+                if (firstSequence(segments.get(i + 1)) <= sequence) {
+                    Files.deleteIfExists(segments.get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the sequence of the last record appended, records of other partitions with a lower sequence may still be
+     * being written
+     */
+    public long lastSequence() {
+        return lastSequence.get();
+    }
+
+    /**
+     * Reads the segment header.
+     *
+     * @return the format version of the segment, 0 if the header is invalid or the version unknown
+     */
+    private static int segmentVersion(final MappedByteBuffer buffer) {
+        if (buffer.limit() < SEGMENT_HEADER_SIZE || buffer.getInt() != MAGIC) {
+            return 0;
+        }
+        int version = buffer.getInt();
+        return version >= FORMAT_VERSION_DOUBLE_PRICES && version <= FORMAT_VERSION ? version : 0;
+    }
+
+    /**
+     * @return the segments of every partition found in the directory, by partition and in sequence order
+     */
+    private Map<Integer, List<Path>> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            Map<Integer, List<Path>> segments = new TreeMap<>();
+            files.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted(Comparator.comparingLong(FillJournal::firstSequence))
+                    .forEach(path -> segments.computeIfAbsent(partition(path), partition -> new ArrayList<>()).add(path));
+            return segments;
+        }
+    }
+
+    private static long firstSequence(final Path segment) {
+        String name = segment.getFileName().toString();
+        int end = name.indexOf('.');
+        return Long.parseLong(name.substring(0, end));
+    }
+
+    private static int partition(final Path segment) {
+        String name = segment.getFileName().toString();
+        int start = name.indexOf('.') + 1;
+        int end = name.length() - SEGMENT_SUFFIX.length();
+        return start > end ? 0 : Integer.parseInt(name.substring(start, end));
+    }
+
+    @Override
+    public void close() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+        for (Partition partition : partitions) {
+            synchronized (partition) {
+                partition.segment.force();
+                try {
+                    partition.channel.close();
+                } catch (IOException e) {
+                    log.warn("Could not close journal segment", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * The current segment of one partition, guarded by its own monitor.
+     */
+    private final class Partition {
+
+        private final int index;
+        private final CRC32 crc = new CRC32();
+        private FileChannel channel;
+        private MappedByteBuffer segment;
+        private long pendingSequence;
+        private int unsyncedRecords;
+        // the segment holds records of an older format
+        private boolean outdated;
+        private volatile boolean dirty;
+
+        private Partition(int index) {
+            this.index = index;
+        }
+
+        private int beginRecord(byte type, int payloadSize) {
+            int recordSize = RECORD_PREFIX_SIZE + RECORD_HEADER_SIZE + payloadSize;
+            if (recordSize > segmentSize - SEGMENT_HEADER_SIZE) {
+                throw new IllegalArgumentException("Journal record of " + recordSize + " bytes does not fit in a segment");
+            }
+            pendingSequence = lastSequence.incrementAndGet();
+            if (segment.remaining() < recordSize) {
+                rollSegment(pendingSequence);
+            }
+            int start = segment.position();
+            segment.position(start + RECORD_PREFIX_SIZE);
+            segment.put(type);
+            segment.putLong(pendingSequence);
+            return start;
+        }
+
+        private long endRecord(int start) {
+            int end = segment.position();
+            int length = end - start - RECORD_PREFIX_SIZE;
+            crc.reset();
+            segment.position(start + RECORD_PREFIX_SIZE);
+            segment.limit(end);
+            crc.update(segment);
+            segment.limit(segment.capacity());
+            segment.putInt(start + 4, (int) crc.getValue());
+            // the length commits the record
+            segment.putInt(start, length);
+            dirty = true;
+            if (fsyncEveryRecords > 0 && ++unsyncedRecords >= fsyncEveryRecords) {
+                unsyncedRecords = 0;
+                segment.force();
+            }
+            return pendingSequence;
+        }
+
+        /**
+         * Maps the last segment of the partition and wipes whatever a crash left after its last valid record.
+         *
+         * @return the sequence of the last record of the partition, 0 if it has none
+         */
+        private long open(final List<Path> segments) throws IOException {
+            if (segments.isEmpty()) {
+                return 0;
+            }
+            Path last = segments.get(segments.size() - 1);
+            channel = FileChannel.open(last, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            int version = segmentVersion(segment);
+            if (version == 0) {
+                throw new IOException("Journal segment " + last + " has an invalid header");
+            }
+            long lastInPartition = firstSequence(last) - 1;
+            int length;
+            while ((length = nextRecordLength(segment, crc)) > 0) {
+                lastInPartition = segment.getLong(segment.position() + RECORD_PREFIX_SIZE + 1);
+                segment.position(segment.position() + RECORD_PREFIX_SIZE + length);
+            }
+            // wipe whatever a crash left after the last valid record so it can never be mistaken for a record
+            int end = segment.position();
+            byte[] zeros = new byte[4096];
+            while (segment.hasRemaining()) {
+                segment.put(zeros, 0, Math.min(zeros.length, segment.remaining()));
+            }
+            segment.position(end);
+            if (version != FORMAT_VERSION) {
+                // a segment holds records of a single format, new records go to a segment of the current one
+                if (end == SEGMENT_HEADER_SIZE) {
+                    segment.putInt(4, FORMAT_VERSION);
+                } else {
+                    outdated = true;
+                }
+            }
+            return lastInPartition;
+        }
+
+        /**
+         * Creates the segment the next records are appended to if the partition has none or an outdated one.
+         */
+        private void prepareAppend(long firstSequence) throws IOException {
+            if (segment == null) {
+                createSegment(firstSequence);
+            } else if (outdated) {
+                outdated = false;
+                rollSegment(firstSequence);
+            }
+        }
+
+        private void rollSegment(long firstSequence) {
+            try {
+                segment.force();
+                channel.close();
+                createSegment(firstSequence);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not roll journal segment in " + directory, e);
+            }
+        }
+
+        private void createSegment(long firstSequence) throws IOException {
+            String name = index == 0 ? String.format("%020d%s", firstSequence, SEGMENT_SUFFIX)
+                    : String.format("%020d.%d%s", firstSequence, index, SEGMENT_SUFFIX);
+            channel = FileChannel.open(directory.resolve(name), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            segment.putInt(MAGIC);
+            segment.putInt(FORMAT_VERSION);
+        }
+    }
+
+    /**
+     * Reads the records of one partition from {@code fromSequence} on, one segment mapped at a time.
+     */
+    private static final class Cursor {
+
+        private final List<Path> segments;
+        private final long fromSequence;
+        private final CRC32 crc = new CRC32();
+        private int nextSegment;
+        private FileChannel channel;
+        private MappedByteBuffer buffer;
+        private int version;
+        // end of the current record, -1 before the first record of a segment
+        private int recordEnd = -1;
+        private byte type;
+        private long sequence;
+
+        private Cursor(final List<Path> segments, long fromSequence) {
+            this.segments = segments;
+            this.fromSequence = fromSequence;
+        }
+
+        /**
+         * Moves to the next record, leaving the buffer at its payload.
+         *
+         * @return false at the end of the partition
+         */
+        private boolean advance() throws IOException {
+            while (true) {
+                if (buffer != null) {
+                    if (recordEnd >= 0) {
+                        buffer.position(recordEnd);
+                    }
+                    if (nextRecordLength(buffer, crc) > 0) {
+                        recordEnd = buffer.position() + RECORD_PREFIX_SIZE + buffer.getInt(buffer.position());
+                        buffer.position(buffer.position() + RECORD_PREFIX_SIZE);
+                        type = buffer.get();
+                        sequence = buffer.getLong();
+                        if (sequence >= fromSequence) {
+                            return true;
+                        }
+                        continue;
+                    }
+                }
+                if (!openNextSegment()) {
+                    return false;
+                }
+            }
+        }
+
+        private boolean openNextSegment() throws IOException {
+            close();
+            while (nextSegment < segments.size()) {
+                int i = nextSegment++;
+                if (i + 1 < segments.size() && firstSequence(segments.get(i + 1)) <= fromSequence) {
+                    // every record of this segment is older than fromSequence
+                    continue;
+                }
+                channel = FileChannel.open(segments.get(i), StandardOpenOption.READ);
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                version = segmentVersion(buffer);
+                recordEnd = -1;
+                if (version != 0) {
+                    return true;
+                }
+                close();
+            }
+            return false;
+        }
+
+        private void close() throws IOException {
+            buffer = null;
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+}
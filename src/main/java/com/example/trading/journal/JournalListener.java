@@ -0,0 +1,33 @@
+package com.example.trading.journal;
+
+import java.util.Map;
+
+/**
+ * Receives the records of a {@link FillJournal} in the order they were appended during a replay.
+ */
+public interface JournalListener {
+
+    /**
+     * @param effectiveFromMillis epoch millis from which the splits apply, 0 if the record did not carry it
+     */
+    void onSplits(long sequence, long planVersion, long effectiveFromMillis, Map<String, Double> aumSplits);
+
+    /**
+     * @param priceTicks the price in ticks, see {@link com.example.trading.model.Prices}
+     */
+    void onFill(long sequence, long planVersion, String stockTicker, long priceTicks, int quantity);
+
+    /**
+     * Receives a fill that was allocated as one quantity with the next fill record of its ticker, replayed as a fill of
+     * its own unless overridden.
+     */
+    default void onNettedFill(long sequence, long planVersion, String stockTicker, long priceTicks, int quantity) {
+        onFill(sequence, planVersion, stockTicker, priceTicks, quantity);
+    }
+
+    /**
+     * Receives the rebalancing of a ticker to the given plan version.
+     */
+    default void onRebalance(long sequence, long planVersion, String stockTicker) {
+    }
+}
@@ -0,0 +1,347 @@
+package com.example.trading.journal;
+
+import com.example.trading.allocation.AllocationPlan;
+import com.example.trading.book.PositionBook;
+import com.example.trading.book.RowSnapshot;
+import com.example.trading.model.Prices;
+import lombok.extern.slf4j.Slf4j;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * The {@code PositionCheckpointer} class writes compact binary checkpoints of the {@link PositionBook} so that a restart
+ * only has to replay the tail of the {@link FillJournal}.
+ *
+ * <p>A checkpoint is taken at a journal sequence {@code S}: it holds the AUM split plans fills after {@code S} may
+ * refer to and every ticker row changed since the previous checkpoint. Rows are copied one at a time with
+ * {@link PositionBook.Row#copyTo(RowSnapshot)}, so allocation threads keep running while a checkpoint is written. Since
+ * journal records are appended inside the row's write section a copied row contains every fill journaled up to
+ * {@code S} and possibly a few later ones, the sequence of the last record applied is saved with the row and replay
+ * skips records the row already contains.
+ *
+ * <p>Every {@code fullEvery} checkpoints all rows are written, older checkpoints and journal segments are then deleted.
+ * On startup the latest full checkpoint is loaded followed by the incremental ones written after it. Rows of format
+ * version 1 held only a double total value, it is loaded as the cost basis with no realized P&L. Rows of format
+ * version 2 have no tax lots, an account loaded into a book keeping lots then holds a lot at its average cost. Plans
+ * are saved with the time they took effect since format version 4, older ones load as taking effect at an unknown
+ * time 0.
+ * <p>Note: checkpoint.enabled, checkpoint.directory, checkpoint.intervalSeconds and checkpoint.fullEvery can be used
+ * to configure checkpoints
+ */
+@Slf4j
+public class PositionCheckpointer implements Closeable {
+
+    private static final int MAGIC = 0x504B4350;
+    private static final int FORMAT_VERSION = 4;
+    // plans without their effective time
+    private static final int FORMAT_VERSION_NO_PLAN_TIMES = 3;
+    // quantity, total value, cost basis and realized P&L per account, without lots
+    private static final int FORMAT_VERSION_NO_LOTS = 2;
+    // quantity and double total value per account
+    private static final int FORMAT_VERSION_DOUBLE_VALUES = 1;
+    private static final String FULL_SUFFIX = ".full.checkpoint";
+    private static final String INCREMENTAL_SUFFIX = ".incremental.checkpoint";
+
+    private final Path directory;
+    private final int fullEvery;
+    private final FillJournal fillJournal;
+    private final RowSnapshot snapshot = new RowSnapshot();
+    private ScheduledExecutorService scheduler;
+    // row versions at the time of the last checkpoint, indexed by ticker id
+    private long[] checkpointedVersions = new long[0];
+    private long checkpointCount;
+    private long lastJournalSequence = -1;
+
+    public PositionCheckpointer(Path directory, int fullEvery, FillJournal fillJournal) throws IOException {
+        if (fullEvery < 1) {
+            throw new IllegalArgumentException("Checkpoint fullEvery must be positive, was " + fullEvery);
+        }
+        this.directory = directory;
+        this.fullEvery = fullEvery;
+        this.fillJournal = fillJournal;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Runs {@code checkpointTask} every {@code intervalSeconds} on a background thread.
+     */
+    public synchronized void start(final Runnable checkpointTask, long intervalSeconds) {
+        if (scheduler != null || intervalSeconds <= 0) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "PositionCheckpointer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                checkpointTask.run();
+            } catch (RuntimeException e) {
+                log.error("Position checkpoint failed", e);
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Writes a checkpoint of the rows changed since the last one.
+     *
+     * @param journalSequence the last journal sequence, every record up to it must already be applied or in progress
+     * @param plans           the plans records after {@code journalSequence} may have been allocated against
+     * @return false if nothing changed since the last checkpoint
+     */
+    public synchronized boolean checkpoint(final PositionBook positionBook, long journalSequence,
+                                           final List<AllocationPlan> plans) throws IOException {
+        boolean full = checkpointCount % fullEvery == 0;
+        int tickerCount = positionBook.getTickers().size();
+        if (checkpointedVersions.length < tickerCount) {
+            checkpointedVersions = Arrays.copyOf(checkpointedVersions, Math.max(tickerCount, checkpointedVersions.length * 2));
+        }
+        if (!full && journalSequence == lastJournalSequence) {
+            return false;
+        }
+
+        String name = String.format("%020d", journalSequence) + (full ? FULL_SUFFIX : INCREMENTAL_SUFFIX);
+        Path target = directory.resolve(name);
+        Path temporary = directory.resolve(name + ".tmp");
+        long[] versions = Arrays.copyOf(checkpointedVersions, checkpointedVersions.length);
+        try (FileOutputStream file = new FileOutputStream(temporary.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(journalSequence);
+            writePlans(out, positionBook, plans);
+
+            int accountCount = positionBook.getAccounts().size();
+            out.writeInt(accountCount);
+            for (int accountId = 0; accountId < accountCount; accountId++) {
+                out.writeUTF(positionBook.getAccounts().nameOf(accountId));
+            }
+
+            List<Integer> changedRows = new ArrayList<>();
+            for (int tickerId = 0; tickerId < tickerCount; tickerId++) {
+                long version = positionBook.row(tickerId).getVersion();
+                if (version != 0 && (full || version != versions[tickerId])) {
+                    changedRows.add(tickerId);
+                }
+            }
+            out.writeInt(changedRows.size());
+            for (int tickerId : changedRows) {
+                positionBook.row(tickerId).copyTo(snapshot, true);
+                versions[tickerId] = snapshot.getVersion();
+                writeRow(out, positionBook.getTickers().nameOf(tickerId), snapshot);
+            }
+            out.writeInt(MAGIC);
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        checkpointedVersions = versions;
+        checkpointCount++;
+        lastJournalSequence = journalSequence;
+        if (full) {
+            deleteCheckpointsUpTo(journalSequence, target);
+            if (fillJournal != null) {
+                fillJournal.deleteSegmentsBefore(journalSequence + 1);
+            }
+        }
+        return true;
+    }
+
+    private static void writePlans(final DataOutputStream out, final PositionBook positionBook,
+                                   final List<AllocationPlan> plans) throws IOException {
+        out.writeInt(plans.size());
+        for (AllocationPlan plan : plans) {
+            out.writeLong(plan.getVersion());
+            out.writeLong(plan.getEffectiveFromMillis());
+            out.writeInt(plan.size());
+            for (int i = 0; i < plan.size(); i++) {
+                out.writeUTF(positionBook.getAccounts().nameOf(plan.accountId(i)));
+                out.writeInt(plan.weightBps(i));
+            }
+        }
+    }
+
+    private static void writeRow(final DataOutputStream out, final String stockTicker, final RowSnapshot row) throws IOException {
+        out.writeUTF(stockTicker);
+        out.writeLong(row.getJournalSequence());
+        out.writeInt(row.getAccountCount());
+        int lot = 0;
+        for (int accountId = 0; accountId < row.getAccountCount(); accountId++) {
+            out.writeInt(row.getQuantities()[accountId]);
+            out.writeLong(row.getValues()[accountId]);
+            out.writeLong(row.getCostBases()[accountId]);
+            out.writeLong(row.getRealizedPnls()[accountId]);
+            int lotCount = row.getLotCounts()[accountId];
+            out.writeInt(lotCount);
+            for (int end = lot + lotCount; lot < end; lot++) {
+                out.writeInt(row.getLotQuantities()[lot]);
+                out.writeLong(row.getLotPrices()[lot]);
+            }
+        }
+    }
+
+    /**
+     * Loads the latest full checkpoint and the incremental ones written after it into an empty position book.
+     *
+     * @return the restored checkpoint, or null if no checkpoint was written yet
+     */
+    public synchronized Checkpoint load(final PositionBook positionBook) throws IOException {
+        List<Path> checkpoints = checkpoints();
+        int lastFull = -1;
+        for (int i = 0; i < checkpoints.size(); i++) {
+            if (checkpoints.get(i).getFileName().toString().endsWith(FULL_SUFFIX)) {
+                lastFull = i;
+            }
+        }
+        if (lastFull < 0) {
+            return null;
+        }
+        Checkpoint checkpoint = null;
+        for (int i = lastFull; i < checkpoints.size(); i++) {
+            checkpoint = loadCheckpoint(checkpoints.get(i), positionBook);
+        }
+        return checkpoint;
+    }
+
+    private static Checkpoint loadCheckpoint(final Path path, final PositionBook positionBook) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Checkpoint " + path + " has an invalid header");
+            }
+            int version = in.readInt();
+            if (version < FORMAT_VERSION_DOUBLE_VALUES || version > FORMAT_VERSION) {
+                throw new IOException("Checkpoint " + path + " has an unknown format version " + version);
+            }
+            long journalSequence = in.readLong();
+            List<AllocationPlan> plans = new ArrayList<>();
+            int planCount = in.readInt();
+            for (int i = 0; i < planCount; i++) {
+                long planVersion = in.readLong();
+                long effectiveFromMillis = version > FORMAT_VERSION_NO_PLAN_TIMES ? in.readLong() : 0;
+                int size = in.readInt();
+                Map<String, Double> aumSplits = new HashMap<>();
+                for (int j = 0; j < size; j++) {
+                    String account = in.readUTF();
+                    aumSplits.put(account, in.readInt() / 100.0);
+                }
+                plans.add(AllocationPlan.compile(aumSplits, positionBook, planVersion, effectiveFromMillis));
+            }
+
+            int[] accountIds = new int[in.readInt()];
+            for (int i = 0; i < accountIds.length; i++) {
+                accountIds[i] = positionBook.accountId(in.readUTF());
+            }
+
+            int rowCount = in.readInt();
+            for (int i = 0; i < rowCount; i++) {
+                PositionBook.Row row = positionBook.row(positionBook.tickerId(in.readUTF()));
+                long rowSequence = in.readLong();
+                int accountCount = in.readInt();
+                row.beginWrite();
+                for (int accountId = 0; accountId < accountCount; accountId++) {
+                    int quantity = in.readInt();
+                    long totalValue;
+                    long costBasis;
+                    long realizedPnl = 0;
+                    if (version == FORMAT_VERSION_DOUBLE_VALUES) {
+                        totalValue = costBasis = Prices.toTicks(in.readDouble());
+                    } else {
+                        totalValue = in.readLong();
+                        costBasis = in.readLong();
+                        realizedPnl = in.readLong();
+                    }
+                    boolean known = accountId < accountIds.length;
+                    if (known) {
+                        row.set(accountIds[accountId], quantity, totalValue, costBasis, realizedPnl);
+                    }
+                    int lotCount = version > FORMAT_VERSION_NO_LOTS ? in.readInt() : 0;
+                    for (int lot = 0; lot < lotCount; lot++) {
+                        int lotQuantity = in.readInt();
+                        long lotPrice = in.readLong();
+                        if (known) {
+                            row.addLot(accountIds[accountId], lotQuantity, lotPrice);
+                        }
+                    }
+                    if (known && lotCount == 0 && quantity > 0) {
+                        // saved without lots, the position becomes a lot at its average cost, with the remainder of the
+                        // division spread one tick per share over a second lot so that the lots add up to the cost basis
+                        long averageCost = Math.floorDiv(costBasis, quantity);
+                        int remainder = Math.floorMod(costBasis, quantity);
+                        row.addLot(accountIds[accountId], quantity - remainder, averageCost);
+                        row.addLot(accountIds[accountId], remainder, averageCost + 1);
+                    }
+                }
+                row.setJournalSequence(rowSequence);
+                row.endWrite();
+            }
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Checkpoint " + path + " is truncated");
+            }
+            return new Checkpoint(journalSequence, plans);
+        }
+    }
+
+    private void deleteCheckpointsUpTo(long journalSequence, final Path latestFull) throws IOException {
+        for (Path checkpoint : checkpoints()) {
+            if (!checkpoint.equals(latestFull) && journalSequence(checkpoint) <= journalSequence) {
+                Files.deleteIfExists(checkpoint);
+            }
+        }
+    }
+
+    private static long journalSequence(final Path checkpoint) {
+        String name = checkpoint.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.indexOf('.')));
+    }
+
+    private List<Path> checkpoints() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                    .filter(path -> path.getFileName().toString().endsWith(FULL_SUFFIX)
+                            || path.getFileName().toString().endsWith(INCREMENTAL_SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * State restored by {@link #load(PositionBook)}: journal records after {@code journalSequence} have to be replayed.
+     */
+    @AllArgsConstructor
+    @Getter
+    public static class Checkpoint {
+
+        private final long journalSequence;
+        // the plans kept in the AUM splits history, oldest first, the last one is the current plan
+        private final List<AllocationPlan> plans;
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.trading.load;
+
+import com.example.trading.model.Fill;
+import com.example.trading.model.Prices;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The {@code FillRecorder} class writes fills to a recording that {@link RecordedFillSource} replays.
+ *
+ * <p>A recording is a text file with one fill per line, {@code offsetNanos,ticker,price,quantity}, where the offset
+ * is the time the fill was sent at from the start of the run and the price is a decimal. Lines starting with
+ * {@code #} are comments. Being plain text, recordings of real feeds can be produced by any tool.
+ */
+public class FillRecorder implements Closeable {
+
+    static final String HEADER = "# offsetNanos,ticker,price,quantity";
+
+    private final BufferedWriter writer;
+    private final StringBuilder line = new StringBuilder(64);
+
+    public FillRecorder(Path file) throws IOException {
+        this.writer = Files.newBufferedWriter(file, StandardCharsets.US_ASCII);
+        writer.write(HEADER);
+        writer.newLine();
+    }
+
+    public void record(long offsetNanos, final Fill fill) throws IOException {
+        line.setLength(0);
+        line.append(offsetNanos).append(',').append(fill.getStockTicker()).append(',');
+        Prices.appendTo(line, fill.getPriceTicks()).append(',').append(fill.getQuantity());
+        writer.append(line);
+        writer.newLine();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
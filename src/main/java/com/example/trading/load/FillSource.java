@@ -0,0 +1,17 @@
+package com.example.trading.load;
+
+import com.example.trading.model.Fill;
+
+/**
+ * A stream of fills to drive through the allocation engine, generated or read back from a recording.
+ */
+public interface FillSource {
+
+    /**
+     * Writes the next fill into {@code fill}, so the same instance can be reused for every fill.
+     *
+     * @return the time the fill is due at in nanoseconds from the start of the run, 0 to send it as soon as possible,
+     * or -1 when the source is exhausted
+     */
+    long next(Fill fill);
+}
@@ -0,0 +1,17 @@
+package com.example.trading.load;
+
+/**
+ * Defines where the fills of the application come from.
+ * <ul>
+ *     <li>{@link #OFF} - the random fill and AUM simulators.</li>
+ *     <li>{@link #SYNTHETIC} - a {@link SyntheticFillSource} run at a fixed rate from a seed.</li>
+ *     <li>{@link #REPLAY} - a recording replayed by a {@link RecordedFillSource}.</li>
+ * </ul>
+ * <p>Under load the AUM splits are fixed, so the same run always allocates the same positions.
+ * <p>Note: load.mode can be used to configure the mode
+ */
+public enum LoadMode {
+    OFF,
+    SYNTHETIC,
+    REPLAY
+}
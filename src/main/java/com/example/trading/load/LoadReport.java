@@ -0,0 +1,40 @@
+package com.example.trading.load;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * The outcome of a {@link LoadRunner} run. Latencies are from the receipt of a fill to its allocation, 0 when they were
+ * not measured.
+ */
+@AllArgsConstructor
+@Getter
+public class LoadReport {
+
+    private final long submittedFills;
+    private final long rejectedFills;
+    // from the first fill sent to the last one allocated, or to the drain timeout
+    private final long elapsedNanos;
+    // false if the engine had not allocated every fill when the drain timed out
+    private final boolean drained;
+    private final long latencyCount;
+    private final double p50Nanos;
+    private final double p99Nanos;
+    private final double p999Nanos;
+    private final double maxNanos;
+
+    /**
+     * @return the fills allocated per second
+     */
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0 : (submittedFills - rejectedFills) * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d fills (%d rejected) in %.3f s%s, %.0f fills/s, latency p50=%.1f us p99=%.1f us "
+                        + "p99.9=%.1f us max=%.1f us over %d fills",
+                submittedFills, rejectedFills, elapsedNanos / 1e9, drained ? "" : " (not drained)", getThroughput(),
+                p50Nanos / 1e3, p99Nanos / 1e3, p999Nanos / 1e3, maxNanos / 1e3, latencyCount);
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.trading.load;
+
+import com.example.trading.engine.AllocationEngine;
+import com.example.trading.metrics.TradingMetrics;
+import com.example.trading.model.Fill;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The {@code LoadRunner} class drives the fills of a {@link FillSource} through the {@link AllocationEngine} on the
+ * calling thread and reports the end-to-end throughput and latency once the engine has allocated all of them.
+ *
+ * <p>Fills are sent at the time the source says they are due, parking until shortly before and spinning the rest of
+ * the way so rates of millions of fills per second can be held. A paced fill is stamped with the time it was due
+ * rather than the time it was sent, so a run falling behind its schedule shows in the latencies instead of hiding
+ * it. One fill instance is reused for the whole run, the engine copies it on submit.
+ *
+ * <p>Latencies are read from the {@code fill.latency} timer of {@link TradingMetrics}, whose percentiles cover the
+ * last minutes of the run. Sent fills can be written to a {@link FillRecorder} to replay the exact same run later.
+ */
+@Slf4j
+public class LoadRunner {
+
+    private static final long SPIN_NANOS = 50_000;
+    private static final long DRAIN_POLL_MILLIS = 1;
+
+    private final AllocationEngine allocationEngine;
+    // null when latencies are not measured
+    private final TradingMetrics tradingMetrics;
+
+    public LoadRunner(AllocationEngine allocationEngine, TradingMetrics tradingMetrics) {
+        this.allocationEngine = allocationEngine;
+        this.tradingMetrics = tradingMetrics;
+    }
+
+    /**
+     * Sends every fill of the source, stopping early if the thread is interrupted, then waits up to
+     * {@code drainTimeoutMillis} for the engine to allocate them.
+     *
+     * @param recorder where to record the sent fills, or null
+     */
+    public LoadReport run(final FillSource source, final FillRecorder recorder, long drainTimeoutMillis) {
+        long baselineCount = latencyCount();
+        long baselineProcessed = processedCount();
+        Fill fill = new Fill();
+        long submitted = 0;
+        long rejected = 0;
+        long start = System.nanoTime();
+        long offset;
+        while (!Thread.currentThread().isInterrupted() && (offset = source.next(fill)) >= 0) {
+            long now = offset == 0 ? System.nanoTime() : awaitDue(start + offset);
+            fill.setReceivedNanos(offset == 0 ? now : start + offset);
+            if (recorder != null) {
+                record(recorder, now - start, fill);
+            }
+            submitted++;
+            if (!allocationEngine.submit(fill)) {
+                rejected++;
+            }
+        }
+        boolean drained = awaitProcessed(baselineProcessed + submitted - rejected, drainTimeoutMillis);
+        long elapsed = System.nanoTime() - start;
+        LoadReport report = report(submitted, rejected, elapsed, drained, baselineCount);
+        log.info("Load run finished: {}", report);
+        return report;
+    }
+
+    private static long awaitDue(long due) {
+        long now = System.nanoTime();
+        if (due - now > SPIN_NANOS) {
+            LockSupport.parkNanos(due - now - SPIN_NANOS);
+        }
+        while ((now = System.nanoTime()) - due < 0) {
+            Thread.onSpinWait();
+        }
+        return now;
+    }
+
+    private static void record(final FillRecorder recorder, long offsetNanos, final Fill fill) {
+        try {
+            recorder.record(offsetNanos, fill);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private boolean awaitProcessed(long target, long timeoutMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (processedCount() < target) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            try {
+                Thread.sleep(DRAIN_POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long processedCount() {
+        long processed = 0;
+        for (int shard = 0; shard < allocationEngine.getShardCount(); shard++) {
+            processed += allocationEngine.getProcessedCount(shard);
+        }
+        return processed;
+    }
+
+    private long latencyCount() {
+        return tradingMetrics == null ? 0 : tradingMetrics.getFillLatency().count();
+    }
+
+    private LoadReport report(long submitted, long rejected, long elapsed, boolean drained, long baselineCount) {
+        if (tradingMetrics == null) {
+            return new LoadReport(submitted, rejected, elapsed, drained, 0, 0, 0, 0, 0);
+        }
+        HistogramSnapshot snapshot = tradingMetrics.getFillLatency().takeSnapshot();
+        double p50 = 0;
+        double p99 = 0;
+        double p999 = 0;
+        for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+            double nanos = percentile.value(TimeUnit.NANOSECONDS);
+            if (percentile.percentile() == 0.5) {
+                p50 = nanos;
+            } else if (percentile.percentile() == 0.99) {
+                p99 = nanos;
+            } else if (percentile.percentile() == 0.999) {
+                p999 = nanos;
+            }
+        }
+        return new LoadReport(submitted, rejected, elapsed, drained, snapshot.count() - baselineCount, p50, p99, p999,
+                snapshot.max(TimeUnit.NANOSECONDS));
+    }
+}
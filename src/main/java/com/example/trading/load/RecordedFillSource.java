@@ -0,0 +1,72 @@
+package com.example.trading.load;
+
+import com.example.trading.model.Fill;
+import com.example.trading.model.Prices;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The {@code RecordedFillSource} class replays a recording written by {@link FillRecorder}.
+ *
+ * <p>Fills are due at their recorded offset divided by {@code speed}: 1 replays the recording at its original pace,
+ * 10 ten times faster, and 0 sends every fill as fast as possible.
+ */
+public class RecordedFillSource implements FillSource, Closeable {
+
+    private final BufferedReader reader;
+    private final double speed;
+    private long lineNumber;
+
+    public RecordedFillSource(Path file, double speed) throws IOException {
+        if (!(speed >= 0)) {
+            throw new IllegalArgumentException("Speed must not be negative, was " + speed);
+        }
+        this.reader = Files.newBufferedReader(file, StandardCharsets.US_ASCII);
+        this.speed = speed;
+    }
+
+    /**
+     * @throws UncheckedIOException if the recording cannot be read
+     * @throws IllegalArgumentException if a line is not a fill
+     */
+    @Override
+    public long next(final Fill fill) {
+        String line;
+        try {
+            do {
+                line = reader.readLine();
+                lineNumber++;
+            } while (line != null && (line.isBlank() || line.startsWith("#")));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (line == null) {
+            return -1;
+        }
+        String[] fields = line.split(",");
+        if (fields.length != 4) {
+            throw new IllegalArgumentException("Invalid fill on line " + lineNumber + ": " + line);
+        }
+        try {
+            long offsetNanos = Long.parseLong(fields[0].trim());
+            fill.setStockTicker(fields[1].trim());
+            fill.setPriceTicks(Prices.toTicks(Double.parseDouble(fields[2].trim())));
+            fill.setQuantity(Integer.parseInt(fields[3].trim()));
+            fill.setReceivedNanos(0);
+            return speed == 0 ? 0 : (long) (offsetNanos / speed);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid fill on line " + lineNumber + ": " + line, e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.trading.load;
+
+import com.example.trading.model.Fill;
+import com.example.trading.model.Prices;
+
+import java.util.SplittableRandom;
+
+/**
+ * The {@code SyntheticFillSource} class generates a reproducible stream of fills over a synthetic universe of
+ * tickers named {@code TICKER0} to {@code TICKER<n-1>}.
+ *
+ * <p>Every fill draws:
+ * <ul>
+ *     <li>its ticker from a {@link ZipfDistribution}, {@code TICKER0} being the most traded,</li>
+ *     <li>its side, a buy with probability {@code buyRatio}, so a ratio above 0.5 builds positions over time,</li>
+ *     <li>a quantity between 1 and {@code maxQuantity},</li>
+ *     <li>a price within 1% of the ticker's base price, in cents, base prices being drawn between 10.00 and 1000.00
+ *     once per ticker.</li>
+ * </ul>
+ * Everything is drawn from one {@link SplittableRandom} seeded with {@code seed}, so the same settings always produce
+ * the same fills. Fills are due every {@code 1 / rate} seconds, or as fast as possible when the rate is 0.
+ */
+public class SyntheticFillSource implements FillSource {
+
+    private static final long TICKS_PER_CENT = Prices.TICKS_PER_UNIT / 100;
+
+    private final SplittableRandom random;
+    private final String[] tickers;
+    private final long[] basePriceCents;
+    private final ZipfDistribution popularity;
+    private final double buyRatio;
+    private final int maxQuantity;
+    private final double nanosPerFill;
+    // 0 for an endless stream
+    private final long fillCount;
+    private long emitted;
+
+    public SyntheticFillSource(long seed, int tickerCount, double zipfExponent, double buyRatio, int maxQuantity,
+                               double rate, long fillCount) {
+        if (maxQuantity < 1) {
+            throw new IllegalArgumentException("Max quantity must be positive, was " + maxQuantity);
+        }
+        this.random = new SplittableRandom(seed);
+        this.popularity = new ZipfDistribution(tickerCount, zipfExponent);
+        this.tickers = new String[tickerCount];
+        this.basePriceCents = new long[tickerCount];
+        for (int i = 0; i < tickerCount; i++) {
+            tickers[i] = "TICKER" + i;
+            basePriceCents[i] = random.nextLong(1_000, 100_001);
+        }
+        this.buyRatio = buyRatio;
+        this.maxQuantity = maxQuantity;
+        this.nanosPerFill = rate > 0 ? 1e9 / rate : 0;
+        this.fillCount = fillCount;
+    }
+
+    @Override
+    public long next(final Fill fill) {
+        if (fillCount > 0 && emitted >= fillCount) {
+            return -1;
+        }
+        int ticker = popularity.sample(random);
+        int quantity = 1 + random.nextInt(maxQuantity);
+        if (random.nextDouble() >= buyRatio) {
+            quantity = -quantity;
+        }
+        long baseCents = basePriceCents[ticker];
+        long cents = baseCents + random.nextLong(-baseCents / 100, baseCents / 100 + 1);
+        fill.setStockTicker(tickers[ticker]);
+        fill.setPriceTicks(cents * TICKS_PER_CENT);
+        fill.setQuantity(quantity);
+        fill.setReceivedNanos(0);
+        return (long) (emitted++ * nanosPerFill);
+    }
+}
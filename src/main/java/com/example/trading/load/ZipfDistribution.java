@@ -0,0 +1,49 @@
+package com.example.trading.load;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * The {@code ZipfDistribution} class samples ranks {@code 0..n-1} where rank {@code k} is drawn with a probability
+ * proportional to {@code 1 / (k + 1)^exponent}, the popularity curve of tickers traded on a real market: a handful of
+ * names get most of the fills and a long tail is traded now and then.
+ *
+ * <p>The cumulative probabilities are computed once, a sample is a binary search over them and does not allocate.
+ * Samples only depend on the random generator, so a seeded generator gives the same ranks on every run.
+ */
+public final class ZipfDistribution {
+
+    private final double[] cumulative;
+
+    /**
+     * @param exponent 0 for a uniform distribution, around 1 for a market-like skew
+     */
+    public ZipfDistribution(int size, double exponent) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Size must be positive, was " + size);
+        }
+        if (!(exponent >= 0)) {
+            throw new IllegalArgumentException("Exponent must not be negative, was " + exponent);
+        }
+        cumulative = new double[size];
+        double total = 0;
+        for (int rank = 0; rank < size; rank++) {
+            total += 1 / Math.pow(rank + 1, exponent);
+            cumulative[rank] = total;
+        }
+        for (int rank = 0; rank < size; rank++) {
+            cumulative[rank] /= total;
+        }
+    }
+
+    public int sample(final SplittableRandom random) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        int rank = index >= 0 ? index : -index - 1;
+        // rounding may leave the last cumulative probability a hair below 1
+        return Math.min(rank, cumulative.length - 1);
+    }
+
+    public int size() {
+        return cumulative.length;
+    }
+}
@@ -0,0 +1,278 @@
+package com.example.trading.metrics;
+
+import com.example.trading.allocation.ExposureLimits;
+import com.example.trading.engine.AllocationEngine;
+import com.example.trading.gateway.FillGateway;
+import com.example.trading.model.Fill;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code TradingMetrics} class registers the Micrometer meters of the allocation hot path.
+ *
+ * <p>Meters:
+ * <ul>
+ *     <li>{@code fill.latency} - time from the receipt of a fill to its allocation being applied to the positions,
+ *     with client side percentiles (HdrHistogram based) and a percentile histogram for Prometheus.</li>
+ *     <li>{@code fills.allocated} - fills applied to the positions, tagged by ticker.</li>
+ *     <li>{@code allocation.engine.queue.depth}, {@code allocation.engine.queue.capacity},
+ *     {@code allocation.engine.queue.utilization} and {@code allocation.engine.processed} - per shard.</li>
+ *     <li>{@code allocation.engine.rejected} - fills rejected by the engine.</li>
+ *     <li>{@code allocation.limits.breached} - allocations breaching an exposure limit or selling more than held, tagged
+ *     by kind of breach.</li>
+ *     <li>{@code gateway.fills.received}, {@code gateway.fills.dropped}, {@code gateway.fills.rejected},
+ *     {@code gateway.fills.duplicate} and {@code gateway.fills.missing} - messages decoded by the fill gateway, dropped
+ *     as invalid, rejected by the engine, dropped as already received and given up on as never received.</li>
+ *     <li>{@code executor.rejected} - tasks rejected by a task executor, tagged by executor name.</li>
+ *     <li>{@code aum.splits.age} and {@code aum.splits.version} - staleness and version of the current AUM splits.</li>
+ *     <li>{@code positions.publish} and {@code positions.published} - time spent publishing and changes published.</li>
+ *     <li>{@code startup.ready}, {@code startup.warmup} and {@code startup.first.fill} - time from the start of the JVM
+ *     to the application being ready, time spent warming up the allocation path and time from the start of the JVM to
+ *     the first fill allocated.</li>
+ * </ul>
+ * Saturation of the task executors ({@code executor.active}, {@code executor.queued}, ...) is reported by Spring Boot
+ * for every {@code ThreadPoolTaskExecutor} bean.
+ * <p>Recording a fill looks up its ticker counter in a concurrent map and records into the lock-free timer, no
+ * meter is created once every ticker has been seen.
+ */
+@Slf4j
+public final class TradingMetrics {
+
+    private final MeterRegistry registry;
+    private final Timer fillLatency;
+    private final Timer publishTimer;
+    private final Counter publishedPositions;
+    private final ConcurrentHashMap<String, Counter> allocatedFills = new ConcurrentHashMap<>();
+    // System.nanoTime() of the last split update, 0 before the first one
+    private volatile long lastSplitUpdateNanos;
+    private volatile long splitsVersion;
+    // epoch millis the JVM started at
+    private final long jvmStartMillis = ManagementFactory.getRuntimeMXBean().getStartTime();
+    // millis since the JVM started, -1 until recorded
+    private volatile long readyMillis = -1;
+    private volatile long warmupMillis = -1;
+    private volatile long firstFillMillis = -1;
+
+    public TradingMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.fillLatency = Timer.builder("fill.latency")
+                .description("Time from the receipt of a fill to its allocation being applied to the positions")
+                .publishPercentiles(0.5, 0.99, 0.999)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(1_000))
+                .maximumExpectedValue(Duration.ofSeconds(30))
+                .register(registry);
+        this.publishTimer = Timer.builder("positions.publish")
+                .description("Time spent collecting and publishing position changes")
+                .register(registry);
+        this.publishedPositions = Counter.builder("positions.published")
+                .description("Position changes published")
+                .register(registry);
+        Gauge.builder("aum.splits.age", this, TradingMetrics::splitsAgeSeconds)
+                .description("Seconds since the AUM splits were last updated, -1 before the first update")
+                .baseUnit("seconds")
+                .register(registry);
+        Gauge.builder("aum.splits.version", this, metrics -> metrics.splitsVersion)
+                .description("Version of the current AUM splits")
+                .register(registry);
+        Gauge.builder("startup.ready", this, metrics -> seconds(metrics.readyMillis))
+                .description("Seconds from the start of the JVM to the application being ready, -1 before")
+                .baseUnit("seconds")
+                .register(registry);
+        Gauge.builder("startup.warmup", this, metrics -> seconds(metrics.warmupMillis))
+                .description("Seconds spent warming up the allocation path, -1 if it was not warmed up")
+                .baseUnit("seconds")
+                .register(registry);
+        Gauge.builder("startup.first.fill", this, metrics -> seconds(metrics.firstFillMillis))
+                .description("Seconds from the start of the JVM to the first fill allocated, -1 before")
+                .baseUnit("seconds")
+                .register(registry);
+    }
+
+    /**
+     * Registers the queue gauges and counters of every shard of the engine.
+     */
+    public void bindEngine(final AllocationEngine engine) {
+        for (int i = 0; i < engine.getShardCount(); i++) {
+            final int shard = i;
+            String tag = Integer.toString(shard);
+            Gauge.builder("allocation.engine.queue.depth", engine, e -> e.getQueueDepth(shard))
+                    .description("Fills waiting in the ring buffer of the shard")
+                    .tag("shard", tag)
+                    .register(registry);
+            Gauge.builder("allocation.engine.queue.capacity", engine, e -> e.getQueueCapacity(shard))
+                    .description("Slots of the ring buffer of the shard")
+                    .tag("shard", tag)
+                    .register(registry);
+            Gauge.builder("allocation.engine.queue.utilization", engine,
+                            e -> (double) e.getQueueDepth(shard) / e.getQueueCapacity(shard))
+                    .description("Fraction of the ring buffer of the shard in use")
+                    .tag("shard", tag)
+                    .register(registry);
+            FunctionCounter.builder("allocation.engine.processed", engine, e -> e.getProcessedCount(shard))
+                    .description("Fills handed to the allocation handler by the shard")
+                    .tag("shard", tag)
+                    .register(registry);
+        }
+        FunctionCounter.builder("allocation.engine.rejected", engine, AllocationEngine::getRejectedCount)
+                .description("Fills rejected because the engine was stopped or a shard was full")
+                .tag("backpressure", engine.getBackpressureStrategy().name())
+                .register(registry);
+    }
+
+    /**
+     * Registers a breach counter for every kind of breach of the exposure limits.
+     */
+    public void bindLimits(final ExposureLimits limits) {
+        for (ExposureLimits.Breach breach : ExposureLimits.Breach.values()) {
+            FunctionCounter.builder("allocation.limits.breached", limits, l -> l.getBreachCount(breach))
+                    .description("Allocations breaching an exposure limit or selling more shares than held")
+                    .tag("kind", breach.name())
+                    .register(registry);
+        }
+    }
+
+    /**
+     * Registers the message counters of the fill gateway.
+     */
+    public void bindGateway(final FillGateway gateway) {
+        FunctionCounter.builder("gateway.fills.received", gateway, FillGateway::getReceivedCount)
+                .description("Fill messages decoded by the gateway")
+                .register(registry);
+        FunctionCounter.builder("gateway.fills.dropped", gateway, FillGateway::getDroppedCount)
+                .description("Fill messages dropped because of an unknown ticker id or a price out of range")
+                .register(registry);
+        FunctionCounter.builder("gateway.fills.rejected", gateway, FillGateway::getRejectedCount)
+                .description("Fill messages rejected by the allocation engine")
+                .register(registry);
+        FunctionCounter.builder("gateway.fills.duplicate", gateway, FillGateway::getDuplicateCount)
+                .description("Fill messages dropped because their source had already sent them")
+                .register(registry);
+        FunctionCounter.builder("gateway.fills.missing", gateway, FillGateway::getMissingCount)
+                .description("Fill sequences given up on because their message did not arrive in time")
+                .register(registry);
+    }
+
+    /**
+     * @return a handler counting the tasks rejected by the named executor before aborting them like the default policy
+     */
+    public RejectedExecutionHandler countingRejections(final String executorName) {
+        Counter rejected = Counter.builder("executor.rejected")
+                .description("Tasks rejected by the executor")
+                .tag("name", executorName)
+                .register(registry);
+        RejectedExecutionHandler abort = new ThreadPoolExecutor.AbortPolicy();
+        return (task, executor) -> {
+            rejected.increment();
+            abort.rejectedExecution(task, executor);
+        };
+    }
+
+    /**
+     * Records the first {@code count} fills as applied to the positions now, except the fills without a quantity which
+     * the allocator skips.
+     */
+    public void recordAllocated(final Fill[] fills, int count) {
+        long now = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            if (fills[i].getQuantity() == 0) {
+                continue;
+            }
+            if (firstFillMillis < 0) {
+                recordFirstFill();
+            }
+            recordAllocated(fills[i], now);
+        }
+    }
+
+    public void recordAllocated(final Fill fill) {
+        if (firstFillMillis < 0) {
+            recordFirstFill();
+        }
+        recordAllocated(fill, System.nanoTime());
+    }
+
+    private void recordAllocated(final Fill fill, long now) {
+        Counter counter = allocatedFills.get(fill.getStockTicker());
+        if (counter == null) {
+            counter = allocatedFills.computeIfAbsent(fill.getStockTicker(), ticker -> Counter.builder("fills.allocated")
+                    .description("Fills applied to the positions")
+                    .tag("ticker", ticker)
+                    .register(registry));
+        }
+        counter.increment();
+        // fills replayed or built without a receipt time are counted but not timed
+        if (fill.getReceivedNanos() != 0) {
+            fillLatency.record(now - fill.getReceivedNanos(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Records the time to the first fill, shards allocating their first fill together may each record theirs.
+     */
+    private void recordFirstFill() {
+        firstFillMillis = System.currentTimeMillis() - jvmStartMillis;
+        log.info("First fill allocated {} ms after the JVM started", firstFillMillis);
+    }
+
+    /**
+     * Records the application as ready now.
+     *
+     * @param warmupMillis time spent warming up the allocation path, -1 if it was not warmed up
+     */
+    public void recordReady(long warmupMillis) {
+        this.warmupMillis = warmupMillis;
+        this.readyMillis = System.currentTimeMillis() - jvmStartMillis;
+    }
+
+    public void recordSplitUpdate(long version) {
+        this.splitsVersion = version;
+        this.lastSplitUpdateNanos = System.nanoTime();
+    }
+
+    public void recordPublish(int changes, long elapsedNanos) {
+        publishTimer.record(elapsedNanos, TimeUnit.NANOSECONDS);
+        publishedPositions.increment(changes);
+    }
+
+    /**
+     * @return the {@code fill.latency} timer, e.g. to report the latencies of a load run
+     */
+    public Timer getFillLatency() {
+        return fillLatency;
+    }
+
+    /**
+     * @return the millis since the JVM started the application was ready at, -1 before
+     */
+    public long getReadyMillis() {
+        return readyMillis;
+    }
+
+    /**
+     * @return the millis since the JVM started the first fill was allocated at, -1 before
+     */
+    public long getFirstFillMillis() {
+        return firstFillMillis;
+    }
+
+    private static double seconds(long millis) {
+        return millis < 0 ? -1 : millis / 1e3;
+    }
+
+    private double splitsAgeSeconds() {
+        long last = lastSplitUpdateNanos;
+        return last == 0 ? -1 : (System.nanoTime() - last) / 1e9;
+    }
+}
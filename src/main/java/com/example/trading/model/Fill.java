@@ -14,8 +14,48 @@ import lombok.ToString;
 public class Fill {
 
     private String stockTicker;
-    private double price;
+    // price in ticks, see Prices
+    @ToString.Exclude
+    private long priceTicks;
     private int quantity;
+    // System.nanoTime() when the fill was received, 0 if unknown
+    @ToString.Exclude
+    private long receivedNanos;
+    // id of the upstream source numbering the fill
+    private int sourceId;
+    // position of the fill in its source's stream starting at 1, 0 for a fill without a sequence
+    private long sequence;
+    // epoch millis when the fill was executed, selects the AUM splits it is allocated against, 0 for the current ones
+    @ToString.Exclude
+    private long executedAtMillis;
 
+    public Fill(String stockTicker, double price, int quantity) {
+        this(stockTicker, Prices.toTicks(price), quantity, 0);
+    }
 
+    public Fill(String stockTicker, long priceTicks, int quantity, long receivedNanos) {
+        this(stockTicker, priceTicks, quantity, receivedNanos, 0, 0);
+    }
+
+    public Fill(String stockTicker, long priceTicks, int quantity, long receivedNanos, int sourceId, long sequence) {
+        this(stockTicker, priceTicks, quantity, receivedNanos, sourceId, sequence, 0);
+    }
+
+    @ToString.Include(name = "price")
+    public double getPrice() {
+        return Prices.toDouble(priceTicks);
+    }
+
+    /**
+     * Overwrites this fill with the values of another one, used to reuse pre-allocated fill instances.
+     */
+    public void copyFrom(final Fill other) {
+        this.stockTicker = other.stockTicker;
+        this.priceTicks = other.priceTicks;
+        this.quantity = other.quantity;
+        this.receivedNanos = other.receivedNanos;
+        this.sourceId = other.sourceId;
+        this.sequence = other.sequence;
+        this.executedAtMillis = other.executedAtMillis;
+    }
 }
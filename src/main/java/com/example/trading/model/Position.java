@@ -6,6 +6,9 @@ import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
 
+/**
+ * One account's position in a stock ticker. Amounts are in price ticks, see {@link Prices}.
+ */
 @NoArgsConstructor
 @AllArgsConstructor
 @Getter
@@ -15,5 +18,25 @@ public class Position {
 
     private String stockTicker;
     private int quantity;
-    private double totalValue;
+    // quantity marked at the price of the last fill that updated the position
+    private long totalValueTicks;
+    // amount paid for the quantity held
+    private long costBasisTicks;
+    private long realizedPnlTicks;
+
+    public double getTotalValue() {
+        return Prices.toDouble(totalValueTicks);
+    }
+
+    public double getAverageCost() {
+        return quantity == 0 ? 0.0 : Prices.toDouble(costBasisTicks) / quantity;
+    }
+
+    public double getUnrealizedPnl() {
+        return Prices.toDouble(totalValueTicks - costBasisTicks);
+    }
+
+    public double getRealizedPnl() {
+        return Prices.toDouble(realizedPnlTicks);
+    }
 }
@@ -0,0 +1,26 @@
+package com.example.trading.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * The new state of one account position that changed since the previous publish, a quantity of 0 closes the position.
+ * Amounts are in price ticks, see {@link Prices}.
+ */
+@AllArgsConstructor
+@Getter
+@ToString
+public class PositionDelta {
+
+    private final String account;
+    private final String stockTicker;
+    private final int quantity;
+    private final long totalValueTicks;
+    private final long costBasisTicks;
+    private final long realizedPnlTicks;
+
+    public double getTotalValue() {
+        return Prices.toDouble(totalValueTicks);
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.trading.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * The aggregate of the open positions of one account or one stock ticker. Amounts are in price ticks, see
+ * {@link Prices}.
+ */
+@AllArgsConstructor
+@Getter
+@ToString
+public class PositionTotals {
+
+    // account or stock ticker
+    private final String name;
+    // tickers held by the account, or accounts holding the ticker
+    private final int positionCount;
+    private final long grossQuantity;
+    private final long netQuantity;
+    private final long notionalTicks;
+
+    public double getNotional() {
+        return Prices.toDouble(notionalTicks);
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.trading.model;
+
+/**
+ * Fixed-point prices and notionals.
+ *
+ * <p>Prices, position values, cost bases and P&L are {@code long}s counting ticks of {@code 10^-SCALE}, so 150.25 is
+ * 1502500 ticks. A notional is a quantity times a price in ticks, exact as long as it stays below about 9.2e14 units,
+ * and adding or comparing notionals never rounds. Doubles are only used at the edges, to read a price typed in a test
+ * or a config and to display values.
+ */
+public final class Prices {
+
+    // decimals of a tick
+    public static final int SCALE = 4;
+    public static final long TICKS_PER_UNIT = 10_000;
+
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L, 1_000_000_000L,
+            10_000_000_000L, 100_000_000_000L, 1_000_000_000_000L, 10_000_000_000_000L, 100_000_000_000_000L,
+            1_000_000_000_000_000L, 10_000_000_000_000_000L, 100_000_000_000_000_000L, 1_000_000_000_000_000_000L
+    };
+
+    private Prices() {
+    }
+
+    /**
+     * @return the price rounded to the nearest tick
+     */
+    public static long toTicks(double price) {
+        return Math.round(price * TICKS_PER_UNIT);
+    }
+
+    public static double toDouble(long ticks) {
+        return ticks / (double) TICKS_PER_UNIT;
+    }
+
+    /**
+     * Converts a price counted in ticks of {@code 10^-scale} to ticks, rounding half up when {@code scale} is finer
+     * than {@link #SCALE}.
+     *
+     * @throws IllegalArgumentException if the scale is not between 0 and 18
+     * @throws ArithmeticException      if the price does not fit in a long
+     */
+    public static long rescale(long ticks, int scale) {
+        if (scale < 0 || scale >= POWERS_OF_TEN.length) {
+            throw new IllegalArgumentException("Price scale must be between 0 and " + (POWERS_OF_TEN.length - 1) + ", was " + scale);
+        }
+        if (scale == SCALE) {
+            return ticks;
+        }
+        if (scale < SCALE) {
+            return Math.multiplyExact(ticks, POWERS_OF_TEN[SCALE - scale]);
+        }
+        long divisor = POWERS_OF_TEN[scale - SCALE];
+        return Math.floorDiv(ticks + divisor / 2, divisor);
+    }
+
+    /**
+     * @return {@code amount * part / whole} rounded toward zero, without overflowing for any amount as long as
+     * {@code 0 <= part <= whole}
+     */
+    public static long prorate(long amount, int part, int whole) {
+        return amount / whole * part + amount % whole * part / whole;
+    }
+
+    /**
+     * Appends the ticks as a decimal number with at least one fractional digit, e.g. {@code 150.0} or
+     * {@code 150.1234}, without creating any object.
+     */
+    public static StringBuilder appendTo(final StringBuilder builder, long ticks) {
+        if (ticks < 0) {
+            builder.append('-');
+            ticks = -ticks;
+        }
+        builder.append(ticks / TICKS_PER_UNIT).append('.');
+        long fraction = ticks % TICKS_PER_UNIT;
+        if (fraction == 0) {
+            return builder.append('0');
+        }
+        int digits = SCALE;
+        while (fraction % 10 == 0) {
+            fraction /= 10;
+            digits--;
+        }
+        for (long power = POWERS_OF_TEN[digits - 1]; power > fraction; power /= 10) {
+            builder.append('0');
+        }
+        return builder.append(fraction);
+    }
+
+    public static String toString(long ticks) {
+        return appendTo(new StringBuilder(24), ticks).toString();
+    }
+}
@@ -1,4 +1,6 @@
 package com.example.trading.service;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
@@ -11,8 +13,10 @@ import java.util.Random;
  * The {@code AUMServerService} class provides functionality to generate random
  * AUM splits for a specified number of accounts.
  * The splits are generated in such a way that they sum up to exactly 100%.
+ * After every update the existing positions are rebalanced to the new splits when a {@link RebalanceService} is configured.
  * <p>Note: app.trading.account.size can be used to configure the number of accounts for which the splits have to be generated
  */
+@Slf4j
 @Service
 public class AUMServerService {
 
@@ -20,22 +24,30 @@ public class AUMServerService {
     @Value("${app.trading.account.size:3}")
     private int accountCount;
     private final AllocationServerService allocationServerService;
+    // null when positions are not rebalanced
+    private final RebalanceService rebalanceService;
 
-    public AUMServerService(AllocationServerService allocationServerService) {
+    public AUMServerService(AllocationServerService allocationServerService,
+                            ObjectProvider<RebalanceService> rebalanceService) {
         this.allocationServerService = allocationServerService;
+        this.rebalanceService = rebalanceService.getIfAvailable();
     }
 
     @Async("aumServerExecutor")
     public void simulateAUMSplits() {
-        while (true) {
+        while (!Thread.currentThread().isInterrupted()) {
+            Map<String, Double> aumSplits = generateRandomAUMSplits();
+            allocationServerService.updateAUMSplits(aumSplits);
+            if (rebalanceService != null) {
+                rebalanceService.requestRebalance();
+            }
             try {
-                Map<String, Double> aumSplits = generateRandomAUMSplits();
-                allocationServerService.updateAUMSplits(aumSplits);
                 Thread.sleep(30000); // Update every 30 seconds
             } catch (InterruptedException e) {
-                e.printStackTrace();
+                Thread.currentThread().interrupt();
             }
         }
+        log.info("AUM splits simulation interrupted");
     }
 
     /**
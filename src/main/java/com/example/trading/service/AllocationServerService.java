@@ -1,13 +1,34 @@
 package com.example.trading.service;
 
+import com.example.trading.allocation.AllocationPlan;
+import com.example.trading.allocation.BatchAllocationResult;
+import com.example.trading.allocation.ExposureLimits;
+import com.example.trading.allocation.PlanHistory;
+import com.example.trading.allocation.RebalancePlanner;
+import com.example.trading.book.LotRelief;
+import com.example.trading.book.PositionBook;
+import com.example.trading.journal.FillJournal;
+import com.example.trading.journal.JournalListener;
+import com.example.trading.journal.PositionCheckpointer;
+import com.example.trading.metrics.TradingMetrics;
 import com.example.trading.model.Fill;
 import com.example.trading.model.Position;
-import org.springframework.scheduling.annotation.Async;
+import com.example.trading.model.Prices;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The {@code AllocationServerService} class is responsible for managing and procesing stock allocations based on trade fills and account splits.
@@ -22,132 +43,741 @@ import java.util.concurrent.ConcurrentHashMap;
  *     <li>Maintaining and updating account positions</li>
  *     <li>Handling discrepencies during allocation and selling </li>
  * </ul>
+ *
+ * <p>Positions are kept in a {@link PositionBook} of primitive arrays and the allocated shares are computed into a
+ * per-thread scratch array, so allocating a fill does not create any garbage once accounts and tickers are known.
+ * Prices are fixed-point {@link Prices} ticks, values, cost bases and realized P&L are computed with exact long math.
+ * AUM splits are compiled into an immutable {@link AllocationPlan} stamped with the time it takes effect, and
+ * published with a single volatile write of a new {@link PlanHistory} holding the latest plans. A fill is allocated
+ * entirely against the plan in effect at its execution time, so a fill racing with a split update is allocated against
+ * the same splits however late it is processed, and fills without an execution time against the latest plan. The
+ * version of the plan is returned, logged and journaled with every allocation.
+ *
+ * <p>Bursts of fills can be allocated with {@link #allocateFills(Fill[], int)}, consecutive fills of the same ticker,
+ * side, plan and price can be netted into a single allocation.
+ * <p>When a {@link FillJournal} is configured every split update and every allocation (a fill, or the netted group of
+ * fills of a batch) is journaled with the plan version it was allocated against, and the positions are rebuilt from
+ * the journal on startup. With a {@link PositionCheckpointer} the positions are checkpointed periodically and startup
+ * only replays the journal records written after the latest checkpoint.
+ * <p>Every allocation is logged as one compact event on the {@code allocation.events} logger, e.g.
+ * {@code ticker=AAPL qty=10 price=150.0 plan=3 seq=42 alloc=Account1:6,Account2:4}, built in a per-thread buffer
+ * only when that logger is enabled.
+ * <p>With {@link TradingMetrics} every allocated fill is counted per ticker and its receipt-to-applied latency is
+ * recorded, and split updates are tracked so the age of the current splits can be monitored.
+ * <p>Positions allocated under older splits are brought in line with the current ones by
+ * {@link #rebalance(int, AllocationPlan)}, which moves the shares of one ticker between accounts on the row's writer.
+ * <p>Sells relieve the average cost of the positions unless another {@link LotRelief} method is configured, tax lots
+ * are then kept per account and ticker and sold in that order. An account never sells more than it holds: the shares
+ * lost to rounding or not held by an account are sold by the accounts still holding some, highest split first, and
+ * shares none of them hold are reported as oversold.
+ * <p>Every position updated is checked against the {@link ExposureLimits} of its account in the same pass, breaches
+ * are reported without changing the allocation.
+ * <p>Note: allocation.batch.netting can be used to enable netting within a batch, position.lots.relief to choose the
+ * lot relief method, aum.splits.historySize to set the number of plans kept for fills executed before the latest one,
+ * limits.position.maxQuantity, limits.position.maxNotional and limits.account.maxNotional to set the exposure limits of
+ * every account
  */
+@Slf4j
 @Service
 public class AllocationServerService {
 
-    private final Map<String, Map<String, Position>> accountPositions = new ConcurrentHashMap<>();
-    private Map<String, Double> currentAUMSplits = new ConcurrentHashMap<>();
+    private static final Logger ALLOCATION_EVENTS = LoggerFactory.getLogger("allocation.events");
+
+    private final PositionBook positionBook = new PositionBook();
+    private final ExposureLimits exposureLimits = new ExposureLimits(positionBook);
+    // null when journaling is disabled
+    private final FillJournal fillJournal;
+    // null when checkpoints are disabled
+    private final PositionCheckpointer positionCheckpointer;
+    // null when metrics are not configured
+    private TradingMetrics tradingMetrics;
+    // replaced on every split update, fills executed before it are still allocated against the plans it keeps
+    private volatile PlanHistory planHistory = PlanHistory.EMPTY;
+    // working arrays reused by every fill allocated on the same thread
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+    @Value("${allocation.batch.netting:false}")
+    private boolean batchNetting;
+    @Value("${checkpoint.intervalSeconds:60}")
+    private long checkpointIntervalSeconds = 60;
+    @Value("${aum.splits.historySize:64}")
+    private int planHistorySize = 64;
+    // false for an instance whose allocations are not real, e.g. warming up
+    private boolean eventsLogged = true;
 
-    public void updateAUMSplits(Map<String, Double> newAUMSplits) {
-        System.out.println("Obtained new AUM splits: " + newAUMSplits);
-        this.currentAUMSplits = new ConcurrentHashMap<>(newAUMSplits);
+    public AllocationServerService() {
+        this.fillJournal = null;
+        this.positionCheckpointer = null;
     }
 
-    @Async("allocationServerExecutor")
-    public void allocateFill(final Fill fill) {
-        System.out.println("Processing fill: " + fill);
+    @Autowired
+    public AllocationServerService(ObjectProvider<FillJournal> fillJournal,
+                                   ObjectProvider<PositionCheckpointer> positionCheckpointer) {
+        this.fillJournal = fillJournal.getIfAvailable();
+        this.positionCheckpointer = this.fillJournal == null ? null : positionCheckpointer.getIfAvailable();
+    }
 
-        if (currentAUMSplits == null || currentAUMSplits.isEmpty()) {
-            System.err.println("No AUM splits available. Cannot allocate trade.");
+    @Autowired(required = false)
+    public void setTradingMetrics(TradingMetrics tradingMetrics) {
+        this.tradingMetrics = tradingMetrics;
+        tradingMetrics.bindLimits(exposureLimits);
+    }
+
+    /**
+     * Sets the exposure limits of every account without limits of its own, 0 for none.
+     *
+     * @param maxPositionNotional notional of a position in currency units
+     * @param maxAccountNotional  notional of all the positions of an account in currency units
+     */
+    @Autowired
+    public void setExposureLimits(@Value("${limits.position.maxQuantity:0}") long maxPositionQuantity,
+                                  @Value("${limits.position.maxNotional:0}") double maxPositionNotional,
+                                  @Value("${limits.account.maxNotional:0}") double maxAccountNotional) {
+        exposureLimits.setDefaultLimits(maxPositionQuantity, Prices.toTicks(maxPositionNotional),
+                Prices.toTicks(maxAccountNotional));
+    }
+
+    /**
+     * Sets the exposure limits of one account, same units as {@link #setExposureLimits(long, double, double)}, 0 keeps
+     * the default.
+     */
+    public void setAccountLimits(String account, long maxPositionQuantity, double maxPositionNotional,
+                                 double maxAccountNotional) {
+        exposureLimits.setAccountLimits(positionBook.accountId(account), maxPositionQuantity,
+                Prices.toTicks(maxPositionNotional), Prices.toTicks(maxAccountNotional));
+    }
+
+    /**
+     * Rebuilds the AUM splits and positions from the latest checkpoint and the journal records written after it,
+     * before any new fill is accepted, then starts the periodic checkpoints.
+     */
+    @PostConstruct
+    public void recoverFromJournal() {
+        if (fillJournal == null) {
             return;
         }
-        if (fill.getQuantity() == 0) {
+        Map<Long, AllocationPlan> plans = new HashMap<>();
+        // fills waiting for the next fill record of their ticker to be allocated with it as one quantity
+        Map<String, NettedFills> nettedFills = new HashMap<>();
+        long start = System.nanoTime();
+        // the fills replayed were checked when they were first allocated
+        exposureLimits.pause();
+        try {
+            long fromSequence = 0;
+            PositionCheckpointer.Checkpoint checkpoint = positionCheckpointer == null ? null : positionCheckpointer.load(positionBook);
+            if (checkpoint != null) {
+                for (AllocationPlan plan : checkpoint.getPlans()) {
+                    plans.put(plan.getVersion(), plan);
+                    publish(plan);
+                }
+                fromSequence = checkpoint.getJournalSequence() + 1;
+            }
+            long replayed = fillJournal.replay(fromSequence, new JournalListener() {
+                @Override
+                public void onSplits(long sequence, long planVersion, long effectiveFromMillis,
+                                     Map<String, Double> aumSplits) {
+                    // records written before split times were journaled take effect with the previous plan
+                    AllocationPlan plan = AllocationPlan.compile(aumSplits, positionBook, planVersion,
+                            Math.max(effectiveFromMillis, planHistory.latest().getEffectiveFromMillis()));
+                    plans.put(planVersion, plan);
+                    publish(plan);
+                }
+
+                @Override
+                public void onNettedFill(long sequence, long planVersion, String stockTicker, long priceTicks, int quantity) {
+                    NettedFills netted = nettedFills.computeIfAbsent(stockTicker, ticker -> new NettedFills());
+                    netted.add(sequence, planVersion, priceTicks, quantity);
+                }
+
+                @Override
+                public void onFill(long sequence, long planVersion, String stockTicker, long priceTicks, int quantity) {
+                    NettedFills netted = nettedFills.remove(stockTicker);
+                    replayFill(plans, sequence, planVersion, stockTicker, priceTicks,
+                            netted == null ? quantity : netted.quantity + quantity);
+                }
+
+                @Override
+                public void onRebalance(long sequence, long planVersion, String stockTicker) {
+                    AllocationPlan plan = plans.get(planVersion);
+                    if (plan == null) {
+                        log.warn("Journal record {} refers to unknown AUM splits version {}", sequence, planVersion);
+                        return;
+                    }
+                    PositionBook.Row row = positionBook.row(positionBook.tickerId(stockTicker));
+                    if (sequence <= row.getJournalSequence()) {
+                        return;
+                    }
+                    RebalancePlanner planner = scratch.get().rebalancePlanner;
+                    row.beginWrite();
+                    try {
+                        planner.plan(plan, row, positionBook.getAccounts().size());
+                        applyTransfers(planner, row);
+                        row.setJournalSequence(sequence);
+                    } finally {
+                        row.endWrite();
+                    }
+                }
+            });
+            // a crash between the records of a netted group leaves its first fills without the last one
+            nettedFills.forEach((stockTicker, netted) -> {
+                log.warn("Journal ends within a netted group of {} {} shares, allocating them", stockTicker, netted.quantity);
+                replayFill(plans, netted.sequence, netted.planVersion, stockTicker, netted.priceTicks, netted.quantity);
+            });
+            log.info("Recovered checkpoint {} and {} journal records in {} ms",
+                    checkpoint == null ? "none" : checkpoint.getJournalSequence(), replayed, (System.nanoTime() - start) / 1_000_000);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not replay the fill journal", e);
+        } finally {
+            exposureLimits.resume();
+        }
+        if (positionCheckpointer != null) {
+            positionCheckpointer.start(this::checkpoint, checkpointIntervalSeconds);
+        }
+    }
+
+    private void replayFill(final Map<Long, AllocationPlan> plans, long sequence, long planVersion,
+                            final String stockTicker, long priceTicks, int quantity) {
+        AllocationPlan plan = plans.get(planVersion);
+        if (plan == null) {
+            log.warn("Journal record {} refers to unknown AUM splits version {}", sequence, planVersion);
             return;
         }
-        if (fill.getQuantity() > 0) {
-            handleBuyFill(fill);
-        } else {
-            handleSellFill(fill);
+        PositionBook.Row row = positionBook.row(positionBook.tickerId(stockTicker));
+        // the checkpoint copy of the row may already contain fills journaled after the checkpoint, with every fill
+        // netted with them
+        if (sequence <= row.getJournalSequence()) {
+            return;
+        }
+        row.beginWrite();
+        try {
+            allocate(plan, row, quantity, priceTicks);
+            row.setJournalSequence(sequence);
+        } finally {
+            row.endWrite();
+        }
+    }
+
+    /**
+     * Writes a checkpoint of the rows changed since the last one, allocation threads are not stopped while it is written.
+     *
+     * @return false if checkpoints are disabled or nothing changed
+     */
+    public boolean checkpoint() {
+        if (positionCheckpointer == null) {
+            return false;
+        }
+        long journalSequence;
+        List<AllocationPlan> plans;
+        // split updates are journaled under the same lock, so the plans match the journal sequence
+        synchronized (this) {
+            journalSequence = fillJournal.lastSequence();
+            plans = planHistory.getPlans();
+        }
+        try {
+            return positionCheckpointer.checkpoint(positionBook, journalSequence, plans);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write the position checkpoint", e);
+        }
+    }
+
+    /**
+     * Compiles the splits into a new {@link AllocationPlan} taking effect now, fills executed from now on are allocated
+     * against it. Fills executed earlier are still allocated against the plan in effect then.
+     */
+    public synchronized void updateAUMSplits(Map<String, Double> newAUMSplits) {
+        updateAUMSplits(newAUMSplits, planHistory.latest().getVersion() + 1);
+    }
+
+    /**
+     * Publishes the splits under a version assigned by the caller, taking effect now.
+     *
+     * @return false if the splits were ignored
+     * @see #updateAUMSplits(Map, long, long)
+     */
+    public synchronized boolean updateAUMSplits(Map<String, Double> newAUMSplits, long version) {
+        return updateAUMSplits(newAUMSplits, version, System.currentTimeMillis());
+    }
+
+    /**
+     * Publishes the splits under a version and effective time assigned by the caller, e.g. splits replicated to every
+     * node of a cluster. Splits with a version not above the current one are ignored, so an update may be delivered
+     * more than once or out of order. Splits cannot take effect before the current ones, an earlier time is moved up
+     * to theirs so that the history stays in time order.
+     *
+     * @param effectiveFromMillis epoch millis from which fills are allocated against the splits
+     * @return false if the splits were ignored
+     */
+    public synchronized boolean updateAUMSplits(Map<String, Double> newAUMSplits, long version, long effectiveFromMillis) {
+        AllocationPlan latest = planHistory.latest();
+        if (version <= latest.getVersion()) {
+            log.info("Ignored AUM splits version {}, already on version {}", version, latest.getVersion());
+            return false;
+        }
+        log.info("Obtained new AUM splits version {} effective from {}: {}", version, effectiveFromMillis, newAUMSplits);
+        AllocationPlan plan = AllocationPlan.compile(newAUMSplits, positionBook, version,
+                Math.max(effectiveFromMillis, latest.getEffectiveFromMillis()));
+        if (fillJournal != null) {
+            fillJournal.appendSplits(newAUMSplits, plan.getVersion(), plan.getEffectiveFromMillis());
+        }
+        publish(plan);
+        if (tradingMetrics != null) {
+            tradingMetrics.recordSplitUpdate(plan.getVersion());
+        }
+        return true;
+    }
+
+    private synchronized void publish(final AllocationPlan plan) {
+        this.planHistory = planHistory.with(plan, planHistorySize);
+    }
+
+    /**
+     * Allocates the fill on the calling thread against the plan in effect at its execution time. Concurrent callers
+     * must not allocate fills of the same ticker at the same time, live fills are therefore routed through the
+     * {@link com.example.trading.engine.AllocationEngine} which owns every ticker on a single shard thread.
+     *
+     * @return the version of the plan the fill was allocated against, 0 if it was not allocated
+     */
+    public long allocateFill(final Fill fill) {
+        log.debug("Processing fill: {}", fill);
+
+        AllocationPlan plan = planHistory.planAt(fill.getExecutedAtMillis());
+        if (plan.isEmpty()) {
+            log.warn("No AUM splits available. Cannot allocate trade.");
+            return 0;
+        }
+        if (fill.getQuantity() == 0) {
+            return 0;
+        }
+        allocate(plan, positionBook.row(positionBook.tickerId(fill.getStockTicker())), fill.getQuantity(),
+                fill.getPriceTicks(), fill.getStockTicker(), null, -1);
+        if (tradingMetrics != null) {
+            tradingMetrics.recordAllocated(fill);
+        }
+        return plan.getVersion();
+    }
+
+    public BatchAllocationResult allocateFills(final List<Fill> fills) {
+        return allocateFills(fills.toArray(new Fill[0]), fills.size());
+    }
+
+    public BatchAllocationResult allocateFills(final Fill[] fills) {
+        return allocateFills(fills, fills.length);
+    }
+
+    /**
+     * Allocates the first {@code count} fills, each against the plan in effect at its execution time, same threading
+     * rules as {@link #allocateFill(Fill)}. The plans are looked up in one history, a split update during the batch
+     * only applies to the next one.
+     *
+     * <p>Fills are grouped per ticker keeping their order. When netting is enabled a fill with the same side, plan and
+     * price as the previous fill of its ticker in the batch is added to that fill's allocation, so the cost basis and lots
+     * are booked at the price actually paid. A fill of the opposite side is never netted, so sells are still checked
+     * against the quantity held at that point. A netted group is rounded as one quantity, the shares of each account
+     * then depend on how the fills were batched: netting is off by default for allocations that must be reproducible.
+     * Every fill of a group is still journaled on its own, marked as netted with the next one, so that replay rounds the
+     * group the same way.
+     */
+    public BatchAllocationResult allocateFills(final Fill[] fills, int count) {
+        long start = System.nanoTime();
+        PlanHistory history = planHistory;
+        if (history.isEmpty()) {
+            if (count > 0) {
+                log.warn("No AUM splits available. Cannot allocate {} trades.", count);
+            }
+            return new BatchAllocationResult(count, 0, 0, count, 0, 0, System.nanoTime() - start);
+        }
+        Scratch batch = scratch.get();
+        batch.net(fills, count, positionBook, history, batchNetting);
+        long oldestPlanVersion = Long.MAX_VALUE;
+        long newestPlanVersion = 0;
+        for (int i = 0; i < batch.groupCount; i++) {
+            AllocationPlan plan = batch.groupPlans[i];
+            allocate(plan, positionBook.row(batch.groupTickers[i]), batch.groupQuantities[i], batch.groupPrices[i],
+                    positionBook.getTickers().nameOf(batch.groupTickers[i]), batch, i);
+            oldestPlanVersion = Math.min(oldestPlanVersion, plan.getVersion());
+            newestPlanVersion = Math.max(newestPlanVersion, plan.getVersion());
+        }
+        // the plans are only needed during the batch
+        Arrays.fill(batch.groupPlans, 0, batch.groupCount, null);
+        if (tradingMetrics != null) {
+            tradingMetrics.recordAllocated(fills, count);
+        }
+        int nettedFills = count - batch.skippedFills - batch.groupCount;
+        return new BatchAllocationResult(count, batch.groupCount, nettedFills, batch.skippedFills,
+                batch.groupCount == 0 ? 0 : oldestPlanVersion, newestPlanVersion, System.nanoTime() - start);
+    }
+
+    /**
+     * Moves shares between the accounts holding the ticker so that each one holds its share of the ticker under the
+     * plan, see {@link RebalancePlanner}. Shares are crossed at the mark price of the account giving them, which
+     * realizes its P&L on them, and the rebalancing is journaled so that replay moves the same shares. Same threading
+     * rules as {@link #allocateFill(Fill)}.
+     *
+     * @return the number of transfers, 0 if the row was in line or the plan is no longer the current one
+     */
+    public int rebalance(int tickerId, final AllocationPlan plan) {
+        if (plan != planHistory.latest() || plan.isEmpty()) {
+            return 0;
         }
-        System.out.println("Updated account positions: " + accountPositions);
+        PositionBook.Row row = positionBook.row(tickerId);
+        RebalancePlanner planner = scratch.get().rebalancePlanner;
+        if (planner.plan(plan, row, positionBook.getAccounts().size()) == 0) {
+            return 0;
+        }
+        String stockTicker = positionBook.getTickers().nameOf(tickerId);
+        row.beginWrite();
+        try {
+            if (fillJournal != null) {
+                row.setJournalSequence(fillJournal.appendRebalance(stockTicker, plan.getVersion()));
+            }
+            applyTransfers(planner, row);
+        } finally {
+            row.endWrite();
+        }
+        if (eventsLogged && ALLOCATION_EVENTS.isInfoEnabled()) {
+            logRebalance(plan, row, stockTicker, planner);
+        }
+        return planner.getTransferCount();
     }
 
-    private void handleBuyFill(final Fill fill) {
-        int totalQuantity = Math.abs(fill.getQuantity());
-        // Calculate allocated shares per account
-        Map<String, Integer> allocatedShares = new ConcurrentHashMap<>();
-        int totalAllocatedShares = 0;
+    private void applyTransfers(final RebalancePlanner planner, final PositionBook.Row row) {
+        for (int i = 0; i < planner.getTransferCount(); i++) {
+            int from = planner.fromAccount(i);
+            int to = planner.toAccount(i);
+            int fromQuantity = row.getQuantity(from);
+            long fromValue = row.getTotalValue(from);
+            long priceTicks = fromValue / fromQuantity;
+            row.update(from, fromQuantity - planner.quantity(i), priceTicks);
+            exposureLimits.onUpdate(row, from, fromQuantity, fromValue);
+            int toQuantity = row.getQuantity(to);
+            long toValue = row.getTotalValue(to);
+            row.update(to, toQuantity + planner.quantity(i), priceTicks);
+            exposureLimits.onUpdate(row, to, toQuantity, toValue);
+        }
+    }
 
-        for (Map.Entry<String, Double> entry : currentAUMSplits.entrySet()) {
-            String account = entry.getKey();
-            double percentage = entry.getValue();
-            int allocatedQuantity = (int) Math.floor(totalQuantity * (percentage / 100));
-            allocatedShares.put(account, allocatedQuantity);
-            totalAllocatedShares += allocatedQuantity;
+    private void logRebalance(final AllocationPlan plan, final PositionBook.Row row, final String stockTicker,
+                              final RebalancePlanner planner) {
+        StringBuilder event = scratch.get().event;
+        event.setLength(0);
+        event.append("rebalance ticker=").append(stockTicker)
+                .append(" plan=").append(plan.getVersion());
+        if (fillJournal != null) {
+            event.append(" seq=").append(row.getJournalSequence());
+        }
+        event.append(" moves=");
+        for (int i = 0; i < planner.getTransferCount(); i++) {
+            if (i > 0) {
+                event.append(',');
+            }
+            event.append(positionBook.getAccounts().nameOf(planner.fromAccount(i))).append('>')
+                    .append(positionBook.getAccounts().nameOf(planner.toAccount(i))).append(':')
+                    .append(planner.quantity(i));
         }
+        ALLOCATION_EVENTS.info(event.toString());
+    }
 
-        // Adjust the allocated shares to ensure they sum to totalQuantity
-        int difference = totalQuantity - totalAllocatedShares;
-        if (difference != 0) {
-            // distributing the difference to the account with the highest split
-            String highestSplitAccount = this.getHighestSplitAccount();
-            if (highestSplitAccount != null) {
-                allocatedShares.put(highestSplitAccount, allocatedShares.get(highestSplitAccount) + difference);
+    /**
+     * Journals and allocates one fill, or the netted group {@code group} of the batch if there is one, inside the row's
+     * write section, so that a checkpoint copying the row either sees both or neither.
+     */
+    private void allocate(final AllocationPlan plan, final PositionBook.Row row, int quantity, long priceTicks,
+                          final String stockTicker, final Scratch batch, int group) {
+        row.beginWrite();
+        try {
+            if (fillJournal != null) {
+                row.setJournalSequence(batch == null
+                        ? fillJournal.appendFill(stockTicker, priceTicks, quantity, plan.getVersion())
+                        : journalGroup(plan, stockTicker, priceTicks, batch, group));
             }
+            allocate(plan, row, quantity, priceTicks);
+        } finally {
+            row.endWrite();
         }
-        this.updateBuyAllocationOnPositions(allocatedShares, fill);
+        if (eventsLogged && ALLOCATION_EVENTS.isInfoEnabled()) {
+            logAllocation(plan, row, stockTicker, quantity, priceTicks);
+        }
+    }
 
+    /**
+     * Journals every fill of a netted group, all but the last one as netted with the next.
+     *
+     * @return the sequence of the last fill
+     */
+    private long journalGroup(final AllocationPlan plan, final String stockTicker, long priceTicks, final Scratch batch,
+                              int group) {
+        int fill = batch.groupFirstFill[group];
+        while (batch.nextFill[fill] >= 0) {
+            fillJournal.appendNettedFill(stockTicker, priceTicks, batch.fillQuantities[fill], plan.getVersion());
+            fill = batch.nextFill[fill];
+        }
+        return fillJournal.appendFill(stockTicker, priceTicks, batch.fillQuantities[fill], plan.getVersion());
     }
 
-    private void updateBuyAllocationOnPositions(final Map<String, Integer> allocatedShares, final Fill fill) {
-        for (Map.Entry<String, Integer> entry : allocatedShares.entrySet()) {
-            String account = entry.getKey();
-            int allocatedQuantity = entry.getValue();
-            accountPositions.computeIfAbsent(account, k -> new ConcurrentHashMap<>());
-            Position position = accountPositions.get(account).computeIfAbsent(fill.getStockTicker(), k -> new Position(fill.getStockTicker(), 0, 0.0));
-            position.setQuantity(position.getQuantity() + allocatedQuantity);
-            position.setTotalValue(position.getQuantity() * fill.getPrice());
+    private void logAllocation(final AllocationPlan plan, final PositionBook.Row row, final String stockTicker,
+                               int quantity, long priceTicks) {
+        Scratch thread = scratch.get();
+        StringBuilder event = thread.event;
+        event.setLength(0);
+        event.append("ticker=").append(stockTicker)
+                .append(" qty=").append(quantity)
+                .append(" price=");
+        Prices.appendTo(event, priceTicks)
+                .append(" plan=").append(plan.getVersion());
+        if (fillJournal != null) {
+            event.append(" seq=").append(row.getJournalSequence());
+        }
+        event.append(" alloc=");
+        int sign = quantity > 0 ? 1 : -1;
+        for (int i = 0; i < plan.size(); i++) {
+            if (i > 0) {
+                event.append(',');
+            }
+            event.append(positionBook.getAccounts().nameOf(plan.accountId(i))).append(':').append(sign * thread.shares[i]);
         }
+        // the buffer is reused, appenders must not see it change after the call
+        ALLOCATION_EVENTS.info(event.toString());
     }
 
-    private void handleSellFill(final Fill fill) {
-        int totalQuantity = Math.abs(fill.getQuantity());
-        Map<String, Integer> reducedShares = new ConcurrentHashMap<>();
-        int totalReducedShares = 0;
+    private void allocate(final AllocationPlan plan, final PositionBook.Row row, int quantity, long priceTicks) {
+        int[] shares = scratch.get().shares(plan.size());
+        if (quantity > 0) {
+            handleBuyFill(quantity, priceTicks, plan, row, shares);
+        } else {
+            handleSellFill(quantity, priceTicks, plan, row, shares);
+        }
+    }
 
-        for (Map.Entry<String, Double> entry : currentAUMSplits.entrySet()) {
-            String account = entry.getKey();
-            double percentage = entry.getValue();
-            accountPositions.computeIfAbsent(account, k -> new ConcurrentHashMap<>());
-            Position position = accountPositions.get(account).get(fill.getStockTicker());
-            int currentQuantity = (position != null) ? position.getQuantity() : 0;
-            int reductionQuantity = (int) Math.floor(totalQuantity * (percentage / 100));
+    private void handleBuyFill(int fillQuantity, long priceTicks, final AllocationPlan plan, final PositionBook.Row row,
+                               final int[] allocatedShares) {
+        // Calculate allocated shares per account, rounding differences go to the highest splits first
+        plan.allocate(Math.abs(fillQuantity), allocatedShares);
+        this.updateBuyAllocationOnPositions(allocatedShares, plan, row, priceTicks);
+    }
 
-            // checking the quantity is not more than existing quantity held by the account
-            reductionQuantity = Math.min(reductionQuantity, currentQuantity);
-            reducedShares.put(account, reductionQuantity);
-            totalReducedShares += reductionQuantity;
+    private void updateBuyAllocationOnPositions(final int[] allocatedShares, final AllocationPlan plan,
+                                                final PositionBook.Row row, long priceTicks) {
+        for (int i = 0; i < plan.size(); i++) {
+            int accountId = plan.accountId(i);
+            int quantity = row.getQuantity(accountId);
+            long value = row.getTotalValue(accountId);
+            row.update(accountId, quantity + allocatedShares[i], priceTicks);
+            exposureLimits.onUpdate(row, accountId, quantity, value);
         }
+    }
+
+    private void handleSellFill(int fillQuantity, long priceTicks, final AllocationPlan plan, final PositionBook.Row row,
+                                final int[] reducedShares) {
+        int totalQuantity = Math.abs(fillQuantity);
+        plan.allocateFloor(totalQuantity, reducedShares);
+        int remaining = totalQuantity;
 
-        // Adjust the reduced shares to ensure they sum to totalQuantity
-        int difference = totalQuantity - totalReducedShares;
-        if (difference != 0) {
-            // Distribute the difference to the account with the highest split
-            String highestSplitAccount = this.getHighestSplitAccount();
+        for (int i = 0; i < plan.size(); i++) {
+            int currentQuantity = row.getQuantity(plan.accountId(i));
+            // checking the quantity is not more than existing quantity held by the account
+            reducedShares[i] = Math.min(reducedShares[i], Math.max(currentQuantity, 0));
+            remaining -= reducedShares[i];
+        }
 
-            if (highestSplitAccount != null) {
-                reducedShares.put(highestSplitAccount, reducedShares.get(highestSplitAccount) - difference);
+        // Shares lost to rounding go one by one to the highest splits first like for a buy, shares an account could
+        // not sell then go to the accounts still holding some in the same order
+        for (int rank = 0; remaining > 0 && rank < plan.size(); rank++) {
+            int i = plan.remainderIndex(rank);
+            if (row.getQuantity(plan.accountId(i)) > reducedShares[i]) {
+                reducedShares[i]++;
+                remaining--;
             }
         }
-        this.updateSellAllocationOnPositions(reducedShares, fill);
-    }
-
-    private void updateSellAllocationOnPositions(final Map<String, Integer> reducedShares, final Fill fill) {
-        for (Map.Entry<String, Integer> entry : reducedShares.entrySet()) {
-            String account = entry.getKey();
-            int reductionQuantity = entry.getValue();
-            accountPositions.computeIfAbsent(account, k -> new ConcurrentHashMap<>());
-            Optional<Position> position = Optional.ofNullable(accountPositions.get(account).get(fill.getStockTicker()));
-            position.ifPresent(pos -> {
-                int newQuantity = Math.max(pos.getQuantity() - reductionQuantity, 0);
-                pos.setQuantity(newQuantity);
-                pos.setTotalValue(newQuantity * fill.getPrice());
-                if (newQuantity == 0) {
-                    accountPositions.get(account).remove(fill.getStockTicker());
-                }
-            });
+        for (int rank = 0; remaining > 0 && rank < plan.size(); rank++) {
+            int i = plan.remainderIndex(rank);
+            int held = row.getQuantity(plan.accountId(i)) - reducedShares[i];
+            if (held > 0) {
+                int shares = Math.min(held, remaining);
+                reducedShares[i] += shares;
+                remaining -= shares;
+            }
+        }
+        if (remaining > 0) {
+            exposureLimits.onOversold(row, totalQuantity, remaining);
         }
+        this.updateSellAllocationOnPositions(reducedShares, plan, row, priceTicks);
     }
 
-    private String getHighestSplitAccount() {
-        return currentAUMSplits.entrySet().stream()
-                .max(Map.Entry.comparingByValue())
-                .map(Map.Entry::getKey)
-                .orElse(null);
+    private void updateSellAllocationOnPositions(final int[] reducedShares, final AllocationPlan plan,
+                                                 final PositionBook.Row row, long priceTicks) {
+        for (int i = 0; i < plan.size(); i++) {
+            int accountId = plan.accountId(i);
+            int currentQuantity = row.getQuantity(accountId);
+            // accounts without an open position have nothing to reduce
+            if (currentQuantity != 0) {
+                long value = row.getTotalValue(accountId);
+                row.update(accountId, currentQuantity - reducedShares[i], priceTicks);
+                exposureLimits.onUpdate(row, accountId, currentQuantity, value);
+            }
+        }
     }
 
+    /**
+     * @return a copy of the current positions per account and ticker, built from the position book on every call
+     */
     public Map<String, Map<String, Position>> getAccountPositions() {
-        return accountPositions;
+        return positionBook.toPositionMap();
+    }
+
+    /**
+     * @return the latest plan, the one fills executed from now on are allocated against
+     */
+    public AllocationPlan getAllocationPlan() {
+        return planHistory.latest();
+    }
+
+    /**
+     * @return the plans fills can currently be allocated against, oldest first
+     */
+    public PlanHistory getPlanHistory() {
+        return planHistory;
+    }
+
+    public PositionBook getPositionBook() {
+        return positionBook;
+    }
+
+    public ExposureLimits getExposureLimits() {
+        return exposureLimits;
+    }
+
+    public void setBatchNetting(boolean batchNetting) {
+        this.batchNetting = batchNetting;
+    }
+
+    /**
+     * Sets whether allocations are logged on the {@code allocation.events} logger, e.g. not by an instance allocating
+     * warm-up fills.
+     */
+    public void setEventsLogged(boolean eventsLogged) {
+        this.eventsLogged = eventsLogged;
+    }
+
+    public void setPlanHistorySize(int planHistorySize) {
+        this.planHistorySize = planHistorySize;
+    }
+
+    /**
+     * Sets how sells relieve the cost basis, before any position is restored or allocated.
+     */
+    @Value("${position.lots.relief:AVERAGE}")
+    public void setLotRelief(LotRelief lotRelief) {
+        positionBook.setLotRelief(lotRelief);
+    }
+
+    /**
+     * The fills of a ticker netted with its next fill record during a replay, they share the plan and price of that fill.
+     */
+    private static final class NettedFills {
+
+        private long sequence;
+        private long planVersion;
+        private long priceTicks;
+        private int quantity;
+
+        private void add(long sequence, long planVersion, long priceTicks, int quantity) {
+            this.sequence = sequence;
+            this.planVersion = planVersion;
+            this.priceTicks = priceTicks;
+            this.quantity += quantity;
+        }
+    }
+
+    /**
+     * Per-thread working arrays: the shares of every split account and the netted groups of a batch with their plans.
+     */
+    private static final class Scratch {
+
+        private int[] shares = new int[16];
+        private final StringBuilder event = new StringBuilder(128);
+        private final RebalancePlanner rebalancePlanner = new RebalancePlanner();
+        private int groupCount;
+        private int skippedFills;
+        private int[] groupTickers = new int[64];
+        private int[] groupQuantities = new int[64];
+        private long[] groupPrices = new long[64];
+        private AllocationPlan[] groupPlans = new AllocationPlan[64];
+        // the fills of a group, as a list of batch indices from its first fill linked by nextFill and ending with -1
+        private int[] groupFirstFill = new int[64];
+        private int[] groupLastFill = new int[64];
+        private int[] nextFill = new int[64];
+        private int[] fillQuantities = new int[64];
+        // index of the last group of a ticker id, valid only if the ticker's stamp is the current batch stamp
+        private int[] lastGroupOfTicker = new int[64];
+        private int[] tickerStamps = new int[64];
+        private int stamp;
+
+        private int[] shares(int accountCount) {
+            if (shares.length < accountCount) {
+                shares = new int[Math.max(accountCount, shares.length * 2)];
+            }
+            return shares;
+        }
+
+        private void net(final Fill[] fills, int count, final PositionBook positionBook, final PlanHistory history,
+                         boolean netting) {
+            if (++stamp == 0) {
+                Arrays.fill(tickerStamps, 0);
+                stamp = 1;
+            }
+            groupCount = 0;
+            skippedFills = 0;
+            if (nextFill.length < count) {
+                nextFill = new int[count];
+                fillQuantities = new int[count];
+            }
+            for (int i = 0; i < count; i++) {
+                Fill fill = fills[i];
+                int quantity = fill.getQuantity();
+                if (quantity == 0) {
+                    skippedFills++;
+                    continue;
+                }
+                int tickerId = positionBook.tickerId(fill.getStockTicker());
+                AllocationPlan plan = history.planAt(fill.getExecutedAtMillis());
+                if (tickerId >= tickerStamps.length) {
+                    int length = Math.max(tickerStamps.length * 2, tickerId + 1);
+                    tickerStamps = Arrays.copyOf(tickerStamps, length);
+                    lastGroupOfTicker = Arrays.copyOf(lastGroupOfTicker, length);
+                }
+                if (netting && tickerStamps[tickerId] == stamp) {
+                    int group = lastGroupOfTicker[tickerId];
+                    long netted = (long) groupQuantities[group] + quantity;
+                    if (groupPlans[group] == plan && groupPrices[group] == fill.getPriceTicks()
+                            && (groupQuantities[group] > 0) == (quantity > 0) && netted == (int) netted) {
+                        groupQuantities[group] = (int) netted;
+                        nextFill[groupLastFill[group]] = i;
+                        groupLastFill[group] = i;
+                        nextFill[i] = -1;
+                        fillQuantities[i] = quantity;
+                        continue;
+                    }
+                }
+                if (groupCount == groupTickers.length) {
+                    int length = groupCount * 2;
+                    groupTickers = Arrays.copyOf(groupTickers, length);
+                    groupQuantities = Arrays.copyOf(groupQuantities, length);
+                    groupPrices = Arrays.copyOf(groupPrices, length);
+                    groupPlans = Arrays.copyOf(groupPlans, length);
+                    groupFirstFill = Arrays.copyOf(groupFirstFill, length);
+                    groupLastFill = Arrays.copyOf(groupLastFill, length);
+                }
+                groupTickers[groupCount] = tickerId;
+                groupQuantities[groupCount] = quantity;
+                groupPrices[groupCount] = fill.getPriceTicks();
+                groupPlans[groupCount] = plan;
+                groupFirstFill[groupCount] = i;
+                groupLastFill[groupCount] = i;
+                nextFill[i] = -1;
+                fillQuantities[i] = quantity;
+                lastGroupOfTicker[tickerId] = groupCount;
+                tickerStamps[tickerId] = stamp;
+                groupCount++;
+            }
+        }
     }
-}
\ No newline at end of file
+}
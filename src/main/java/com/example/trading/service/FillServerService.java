@@ -1,44 +1,62 @@
 package com.example.trading.service;
 
+import com.example.trading.engine.AllocationEngine;
 import com.example.trading.model.Fill;
+import com.example.trading.model.Prices;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
-import java.util.Random;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The {@code FillServerService} class provides functionality to generate random
- * buy or sell fill positions and send it to allocation service
+ * buy or sell fill positions and send it to the allocation engine
  * Simulates generating random stock tickers, prices, and quantities.
+ * <p>Every call to {@link #simulateFills()} is one fill source running until its thread is interrupted, sources
+ * share no state so any number of them can run at once. Each source gets its own source id and numbers its fills
+ * from 1. A source numbers and submits its fills on one thread, so they can be neither duplicated nor reordered and
+ * go to the engine directly.
  */
+@Slf4j
 @Service
 public class FillServerService {
 
     private final String[] stockTickers = {"AAPL", "GOOGL", "INTC", "AMZN", "TSLA", "JPM", "NFLX", "META", "FIDL", "WMT"};
-    private final Random random = new Random();
-    private final AllocationServerService allocationServerService;
+    private final AllocationEngine allocationEngine;
+    private final AtomicInteger sourceIds = new AtomicInteger();
 
-    public FillServerService(AllocationServerService allocationServerService) {
-        this.allocationServerService = allocationServerService;
+    public FillServerService(AllocationEngine allocationEngine) {
+        this.allocationEngine = allocationEngine;
     }
 
     @Async("fillServerExecutor")
     public void simulateFills() {
-        while (true) {
-            try {
-                String stockTicker = stockTickers[random.nextInt(stockTickers.length)];
-                double price = Math.round((Math.random() * (1000 - 100) + 100) * 100.0) / 100.0;
-                // buy or sell between -100 to 100
-                int quantity =  ThreadLocalRandom.current().nextInt(-100, 101);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int sourceId = sourceIds.getAndIncrement();
+        long sequence = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            String stockTicker = stockTickers[random.nextInt(stockTickers.length)];
+            // between 100.00 and 1000.00
+            long priceTicks = random.nextLong(10_000, 100_001) * (Prices.TICKS_PER_UNIT / 100);
+            // buy or sell between -100 to 100
+            int quantity = random.nextInt(-100, 101);
 
-                Fill fill = new Fill(stockTicker, price, quantity);
-                allocationServerService.allocateFill(fill);
+            // the receipt time starts the fill latency recorded once the fill is applied to the positions, the
+            // execution time selects the AUM splits it is allocated against
+            Fill fill = new Fill(stockTicker, priceTicks, quantity, System.nanoTime(), sourceId, ++sequence,
+                    System.currentTimeMillis());
+            if (!allocationEngine.submit(fill) && !Thread.currentThread().isInterrupted()) {
+                log.warn("Allocation engine rejected fill: {}", fill);
+            }
+            try {
                 // Simulating random intervals between fills
                 Thread.sleep(random.nextInt(1000) + 10000);
             } catch (InterruptedException e) {
-                e.printStackTrace();
+                Thread.currentThread().interrupt();
             }
         }
+        log.info("Fill simulation interrupted");
     }
-}
\ No newline at end of file
+}
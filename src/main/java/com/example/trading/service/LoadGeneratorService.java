@@ -0,0 +1,129 @@
+package com.example.trading.service;
+
+import com.example.trading.engine.AllocationEngine;
+import com.example.trading.load.FillRecorder;
+import com.example.trading.load.FillSource;
+import com.example.trading.load.LoadMode;
+import com.example.trading.load.LoadReport;
+import com.example.trading.load.LoadRunner;
+import com.example.trading.load.RecordedFillSource;
+import com.example.trading.load.SyntheticFillSource;
+import com.example.trading.metrics.TradingMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The {@code LoadGeneratorService} class runs a reproducible load through the allocation engine in place of the fill
+ * and AUM simulators, see {@link LoadMode}.
+ *
+ * <p>The splits are set once to equal weights over the configured accounts, then the fills of the
+ * {@link SyntheticFillSource} or of the replayed recording are sent by a {@link LoadRunner} and the throughput and
+ * latency of the run are logged once every fill has been allocated.
+ * <p>Note: load.mode, load.seed, load.fills, load.rate, load.tickers, load.zipfExponent, load.buyRatio,
+ * load.maxQuantity, load.file, load.speed, load.recordFile and load.drainTimeoutMillis can be used to configure the load
+ */
+@Slf4j
+@Service
+public class LoadGeneratorService {
+
+    private final AllocationServerService allocationServerService;
+    private final AllocationEngine allocationEngine;
+    // null when latencies are not measured
+    private final TradingMetrics tradingMetrics;
+    @Value("${app.trading.account.size:3}")
+    private int accountCount = 3;
+    @Value("${load.mode:OFF}")
+    private LoadMode mode = LoadMode.OFF;
+    @Value("${load.seed:42}")
+    private long seed = 42;
+    @Value("${load.fills:1000000}")
+    private long fillCount = 1_000_000;
+    @Value("${load.rate:100000}")
+    private double rate = 100_000;
+    @Value("${load.tickers:10000}")
+    private int tickerCount = 10_000;
+    @Value("${load.zipfExponent:1.0}")
+    private double zipfExponent = 1.0;
+    @Value("${load.buyRatio:0.55}")
+    private double buyRatio = 0.55;
+    @Value("${load.maxQuantity:100}")
+    private int maxQuantity = 100;
+    @Value("${load.file:fills.csv}")
+    private String file = "fills.csv";
+    @Value("${load.speed:1.0}")
+    private double speed = 1.0;
+    // empty to not record
+    @Value("${load.recordFile:}")
+    private String recordFile = "";
+    @Value("${load.drainTimeoutMillis:60000}")
+    private long drainTimeoutMillis = 60_000;
+
+    public LoadGeneratorService(AllocationServerService allocationServerService, AllocationEngine allocationEngine,
+                                ObjectProvider<TradingMetrics> tradingMetrics) {
+        this.allocationServerService = allocationServerService;
+        this.allocationEngine = allocationEngine;
+        this.tradingMetrics = tradingMetrics.getIfAvailable();
+    }
+
+    public boolean isEnabled() {
+        return mode != LoadMode.OFF;
+    }
+
+    @Async("fillServerExecutor")
+    public void runLoad() {
+        try {
+            LoadReport report = run();
+            log.info("{} load with seed {} finished: {}", mode, seed, report);
+        } catch (IOException | UncheckedIOException | IllegalArgumentException e) {
+            log.error("{} load failed", mode, e);
+        }
+    }
+
+    /**
+     * Sets equal splits and runs the configured load on the calling thread.
+     */
+    public LoadReport run() throws IOException {
+        allocationServerService.updateAUMSplits(equalSplits(accountCount));
+        LoadRunner runner = new LoadRunner(allocationEngine, tradingMetrics);
+        FillRecorder recorder = recordFile.isEmpty() ? null : new FillRecorder(Path.of(recordFile));
+        try {
+            if (mode == LoadMode.REPLAY) {
+                try (RecordedFillSource source = new RecordedFillSource(Path.of(file), speed)) {
+                    return runner.run(source, recorder, drainTimeoutMillis);
+                }
+            }
+            FillSource source = new SyntheticFillSource(seed, tickerCount, zipfExponent, buyRatio, maxQuantity, rate,
+                    fillCount);
+            return runner.run(source, recorder, drainTimeoutMillis);
+        } finally {
+            if (recorder != null) {
+                recorder.close();
+            }
+        }
+    }
+
+    /**
+     * @return equal splits over the accounts, the remainder of 100% going to the first account
+     */
+    static Map<String, Double> equalSplits(int accountCount) {
+        Map<String, Double> splits = new HashMap<>();
+        int bps = 10_000 / accountCount;
+        for (int i = 1; i <= accountCount; i++) {
+            splits.put("Account" + i, (i == 1 ? bps + 10_000 % accountCount : bps) / 100.0);
+        }
+        return splits;
+    }
+
+    public void setMode(LoadMode mode) {
+        this.mode = mode;
+    }
+}
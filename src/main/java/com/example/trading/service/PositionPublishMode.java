@@ -0,0 +1,11 @@
+package com.example.trading.service;
+
+/**
+ * When the {@link PositionServerService} publishes position changes.
+ */
+public enum PositionPublishMode {
+    // publish the changes every interval
+    INTERVAL,
+    // publish shortly after a change, changes made within the coalescing delay are published together
+    ON_CHANGE
+}
@@ -0,0 +1,147 @@
+package com.example.trading.service;
+
+import com.example.trading.book.PositionBook;
+import com.example.trading.book.PositionIndex;
+import com.example.trading.model.Position;
+import com.example.trading.model.PositionTotals;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The {@code PositionQueryService} class answers position queries per account and per ticker from a
+ * {@link PositionIndex} of the position book.
+ *
+ * <p>Queries read the last published view of the index without any lock. The first query after the view is older
+ * than the staleness bound refreshes it, which only copies the rows written since, while the queries running meanwhile
+ * keep answering from the previous view instead of waiting. Finding the holders of a ticker or the tickers of an account
+ * reads one entry of the index, and the totals of an account are maintained by the index, so none of them scans the
+ * book.
+ * <p>Note: position.query.maxStalenessMillis can be used to configure how old an answer may be
+ */
+@Service
+public class PositionQueryService {
+
+    private final PositionBook positionBook;
+    private final PositionIndex positionIndex;
+    private final ReentrantLock refreshLock = new ReentrantLock();
+    @Value("${position.query.maxStalenessMillis:100}")
+    private long maxStalenessMillis = 100;
+    // System.nanoTime() of the last refresh, 0 before the first one
+    private volatile long refreshedNanos;
+
+    public PositionQueryService(AllocationServerService allocationServerService) {
+        this.positionBook = allocationServerService.getPositionBook();
+        this.positionIndex = new PositionIndex(positionBook);
+    }
+
+    private PositionIndex.View view() {
+        long last = refreshedNanos;
+        long now = System.nanoTime();
+        if ((last == 0 || now - last >= maxStalenessMillis * 1_000_000) && refreshLock.tryLock()) {
+            try {
+                positionIndex.refresh();
+                refreshedNanos = now;
+            } finally {
+                refreshLock.unlock();
+            }
+        }
+        return positionIndex.getView();
+    }
+
+    /**
+     * @return the positions in the ticker per account, or null if the ticker was never allocated
+     */
+    public Map<String, Position> getHolders(final String stockTicker) {
+        PositionIndex.TickerPositions ticker = view().ticker(positionBook.getTickers().idOf(stockTicker));
+        if (ticker == null) {
+            return null;
+        }
+        Map<String, Position> holders = new LinkedHashMap<>();
+        for (int holder = 0; holder < ticker.getHolderCount(); holder++) {
+            holders.put(positionBook.getAccounts().nameOf(ticker.accountId(holder)), toPosition(stockTicker, ticker, holder));
+        }
+        return holders;
+    }
+
+    /**
+     * @return the open positions of the account per ticker, or null if the account is unknown
+     */
+    public Map<String, Position> getPositions(final String account) {
+        int accountId = positionBook.getAccounts().idOf(account);
+        if (accountId < 0) {
+            return null;
+        }
+        PositionIndex.View view = view();
+        Map<String, Position> positions = new LinkedHashMap<>();
+        for (int i = 0; i < view.getPositionCount(accountId); i++) {
+            int tickerId = view.tickerId(accountId, i);
+            PositionIndex.TickerPositions ticker = view.ticker(tickerId);
+            String stockTicker = positionBook.getTickers().nameOf(tickerId);
+            positions.put(stockTicker, toPosition(stockTicker, ticker, ticker.indexOf(accountId)));
+        }
+        return positions;
+    }
+
+    /**
+     * @return the totals of the ticker, or null if the ticker was never allocated
+     */
+    public PositionTotals getTickerTotals(final String stockTicker) {
+        PositionIndex.TickerPositions ticker = view().ticker(positionBook.getTickers().idOf(stockTicker));
+        return ticker == null ? null : toTotals(stockTicker, ticker);
+    }
+
+    public List<PositionTotals> getTickerTotals() {
+        PositionIndex.View view = view();
+        List<PositionTotals> totals = new ArrayList<>();
+        for (int tickerId = 0; tickerId < view.getTickerCount(); tickerId++) {
+            PositionIndex.TickerPositions ticker = view.ticker(tickerId);
+            if (ticker != null) {
+                totals.add(toTotals(positionBook.getTickers().nameOf(tickerId), ticker));
+            }
+        }
+        return totals;
+    }
+
+    /**
+     * @return the totals of the account, or null if the account is unknown
+     */
+    public PositionTotals getAccountTotals(final String account) {
+        int accountId = positionBook.getAccounts().idOf(account);
+        return accountId < 0 ? null : toTotals(account, view(), accountId);
+    }
+
+    public List<PositionTotals> getAccountTotals() {
+        PositionIndex.View view = view();
+        int accountCount = positionBook.getAccounts().size();
+        List<PositionTotals> totals = new ArrayList<>(accountCount);
+        for (int accountId = 0; accountId < accountCount; accountId++) {
+            totals.add(toTotals(positionBook.getAccounts().nameOf(accountId), view, accountId));
+        }
+        return totals;
+    }
+
+    private static Position toPosition(final String stockTicker, final PositionIndex.TickerPositions ticker, int holder) {
+        return new Position(stockTicker, ticker.quantity(holder), ticker.totalValue(holder), ticker.costBasis(holder),
+                ticker.realizedPnl(holder));
+    }
+
+    private static PositionTotals toTotals(final String stockTicker, final PositionIndex.TickerPositions ticker) {
+        return new PositionTotals(stockTicker, ticker.getHolderCount(), ticker.getGrossQuantity(),
+                ticker.getNetQuantity(), ticker.getNotional());
+    }
+
+    private static PositionTotals toTotals(final String account, final PositionIndex.View view, int accountId) {
+        return new PositionTotals(account, view.getPositionCount(accountId), view.getGrossQuantity(accountId),
+                view.getNetQuantity(accountId), view.getNotional(accountId));
+    }
+
+    public void setMaxStalenessMillis(long maxStalenessMillis) {
+        this.maxStalenessMillis = maxStalenessMillis;
+    }
+}
@@ -1,31 +1,85 @@
 package com.example.trading.service;
 
-import com.example.trading.model.Position;
+import com.example.trading.book.PositionDeltaTracker;
+import com.example.trading.metrics.TradingMetrics;
+import com.example.trading.model.PositionDelta;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
-import java.util.Map;
+import java.util.List;
 
+/**
+ * The {@code PositionServerService} class publishes the positions that changed since its previous publish.
+ *
+ * <p>In {@link PositionPublishMode#INTERVAL} mode changes are published every interval. In
+ * {@link PositionPublishMode#ON_CHANGE} mode the book is checked every coalescing delay, which only reads the row
+ * versions, and the changes are published as soon as there are any, so a burst of fills results in one publish.
+ * <p>Note: position.publish.mode, position.publish.intervalMillis and position.publish.coalesceMillis can be used to
+ * configure publishing
+ */
+@Slf4j
 @Service
 public class PositionServerService {
 
-    private final AllocationServerService allocationServerService;
+    private final PositionDeltaTracker positionDeltaTracker;
+    // null when metrics are not configured
+    private TradingMetrics tradingMetrics;
+    @Value("${position.publish.mode:INTERVAL}")
+    private PositionPublishMode publishMode = PositionPublishMode.INTERVAL;
+    @Value("${position.publish.intervalMillis:10000}")
+    private long intervalMillis = 10000;
+    @Value("${position.publish.coalesceMillis:50}")
+    private long coalesceMillis = 50;
 
     public PositionServerService(AllocationServerService allocationServerService) {
-        this.allocationServerService = allocationServerService;
+        this.positionDeltaTracker = new PositionDeltaTracker(allocationServerService.getPositionBook());
+    }
+
+    @Autowired(required = false)
+    public void setTradingMetrics(TradingMetrics tradingMetrics) {
+        this.tradingMetrics = tradingMetrics;
     }
 
     @Async("positionServerExecutor")
     public void sendPositions() {
-        while (true) {
+        while (!Thread.currentThread().isInterrupted()) {
             try {
-                Map<String, Map<String, Position>> positions = allocationServerService.getAccountPositions();
-                System.out.println("Sending positions to PositionServer: " + positions);
-                // Report positions every 10 seconds
-                Thread.sleep(10000);
+                Thread.sleep(publishMode == PositionPublishMode.ON_CHANGE ? coalesceMillis : intervalMillis);
+                publishChanges();
             } catch (InterruptedException e) {
-                e.printStackTrace();
+                Thread.currentThread().interrupt();
             }
         }
+        // publish what changed since the last publish before stopping
+        publishChanges();
+        log.info("Position publishing interrupted");
+    }
+
+    /**
+     * Publishes the positions changed since the previous publish, if any.
+     *
+     * @return the published changes
+     */
+    public List<PositionDelta> publishChanges() {
+        if (!positionDeltaTracker.hasChanges()) {
+            return List.of();
+        }
+        long start = System.nanoTime();
+        List<PositionDelta> deltas = positionDeltaTracker.collectChanges();
+        if (!deltas.isEmpty()) {
+            log.info("Sending {} position changes to PositionServer at epoch {}: {}", deltas.size(),
+                    positionDeltaTracker.getEpoch(), deltas);
+        }
+        if (tradingMetrics != null) {
+            tradingMetrics.recordPublish(deltas.size(), System.nanoTime() - start);
+        }
+        return deltas;
+    }
+
+    public void setPublishMode(PositionPublishMode publishMode) {
+        this.publishMode = publishMode;
     }
 }
@@ -0,0 +1,196 @@
+package com.example.trading.service;
+
+import com.example.trading.allocation.AllocationPlan;
+import com.example.trading.allocation.RebalancePlanner;
+import com.example.trading.book.PositionBook;
+import com.example.trading.book.RowSnapshot;
+import com.example.trading.engine.AllocationEngine;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The {@code RebalanceService} class brings the existing positions back in line with the AUM splits after they change.
+ *
+ * <p>New splits only apply to the fills allocated after them, so positions built under older splits drift away from
+ * them. A rebalance checks every ticker against the current {@link AllocationPlan} in parallel on a
+ * {@link ForkJoinPool}: the ticker range is split into chunks, each chunk copies its rows with
+ * {@link PositionBook.Row#copyTo(RowSnapshot)} and plans them with a {@link RebalancePlanner}, so the shards keep
+ * allocating live fills meanwhile. A row out of line is handed to the {@link AllocationEngine} shard owning its ticker,
+ * which plans it again against the live row and moves the shares between two batches of fills, see
+ * {@link AllocationServerService#rebalance(int, AllocationPlan)}.
+ *
+ * <p>Rebalancing is incremental: a row found in line is not copied again until it is written or the plan changes,
+ * a rebalance stops early once the plan it started with is replaced, and rebalances requested while one is running are
+ * coalesced into a single run after it.
+ * <p>Rebalancing crosses shares at the mark price of the account giving them and realizes their P&L, it is therefore
+ * off unless enabled, and new splits then only apply to new fills.
+ * <p>Note: rebalance.enabled and rebalance.parallelism can be used to configure rebalancing
+ */
+@Slf4j
+@Service
+public class RebalanceService {
+
+    private static final int TICKERS_PER_TASK = 16;
+
+    private final AllocationServerService allocationServerService;
+    private final PositionBook positionBook;
+    // null when rows are rebalanced on the checking threads
+    private final AllocationEngine allocationEngine;
+    private final ForkJoinPool pool;
+    // runs the requested rebalances one after the other, each one forking its checks into the pool
+    private final ExecutorService requests;
+    private final ThreadLocal<Worker> worker = ThreadLocal.withInitial(Worker::new);
+    private final AtomicBoolean requested = new AtomicBoolean();
+    @Value("${rebalance.enabled:false}")
+    private boolean enabled;
+    // version of every row when it was last found in line with the plan of inLinePlanVersion, -1 if not since
+    private long[] inLineVersions = new long[0];
+    private long inLinePlanVersion = -1;
+
+    /**
+     * @param allocationEngine the engine owning the rows, or null to rebalance them on the checking threads, which is
+     *                         only safe while no fill is being allocated
+     */
+    public RebalanceService(AllocationServerService allocationServerService, AllocationEngine allocationEngine,
+                            @Value("${rebalance.parallelism:0}") int parallelism) {
+        this.allocationServerService = allocationServerService;
+        this.positionBook = allocationServerService.getPositionBook();
+        this.allocationEngine = allocationEngine;
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        this.requests = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Rebalancer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Rebalances in the background, does nothing if a requested rebalance has not started yet.
+     */
+    public void requestRebalance() {
+        if (enabled && requested.compareAndSet(false, true)) {
+            requests.execute(() -> {
+                requested.set(false);
+                try {
+                    rebalance();
+                } catch (RuntimeException e) {
+                    log.error("Rebalancing failed", e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Checks every ticker against the current plan and rebalances the ones out of line. With an engine the rows are
+     * rebalanced by their shards after this returns.
+     *
+     * @return the number of tickers out of line
+     */
+    public synchronized int rebalance() {
+        AllocationPlan plan = allocationServerService.getAllocationPlan();
+        if (plan.isEmpty()) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        int tickerCount = positionBook.getTickers().size();
+        if (inLinePlanVersion != plan.getVersion()) {
+            Arrays.fill(inLineVersions, -1);
+            inLinePlanVersion = plan.getVersion();
+        }
+        if (inLineVersions.length < tickerCount) {
+            int length = inLineVersions.length;
+            inLineVersions = Arrays.copyOf(inLineVersions, Math.max(tickerCount, length * 2));
+            Arrays.fill(inLineVersions, length, inLineVersions.length, -1);
+        }
+        int outOfLine = pool.invoke(new CheckTask(plan, 0, tickerCount));
+        log.info("Found {} of {} tickers out of line with AUM splits version {} in {} ms", outOfLine, tickerCount,
+                plan.getVersion(), (System.nanoTime() - start) / 1_000_000);
+        return outOfLine;
+    }
+
+    private int check(final AllocationPlan plan, int fromTicker, int toTicker) {
+        Worker thread = worker.get();
+        int outOfLine = 0;
+        for (int tickerId = fromTicker; tickerId < toTicker; tickerId++) {
+            if (allocationServerService.getAllocationPlan() != plan) {
+                // replaced, the rebalance requested by the new plan checks every row again
+                break;
+            }
+            PositionBook.Row row = positionBook.row(tickerId);
+            if (row.getVersion() == inLineVersions[tickerId]) {
+                continue;
+            }
+            row.copyTo(thread.snapshot);
+            if (thread.planner.plan(plan, thread.snapshot) == 0) {
+                inLineVersions[tickerId] = thread.snapshot.getVersion();
+                continue;
+            }
+            outOfLine++;
+            final int id = tickerId;
+            if (allocationEngine == null) {
+                allocationServerService.rebalance(id, plan);
+            } else if (!allocationEngine.execute(positionBook.getTickers().nameOf(id),
+                    () -> allocationServerService.rebalance(id, plan))) {
+                log.warn("Could not rebalance {}, the allocation engine is stopped", positionBook.getTickers().nameOf(id));
+            }
+        }
+        return outOfLine;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        requests.shutdownNow();
+        pool.shutdownNow();
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Checks a range of tickers, split in halves until it is small enough. Tasks are never serialized.
+     */
+    @SuppressWarnings("serial")
+    private final class CheckTask extends RecursiveTask<Integer> {
+
+        private final AllocationPlan plan;
+        private final int fromTicker;
+        private final int toTicker;
+
+        private CheckTask(AllocationPlan plan, int fromTicker, int toTicker) {
+            this.plan = plan;
+            this.fromTicker = fromTicker;
+            this.toTicker = toTicker;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (toTicker - fromTicker <= TICKERS_PER_TASK) {
+                return check(plan, fromTicker, toTicker);
+            }
+            int middle = (fromTicker + toTicker) >>> 1;
+            CheckTask left = new CheckTask(plan, fromTicker, middle);
+            left.fork();
+            int outOfLine = new CheckTask(plan, middle, toTicker).compute();
+            return outOfLine + left.join();
+        }
+    }
+
+    /**
+     * Per-thread copy of a row and planner, grown once to the number of accounts.
+     */
+    private static final class Worker {
+
+        private final RowSnapshot snapshot = new RowSnapshot();
+        private final RebalancePlanner planner = new RebalancePlanner();
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.trading.service;
+
+import com.example.trading.book.LotRelief;
+import com.example.trading.load.FillSource;
+import com.example.trading.load.SyntheticFillSource;
+import com.example.trading.metrics.TradingMetrics;
+import com.example.trading.model.Fill;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * The {@code WarmupService} class warms up the allocation path before live fills are accepted, and reports how long
+ * the application took to be ready.
+ *
+ * <p>Warming up allocates up to {@code fills} fills of a {@link SyntheticFillSource} in batches of {@code batchSize},
+ * the way the shards of the {@link com.example.trading.engine.AllocationEngine} do, so the allocation, netting and
+ * position book code is compiled by the JIT before the first live fill instead of being interpreted. It stops early
+ * after {@code maxMillis}, so a restart is never held up by it. The fills are allocated by a throwaway
+ * {@link AllocationServerService} with equal splits over the configured accounts and no journal, metrics or allocation
+ * events: compiled code is shared by every instance, while the live positions, journal and metrics never see a warm-up
+ * fill. It runs while the context starts, the fill gateway is only started once it is done and the simulators and load
+ * generator once the context is ready.
+ *
+ * <p>Once the application is ready the time since the JVM started and the time spent warming up are logged and
+ * recorded in {@link TradingMetrics}, which then also records the time to the first live fill.
+ * <p>Note: warmup.fills, warmup.tickers, warmup.batchSize and warmup.maxMillis can be used to configure the warm-up
+ */
+@Slf4j
+@Service
+public class WarmupService {
+
+    private static final long SEED = 42;
+    private static final double BUY_RATIO = 0.55;
+    private static final int MAX_QUANTITY = 100;
+
+    // null when metrics are not configured
+    private final TradingMetrics tradingMetrics;
+    @Value("${app.trading.account.size:3}")
+    private int accountCount = 3;
+    // 0 to not warm up
+    @Value("${warmup.fills:0}")
+    private long fillCount = 0;
+    @Value("${warmup.tickers:256}")
+    private int tickerCount = 256;
+    @Value("${warmup.batchSize:16}")
+    private int batchSize = 16;
+    @Value("${warmup.maxMillis:300}")
+    private long maxMillis = 300;
+    @Value("${position.lots.relief:AVERAGE}")
+    private LotRelief lotRelief = LotRelief.AVERAGE;
+    // -1 until warmed up
+    private long warmupMillis = -1;
+    private long warmupFills;
+
+    public WarmupService(ObjectProvider<TradingMetrics> tradingMetrics) {
+        this.tradingMetrics = tradingMetrics.getIfAvailable();
+    }
+
+    @PostConstruct
+    public void warmUp() {
+        if (fillCount <= 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        warmupFills = allocate(start + maxMillis * 1_000_000);
+        warmupMillis = (System.nanoTime() - start) / 1_000_000;
+        log.info("Warmed up the allocation path with {} fills in {} ms", warmupFills, warmupMillis);
+    }
+
+    /**
+     * Allocates the warm-up fills until they run out or the deadline passes.
+     *
+     * @return the number of fills allocated
+     */
+    long allocate(long deadlineNanos) {
+        AllocationServerService allocationServerService = new AllocationServerService();
+        allocationServerService.setEventsLogged(false);
+        allocationServerService.setLotRelief(lotRelief);
+        allocationServerService.updateAUMSplits(LoadGeneratorService.equalSplits(accountCount));
+        FillSource source = new SyntheticFillSource(SEED, tickerCount, 1.0, BUY_RATIO, MAX_QUANTITY, 0, fillCount);
+        Fill[] batch = new Fill[batchSize];
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = new Fill();
+        }
+        long allocated = 0;
+        int count;
+        do {
+            count = 0;
+            while (count < batch.length && source.next(batch[count]) >= 0) {
+                count++;
+            }
+            allocationServerService.allocateFills(batch, count);
+            allocated += count;
+        } while (count == batch.length && System.nanoTime() < deadlineNanos);
+        return allocated;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        if (tradingMetrics != null) {
+            tradingMetrics.recordReady(warmupMillis);
+        }
+        log.info("Ready {} ms after the JVM started, warm-up took {} ms",
+                ManagementFactory.getRuntimeMXBean().getUptime(), warmupMillis);
+    }
+
+    /**
+     * @return the time spent warming up, -1 if it did not run
+     */
+    public long getWarmupMillis() {
+        return warmupMillis;
+    }
+
+    /**
+     * @return the number of fills allocated while warming up
+     */
+    public long getWarmupFills() {
+        return warmupFills;
+    }
+
+    public void setFillCount(long fillCount) {
+        this.fillCount = fillCount;
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.trading.allocation;
+
+import com.example.trading.book.PositionBook;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class AllocationPlanTest {
+
+    private final PositionBook positionBook = new PositionBook();
+
+    @Test
+    public void testSplitsAreCompiledToBasisPoints() {
+        AllocationPlan plan = AllocationPlan.compile(Map.of(
+                "Account1", 33.33,
+                "Account2", 66.67
+        ), positionBook, 7);
+
+        assertEquals(7, plan.getVersion());
+        assertEquals(2, plan.size());
+        assertEquals(10000, plan.getTotalBps());
+        int account1 = positionBook.getAccounts().idOf("Account1");
+        int index1 = plan.accountId(0) == account1 ? 0 : 1;
+        assertEquals(3333, plan.weightBps(index1));
+        assertEquals(1 - index1, plan.highestSplitIndex());
+    }
+
+    @Test
+    public void testAllocationSumsExactlyToQuantity() {
+        AllocationPlan plan = AllocationPlan.compile(Map.of(
+                "Account1", 33.33,
+                "Account2", 33.33,
+                "Account3", 33.34
+        ), positionBook, 1);
+        int[] shares = new int[3];
+
+        for (int quantity = 1; quantity < 1000; quantity++) {
+            plan.allocate(quantity, shares);
+            assertEquals(quantity, shares[0] + shares[1] + shares[2]);
+        }
+    }
+
+    @Test
+    public void testRemainderGoesToHighestSplitsFirst() {
+        AllocationPlan plan = AllocationPlan.compile(Map.of(
+                "Account1", 50.0,
+                "Account2", 30.0,
+                "Account3", 20.0
+        ), positionBook, 1);
+        int[] shares = new int[3];
+
+        // 50/30/20 of 9 is 4.5/2.7/1.8, floors to 4/2/1 and the 2 remaining shares go to Account1 then Account2
+        plan.allocate(9, shares);
+
+        assertEquals(5, shares[indexOf(plan, "Account1")]);
+        assertEquals(3, shares[indexOf(plan, "Account2")]);
+        assertEquals(1, shares[indexOf(plan, "Account3")]);
+    }
+
+    @Test
+    public void testRemainderGoesToFirstAccountNameOnTies() {
+        // Given Account2 interned before Account1
+        positionBook.accountId("Account2");
+        AllocationPlan plan = AllocationPlan.compile(Map.of(
+                "Account2", 50.0,
+                "Account1", 50.0
+        ), positionBook, 1);
+        int[] shares = new int[2];
+
+        // When
+        plan.allocate(3, shares);
+
+        // Then the odd share goes to Account1 whatever the order of the splits and of the account ids
+        assertEquals(2, shares[indexOf(plan, "Account1")]);
+        assertEquals(1, shares[indexOf(plan, "Account2")]);
+        assertEquals(indexOf(plan, "Account1"), plan.highestSplitIndex());
+    }
+
+    @Test
+    public void testInvalidSplitsAreRejected() {
+        assertThrows(IllegalArgumentException.class,
+                () -> AllocationPlan.compile(Map.of("Account1", -5.0), positionBook, 1));
+        assertThrows(IllegalArgumentException.class,
+                () -> AllocationPlan.compile(Map.of("Account1", 0.0), positionBook, 1));
+    }
+
+    private int indexOf(AllocationPlan plan, String account) {
+        int accountId = positionBook.getAccounts().idOf(account);
+        for (int i = 0; i < plan.size(); i++) {
+            if (plan.accountId(i) == accountId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.trading.allocation;
+
+import com.example.trading.book.PositionBook;
+import com.example.trading.model.Prices;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class ExposureLimitsTest {
+
+    private final PositionBook positionBook = new PositionBook();
+    private final ExposureLimits limits = new ExposureLimits(positionBook);
+
+    @Test
+    public void testAccountLimitsOverrideTheDefaults() {
+        // Given a default of 50 shares per position, 10 for Account2 and a notional of 1000 for Account3
+        limits.setDefaultLimits(50, 0, 0);
+        limits.setAccountLimits(positionBook.accountId("Account2"), 10, 0, 0);
+        limits.setAccountLimits(positionBook.accountId("Account3"), 0, Prices.toTicks(1000.0), 0);
+
+        // When
+        update("AAPL", "Account1", 40, 100.0);
+        update("AAPL", "Account2", 20, 100.0);
+        update("AAPL", "Account3", 30, 100.0);
+        update("GOOGL", "Account3", 60, 1.0);
+
+        // Then Account2 is over its own quantity, Account3 over its notional and over the default quantity
+        assertEquals(2, limits.getBreachCount(ExposureLimits.Breach.POSITION_QUANTITY));
+        assertEquals(1, limits.getBreachCount(ExposureLimits.Breach.POSITION_NOTIONAL));
+        assertEquals(0, limits.getBreachCount(ExposureLimits.Breach.ACCOUNT_NOTIONAL));
+    }
+
+    @Test
+    public void testPositionsHeldBeforeTheFirstAccountLimitAreCounted() {
+        // Given
+        update("AAPL", "Account1", 10, 100.0);
+        update("GOOGL", "Account1", -5, 200.0);
+        int account1 = positionBook.accountId("Account1");
+        assertEquals(0, limits.getAccountNotional(account1));
+
+        // When
+        limits.setDefaultLimits(0, 0, Prices.toTicks(2500.0));
+        update("MSFT", "Account1", 10, 10.0);
+
+        // Then
+        assertEquals(Prices.toTicks(2100.0), limits.getAccountNotional(account1));
+        update("MSFT", "Account1", 50, 10.0);
+        assertEquals(Prices.toTicks(2500.0), limits.getAccountNotional(account1));
+        assertEquals(0, limits.getBreachCount(ExposureLimits.Breach.ACCOUNT_NOTIONAL));
+        update("MSFT", "Account1", 51, 10.0);
+        assertEquals(1, limits.getBreachCount(ExposureLimits.Breach.ACCOUNT_NOTIONAL));
+    }
+
+    @Test
+    public void testResumeRecountsThePositionsRestoredWhilePaused() {
+        // Given
+        limits.setDefaultLimits(0, 0, Prices.toTicks(10_000.0));
+        update("AAPL", "Account1", 10, 100.0);
+
+        // When positions are restored while paused
+        limits.pause();
+        update("AAPL", "Account1", 20, 100.0);
+        update("GOOGL", "Account2", 1, 50.0);
+        limits.resume();
+
+        // Then
+        assertEquals(Prices.toTicks(2000.0), limits.getAccountNotional(positionBook.accountId("Account1")));
+        assertEquals(Prices.toTicks(50.0), limits.getAccountNotional(positionBook.accountId("Account2")));
+    }
+
+    @Test
+    public void testUpdatesWhileTheFirstAccountLimitIsSetAreNotLost() throws InterruptedException {
+        // Given a writer adding one share at a time
+        int updates = 200_000;
+        CountDownLatch started = new CountDownLatch(1);
+        Thread writer = new Thread(() -> {
+            for (int quantity = 1; quantity <= updates; quantity++) {
+                update("AAPL", "Account1", quantity, 1.0);
+                if (quantity == 1000) {
+                    started.countDown();
+                }
+            }
+        });
+        writer.start();
+        started.await();
+
+        // When the first account limit is set while it writes
+        limits.setDefaultLimits(0, 0, Long.MAX_VALUE / 2);
+        writer.join();
+
+        // Then every update is counted exactly once
+        assertEquals(Prices.toTicks(updates), limits.getAccountNotional(positionBook.accountId("Account1")));
+    }
+
+    private void update(String stockTicker, String account, int quantity, double price) {
+        PositionBook.Row row = positionBook.row(positionBook.tickerId(stockTicker));
+        int accountId = positionBook.accountId(account);
+        row.beginWrite();
+        try {
+            int previousQuantity = row.getQuantity(accountId);
+            long previousValue = row.getTotalValue(accountId);
+            long value = quantity * Prices.toTicks(price);
+            row.set(accountId, quantity, value, value, 0);
+            limits.onUpdate(row, accountId, previousQuantity, previousValue);
+        } finally {
+            row.endWrite();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.trading.allocation;
+
+import com.example.trading.book.PositionBook;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class PlanHistoryTest {
+
+    private final PositionBook positionBook = new PositionBook();
+
+    @Test
+    public void testPlanInEffectAtTime() {
+        // Given plans 1 to 3 taking effect at 1000, 2000 and 2000
+        PlanHistory history = PlanHistory.EMPTY
+                .with(plan(1, 1000), 8)
+                .with(plan(2, 2000), 8)
+                .with(plan(3, 2000), 8);
+
+        // Then
+        assertEquals(1, history.planAt(500).getVersion());
+        assertEquals(1, history.planAt(1000).getVersion());
+        assertEquals(1, history.planAt(1999).getVersion());
+        assertEquals(3, history.planAt(2000).getVersion());
+        assertEquals(3, history.planAt(5000).getVersion());
+        // an unknown time gets the latest plan
+        assertEquals(3, history.planAt(0).getVersion());
+        assertSame(history.plan(2), history.getPlans().get(1));
+        assertNull(history.plan(4));
+        assertSame(AllocationPlan.EMPTY, PlanHistory.EMPTY.planAt(1000));
+    }
+
+    @Test
+    public void testOldestPlansAreDropped() {
+        // Given
+        PlanHistory history = PlanHistory.EMPTY;
+        for (int version = 1; version <= 10; version++) {
+            history = history.with(plan(version, version * 1000L), 4);
+        }
+
+        // Then only versions 7 to 10 are kept and older times get the oldest kept
+        assertEquals(4, history.size());
+        assertNull(history.plan(6));
+        assertEquals(7, history.planAt(1000).getVersion());
+        assertEquals(8, history.planAt(8500).getVersion());
+        assertEquals(10, history.latest().getVersion());
+    }
+
+    @Test
+    public void testPlansMustBeNewer() {
+        // Given
+        PlanHistory history = PlanHistory.EMPTY.with(plan(2, 2000), 8);
+
+        // Then
+        assertThrows(IllegalArgumentException.class, () -> history.with(plan(2, 3000), 8));
+        assertThrows(IllegalArgumentException.class, () -> history.with(plan(3, 1000), 8));
+        assertEquals(1, history.size());
+    }
+
+    private AllocationPlan plan(long version, long effectiveFromMillis) {
+        return AllocationPlan.compile(Map.of("Account1", 50.0, "Account2", 50.0), positionBook, version,
+                effectiveFromMillis);
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.trading.allocation;
+
+import com.example.trading.book.PositionBook;
+import com.example.trading.model.Prices;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class RebalancePlannerTest {
+
+    private final PositionBook positionBook = new PositionBook();
+    private final PositionBook.Row row = positionBook.row(positionBook.tickerId("AAPL"));
+    private final RebalancePlanner planner = new RebalancePlanner();
+
+    @Test
+    public void testSharesMoveToTheNewSplits() {
+        // Given 100 shares held 50/50 and new splits of 70/30
+        hold("Account1", 50);
+        hold("Account2", 50);
+        AllocationPlan plan = AllocationPlan.compile(Map.of("Account1", 70.0, "Account2", 30.0), positionBook, 2);
+
+        // When
+        int transfers = planner.plan(plan, row, positionBook.getAccounts().size());
+
+        // Then
+        assertEquals(1, transfers);
+        assertEquals(positionBook.accountId("Account2"), planner.fromAccount(0));
+        assertEquals(positionBook.accountId("Account1"), planner.toAccount(0));
+        assertEquals(20, planner.quantity(0));
+    }
+
+    @Test
+    public void testAccountsWithinRoundingDoNotMove() {
+        // Given 10 shares under thirds, exact shares of 3.33 each, held 3/4/3
+        AllocationPlan plan = AllocationPlan.compile(Map.of("Account1", 33.33, "Account2", 33.33, "Account3", 33.34),
+                positionBook, 1);
+        hold("Account1", 3);
+        hold("Account2", 4);
+        hold("Account3", 3);
+
+        // Then any rounding is in line
+        assertEquals(0, planner.plan(plan, row, positionBook.getAccounts().size()));
+
+        // When an account is beyond its rounded up share
+        hold("Account2", 5);
+        hold("Account3", 2);
+
+        // Then only the share above its bound moves
+        assertEquals(1, planner.plan(plan, row, positionBook.getAccounts().size()));
+        assertEquals(positionBook.accountId("Account2"), planner.fromAccount(0));
+        assertEquals(positionBook.accountId("Account3"), planner.toAccount(0));
+        assertEquals(1, planner.quantity(0));
+    }
+
+    @Test
+    public void testRemainderGoesToTheLargestRemainders() {
+        // Given 7 shares held by an account leaving the splits, exact shares of 2.1, 2.45 and 2.45
+        positionBook.accountId("Account1");
+        positionBook.accountId("Account2");
+        positionBook.accountId("Account3");
+        hold("Account4", 7);
+        AllocationPlan plan = AllocationPlan.compile(Map.of("Account1", 30.0, "Account2", 35.0, "Account3", 35.0),
+                positionBook, 3);
+
+        // When
+        int transfers = planner.plan(plan, row, positionBook.getAccounts().size());
+
+        // Then 2 shares each and the 7th to the lowest of the largest remainders
+        assertEquals(3, transfers);
+        int[] received = new int[positionBook.getAccounts().size()];
+        for (int i = 0; i < transfers; i++) {
+            assertEquals(positionBook.accountId("Account4"), planner.fromAccount(i));
+            received[planner.toAccount(i)] += planner.quantity(i);
+        }
+        assertEquals(2, received[positionBook.accountId("Account1")]);
+        assertEquals(3, received[positionBook.accountId("Account2")]);
+        assertEquals(2, received[positionBook.accountId("Account3")]);
+    }
+
+    @Test
+    public void testManyAccountsAddUpExactly() {
+        // Given 1000 accounts holding 1 to 1000 shares and equal new splits
+        Map<String, Double> splits = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            hold("Account" + i, i + 1);
+            splits.put("Account" + i, 0.1);
+        }
+        AllocationPlan plan = AllocationPlan.compile(splits, positionBook, 1);
+
+        // When
+        int transfers = planner.plan(plan, row, positionBook.getAccounts().size());
+
+        // Then every account ends with the 500500 / 1000 = 500.5 shares rounded, fewer transfers than accounts moving
+        int[] quantities = new int[1000];
+        for (int i = 0; i < 1000; i++) {
+            quantities[positionBook.accountId("Account" + i)] = i + 1;
+        }
+        for (int i = 0; i < transfers; i++) {
+            quantities[planner.fromAccount(i)] -= planner.quantity(i);
+            quantities[planner.toAccount(i)] += planner.quantity(i);
+        }
+        int roundedUp = 0;
+        for (int quantity : quantities) {
+            assertTrue(quantity == 500 || quantity == 501);
+            roundedUp += quantity - 500;
+        }
+        assertEquals(500, roundedUp);
+        assertTrue(transfers < 1000);
+    }
+
+    private void hold(String account, int quantity) {
+        row.update(positionBook.accountId(account), quantity, Prices.toTicks(10.0));
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.trading.book;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class LotQueueTest {
+
+    @Test
+    public void testFifoSellsOldestLotsFirst() {
+        // Given
+        LotQueue lots = lotsOf(LotRelief.FIFO);
+
+        // When selling 15 shares out of lots of 10 at 100, 10 at 120 and 10 at 110
+        long cost = lots.relieve(15);
+
+        // Then
+        assertEquals(10 * 100 + 5 * 120, cost);
+        assertEquals(2, lots.size());
+        assertEquals(15, lots.quantity());
+        assertEquals(5 * 120 + 10 * 110, lots.relieve(100));
+        assertEquals(0, lots.size());
+    }
+
+    @Test
+    public void testLifoSellsNewestLotsFirst() {
+        LotQueue lots = lotsOf(LotRelief.LIFO);
+
+        assertEquals(10 * 110 + 5 * 120, lots.relieve(15));
+        assertEquals(5 * 120 + 10 * 100, lots.relieve(15));
+        assertEquals(0, lots.quantity());
+    }
+
+    @Test
+    public void testHighestCostSellsMostExpensiveLotsFirst() {
+        LotQueue lots = lotsOf(LotRelief.HIGHEST_COST);
+        lots.add(10, 115);
+
+        assertEquals(10 * 120 + 5 * 115, lots.relieve(15));
+        assertEquals(5 * 115 + 10 * 110 + 10 * 100, lots.relieve(25));
+        assertEquals(0, lots.size());
+    }
+
+    @Test
+    public void testLotsAtTheSamePriceAreMerged() {
+        LotQueue lots = new LotQueue(LotRelief.FIFO);
+
+        lots.add(10, 100);
+        lots.add(5, 100);
+        lots.add(0, 90);
+
+        assertEquals(1, lots.size());
+        assertEquals(15, lots.quantity());
+    }
+
+    @Test
+    public void testManyLotsKeepTheirOrderAcrossGrowth() {
+        // Given lots of 2 shares bought at 1 to 1000, with a share sold every 3 lots so the ring buffer wraps
+        LotQueue fifo = new LotQueue(LotRelief.FIFO);
+        LotQueue highestCost = new LotQueue(LotRelief.HIGHEST_COST);
+        long expectedFifoCost = 0;
+        for (int price = 1; price <= 1000; price++) {
+            fifo.add(2, price);
+            highestCost.add(2, price);
+            if (price % 3 == 0) {
+                expectedFifoCost += fifo.relieve(1);
+            }
+        }
+
+        // When
+        int[] quantities = new int[fifo.size()];
+        long[] prices = new long[fifo.size()];
+        int copied = fifo.copyTo(quantities, prices, 0);
+
+        // Then
+        assertEquals(fifo.size(), copied);
+        for (int i = 1; i < prices.length; i++) {
+            assertTrue(prices[i - 1] < prices[i]);
+        }
+        assertEquals(-1, fifo.copyTo(quantities, prices, 1));
+        assertEquals(2000 - 333, fifo.quantity());
+        assertEquals(expectedFifoCost, totalOfFirstShares(333));
+        for (int price = 1000; price > 0; price--) {
+            assertEquals(2L * price, highestCost.relieve(2));
+        }
+        assertEquals(0, highestCost.relieve(1));
+    }
+
+    @Test
+    public void testAverageCostKeepsNoLots() {
+        assertThrows(IllegalArgumentException.class, () -> new LotQueue(LotRelief.AVERAGE));
+    }
+
+    private static LotQueue lotsOf(LotRelief relief) {
+        LotQueue lots = new LotQueue(relief);
+        lots.add(10, 100);
+        lots.add(10, 120);
+        lots.add(10, 110);
+        return lots;
+    }
+
+    // cost of the first shares sold by FIFO from lots of 2 shares at 1, 2, 3, ...
+    private static long totalOfFirstShares(int shares) {
+        long cost = 0;
+        for (int share = 0; share < shares; share++) {
+            cost += share / 2 + 1;
+        }
+        return cost;
+    }
+}
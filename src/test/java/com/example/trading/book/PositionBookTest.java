@@ -0,0 +1,99 @@
+package com.example.trading.book;
+
+import com.example.trading.model.Position;
+import com.example.trading.model.Prices;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class PositionBookTest {
+
+    @Test
+    public void testInterningReturnsStableDenseIds() {
+        PositionBook positionBook = new PositionBook();
+
+        assertEquals(0, positionBook.accountId("Account1"));
+        assertEquals(1, positionBook.accountId("Account2"));
+        assertEquals(0, positionBook.accountId(new String("Account1")));
+        assertEquals(-1, positionBook.getAccounts().idOf("Account3"));
+        assertEquals("Account2", positionBook.getAccounts().nameOf(1));
+    }
+
+    @Test
+    public void testRowsGrowWithAccounts() {
+        PositionBook positionBook = new PositionBook();
+        PositionBook.Row row = positionBook.row(positionBook.tickerId("AAPL"));
+
+        for (int i = 0; i < 100; i++) {
+            row.update(positionBook.accountId("Account" + i), i, Prices.toTicks(10.0));
+        }
+
+        assertEquals(42, positionBook.getQuantity("Account42", "AAPL"));
+        assertEquals(Prices.toTicks(990.0), row.getTotalValue(positionBook.accountId("Account99")));
+        assertEquals(0, positionBook.getQuantity("Account42", "GOOGL"));
+    }
+
+    @Test
+    public void testPositionMapSkipsClosedPositions() {
+        PositionBook positionBook = new PositionBook();
+        PositionBook.Row row = positionBook.row(positionBook.tickerId("AAPL"));
+        row.update(positionBook.accountId("Account1"), 5, Prices.toTicks(150.0));
+        row.update(positionBook.accountId("Account2"), 0, Prices.toTicks(150.0));
+
+        Map<String, Map<String, Position>> positions = positionBook.toPositionMap();
+
+        assertEquals(5, positions.get("Account1").get("AAPL").getQuantity());
+        assertEquals(750.0, positions.get("Account1").get("AAPL").getTotalValue());
+        assertNull(positions.get("Account2"));
+    }
+
+    @Test
+    public void testCostBasisAndRealizedPnlAreKeptExactly() {
+        PositionBook positionBook = new PositionBook();
+        PositionBook.Row row = positionBook.row(positionBook.tickerId("AAPL"));
+        int account = positionBook.accountId("Account1");
+
+        // buy 3 at 10.01 and 3 at 10.02, average cost 10.015
+        row.update(account, 3, Prices.toTicks(10.01));
+        row.update(account, 6, Prices.toTicks(10.02));
+        assertEquals(Prices.toTicks(60.09), row.getCostBasis(account));
+        assertEquals(Prices.toTicks(60.12), row.getTotalValue(account));
+
+        // sell 4 at 10.10, relieving 4/6 of the cost basis
+        row.update(account, 2, Prices.toTicks(10.10));
+        assertEquals(Prices.toTicks(20.03), row.getCostBasis(account));
+        assertEquals(Prices.toTicks(0.34), row.getRealizedPnl(account));
+
+        // closing the position relieves what is left of the cost basis
+        row.update(account, 0, Prices.toTicks(10.0));
+        assertEquals(0, row.getCostBasis(account));
+        assertEquals(Prices.toTicks(0.31), row.getRealizedPnl(account));
+    }
+
+    @Test
+    public void testLotReliefRealizesPnlOfTheLotsSold() {
+        PositionBook positionBook = new PositionBook();
+        positionBook.setLotRelief(LotRelief.FIFO);
+        PositionBook.Row row = positionBook.row(positionBook.tickerId("AAPL"));
+        int account = positionBook.accountId("Account1");
+
+        // buy 3 at 10.01 and 3 at 10.02, then sell 4 at 10.10 out of the oldest lots
+        row.update(account, 3, Prices.toTicks(10.01));
+        row.update(account, 6, Prices.toTicks(10.02));
+        row.update(account, 2, Prices.toTicks(10.10));
+        assertEquals(Prices.toTicks(20.04), row.getCostBasis(account));
+        assertEquals(Prices.toTicks(0.35), row.getRealizedPnl(account));
+
+        RowSnapshot snapshot = new RowSnapshot();
+        row.copyTo(snapshot, true);
+        assertEquals(1, snapshot.getLotCounts()[account]);
+        assertEquals(2, snapshot.getLotQuantities()[0]);
+        assertEquals(Prices.toTicks(10.02), snapshot.getLotPrices()[0]);
+
+        assertThrows(IllegalStateException.class, () -> positionBook.setLotRelief(LotRelief.LIFO));
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.trading.book;
+
+import com.example.trading.model.PositionDelta;
+import com.example.trading.model.Prices;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class PositionDeltaTrackerTest {
+
+    @Test
+    public void testOnlyChangedPositionsArePublished() {
+        // Given
+        PositionBook positionBook = new PositionBook();
+        PositionDeltaTracker tracker = new PositionDeltaTracker(positionBook);
+        write(positionBook, "AAPL", "Account1", 10, 1000.0);
+        write(positionBook, "AAPL", "Account2", 5, 500.0);
+        write(positionBook, "GOOGL", "Account1", 3, 300.0);
+        assertEquals(3, tracker.collectChanges().size());
+        assertFalse(tracker.hasChanges());
+
+        // When
+        write(positionBook, "AAPL", "Account2", 0, 0.0);
+
+        // Then
+        assertTrue(tracker.hasChanges());
+        List<PositionDelta> deltas = tracker.collectChanges();
+        assertEquals(1, deltas.size());
+        assertEquals("Account2", deltas.get(0).getAccount());
+        assertEquals("AAPL", deltas.get(0).getStockTicker());
+        assertEquals(0, deltas.get(0).getQuantity());
+        assertEquals(2, tracker.getEpoch());
+        assertTrue(tracker.collectChanges().isEmpty());
+    }
+
+    @Test
+    public void testRewritingTheSamePositionIsNotPublished() {
+        // Given
+        PositionBook positionBook = new PositionBook();
+        PositionDeltaTracker tracker = new PositionDeltaTracker(positionBook);
+        write(positionBook, "AAPL", "Account1", 10, 1000.0);
+        tracker.collectChanges();
+
+        // When
+        write(positionBook, "AAPL", "Account1", 10, 1000.0);
+
+        // Then the row version moved but no position did
+        assertTrue(tracker.hasChanges());
+        assertTrue(tracker.collectChanges().isEmpty());
+        assertFalse(tracker.hasChanges());
+    }
+
+    private static void write(PositionBook positionBook, String stockTicker, String account, int quantity, double totalValue) {
+        PositionBook.Row row = positionBook.row(positionBook.tickerId(stockTicker));
+        row.beginWrite();
+        row.set(positionBook.accountId(account), quantity, Prices.toTicks(totalValue), Prices.toTicks(totalValue), 0);
+        row.endWrite();
+    }
+}
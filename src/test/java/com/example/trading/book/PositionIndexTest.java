@@ -0,0 +1,103 @@
+package com.example.trading.book;
+
+import com.example.trading.model.Prices;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class PositionIndexTest {
+
+    @Test
+    public void testTickersIndexTheirHolders() {
+        // Given
+        PositionBook positionBook = new PositionBook();
+        PositionIndex index = new PositionIndex(positionBook);
+        write(positionBook, "AAPL", "Account1", 10, 1000.0);
+        write(positionBook, "GOOGL", "Account2", 3, 300.0);
+        write(positionBook, "AAPL", "Account3", 5, 500.0);
+
+        // When
+        PositionIndex.View view = index.refresh();
+
+        // Then
+        PositionIndex.TickerPositions aapl = view.ticker(positionBook.tickerId("AAPL"));
+        assertEquals(2, aapl.getHolderCount());
+        assertEquals(positionBook.accountId("Account1"), aapl.accountId(0));
+        assertEquals(positionBook.accountId("Account3"), aapl.accountId(1));
+        assertEquals(-1, aapl.indexOf(positionBook.accountId("Account2")));
+        assertEquals(15, aapl.getGrossQuantity());
+        assertEquals(15, aapl.getNetQuantity());
+        assertEquals(Prices.toTicks(1500.0), aapl.getNotional());
+        int account1 = positionBook.accountId("Account1");
+        assertEquals(1, view.getPositionCount(account1));
+        assertEquals(10, view.getGrossQuantity(account1));
+        assertEquals(Prices.toTicks(1000.0), view.getNotional(account1));
+    }
+
+    @Test
+    public void testRefreshOnlyReplacesChangedTickers() {
+        // Given
+        PositionBook positionBook = new PositionBook();
+        PositionIndex index = new PositionIndex(positionBook);
+        write(positionBook, "AAPL", "Account1", 10, 1000.0);
+        write(positionBook, "GOOGL", "Account1", 3, 300.0);
+        PositionIndex.View before = index.refresh();
+
+        // When
+        write(positionBook, "AAPL", "Account1", 0, 0.0);
+        PositionIndex.View after = index.refresh();
+
+        // Then the closed position left the holders and the account totals
+        assertNotSame(before, after);
+        assertEquals(before.getEpoch() + 1, after.getEpoch());
+        assertSame(before.ticker(positionBook.tickerId("GOOGL")), after.ticker(positionBook.tickerId("GOOGL")));
+        assertEquals(0, after.ticker(positionBook.tickerId("AAPL")).getHolderCount());
+        int account1 = positionBook.accountId("Account1");
+        assertEquals(1, after.getPositionCount(account1));
+        assertEquals(3, after.getNetQuantity(account1));
+        assertEquals(Prices.toTicks(300.0), after.getNotional(account1));
+        // the earlier view is immutable
+        assertEquals(2, before.getPositionCount(account1));
+        assertSame(after, index.refresh());
+    }
+
+    @Test
+    public void testAccountsIndexTheirTickers() {
+        // Given
+        PositionBook positionBook = new PositionBook();
+        PositionIndex index = new PositionIndex(positionBook);
+        write(positionBook, "AAPL", "Account1", 10, 1000.0);
+        write(positionBook, "GOOGL", "Account2", 3, 300.0);
+        write(positionBook, "MSFT", "Account1", -4, -400.0);
+        write(positionBook, "IBM", "Account1", 2, 200.0);
+        PositionIndex.View before = index.refresh();
+
+        // When
+        write(positionBook, "MSFT", "Account1", 0, 0.0);
+        write(positionBook, "GOOGL", "Account1", 1, 100.0);
+        PositionIndex.View after = index.refresh();
+
+        // Then the tickers of the account are listed in ticker id order
+        int account1 = positionBook.accountId("Account1");
+        assertEquals(3, before.getPositionCount(account1));
+        assertEquals(positionBook.tickerId("AAPL"), before.tickerId(account1, 0));
+        assertEquals(positionBook.tickerId("MSFT"), before.tickerId(account1, 1));
+        assertEquals(positionBook.tickerId("IBM"), before.tickerId(account1, 2));
+        assertEquals(3, after.getPositionCount(account1));
+        assertEquals(positionBook.tickerId("AAPL"), after.tickerId(account1, 0));
+        assertEquals(positionBook.tickerId("GOOGL"), after.tickerId(account1, 1));
+        assertEquals(positionBook.tickerId("IBM"), after.tickerId(account1, 2));
+        // the list of an unchanged account is shared and the earlier view is immutable
+        assertEquals(positionBook.tickerId("GOOGL"), after.tickerId(positionBook.accountId("Account2"), 0));
+        assertEquals(positionBook.tickerId("MSFT"), before.tickerId(account1, 1));
+    }
+
+    private static void write(PositionBook positionBook, String stockTicker, String account, int quantity, double totalValue) {
+        PositionBook.Row row = positionBook.row(positionBook.tickerId(stockTicker));
+        row.beginWrite();
+        row.set(positionBook.accountId(account), quantity, Prices.toTicks(totalValue), Prices.toTicks(totalValue), 0);
+        row.endWrite();
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.trading.cluster;
+
+import com.example.trading.model.Fill;
+import com.example.trading.model.Position;
+import com.example.trading.service.AllocationServerService;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class ClusterRouterTest {
+
+    private static final String[] TICKERS = {"AAPL", "GOOGL", "INTC", "AMZN", "TSLA", "JPM", "NFLX", "META", "FIDL", "WMT"};
+
+    private final LocalTransport transport = new LocalTransport();
+    private final List<ClusterNode> nodes = new ArrayList<>();
+    private ClusterRouter router;
+
+    @BeforeEach
+    public void setUp() {
+        for (String nodeId : List.of("node1", "node2", "node3")) {
+            ClusterNode node = new ClusterNode(nodeId, new AllocationServerService(), null);
+            transport.register(node);
+            nodes.add(node);
+        }
+        router = new ClusterRouter(transport, List.of("node1", "node2", "node3"), 64);
+    }
+
+    @Test
+    public void testPartitionedAllocationMatchesASingleNode() {
+        // Given
+        AllocationServerService singleNode = new AllocationServerService();
+        Map<String, Double> aumSplits = Map.of("Account1", 60.0, "Account2", 25.0, "Account3", 15.0);
+        router.updateAUMSplits(aumSplits);
+        singleNode.updateAUMSplits(aumSplits);
+
+        // When
+        for (int i = 0; i < 1000; i++) {
+            Fill fill = new Fill(TICKERS[i % TICKERS.length], 100.0 + i % 7, i % 5 == 4 ? -3 : 7);
+            assertTrue(router.submit(fill));
+            singleNode.allocateFill(fill);
+        }
+
+        // Then every node allocated its own tickers only, and the merged query matches
+        for (ClusterNode node : nodes) {
+            node.queryPositions().values().forEach(tickers -> tickers.keySet()
+                    .forEach(ticker -> assertEquals(node.getNodeId(), router.nodeFor(ticker))));
+        }
+        assertEquals(describe(singleNode.getAccountPositions()), describe(router.queryPositions()));
+    }
+
+    @Test
+    public void testSplitsAreVersionedOnEveryNode() {
+        // Given
+        long first = router.updateAUMSplits(Map.of("Account1", 50.0, "Account2", 50.0));
+        long second = router.updateAUMSplits(Map.of("Account1", 80.0, "Account2", 20.0));
+
+        // When an old update is delivered again
+        boolean applied = nodes.get(0).onSplits(first, 0, Map.of("Account1", 50.0, "Account2", 50.0));
+
+        // Then
+        assertFalse(applied);
+        for (ClusterNode node : nodes) {
+            assertEquals(second, node.getSplitsVersion());
+            AllocationServerService service = node.getAllocationServerService();
+            int account1 = service.getPositionBook().accountId("Account1");
+            int index = service.getAllocationPlan().accountId(0) == account1 ? 0 : 1;
+            assertEquals(8000, service.getAllocationPlan().weightBps(index));
+        }
+    }
+
+    @Test
+    public void testNewNodesReceiveTheLatestSplits() {
+        // Given
+        long version = router.updateAUMSplits(Map.of("Account1", 50.0, "Account2", 50.0));
+        ClusterNode node4 = new ClusterNode("node4", new AllocationServerService(), null);
+        transport.register(node4);
+
+        // When
+        router.setNodes(List.of("node1", "node2", "node3", "node4"));
+
+        // Then
+        assertEquals(version, node4.getSplitsVersion());
+        assertTrue(router.submit(new Fill(firstTickerOf("node4"), 10.0, 4)));
+        assertEquals(2, node4.queryPositions().get("Account1").get(firstTickerOf("node4")).getQuantity());
+    }
+
+    @Test
+    public void testHeldTickersStayOnTheirNodeUntilFlat() {
+        // Given a position in a ticker of node3
+        router.updateAUMSplits(Map.of("Account1", 50.0, "Account2", 50.0));
+        String ticker = firstTickerOf("node3");
+        assertTrue(router.submit(new Fill(ticker, 10.0, 10)));
+
+        // When node3 leaves the ring
+        router.setNodes(List.of("node1", "node2"));
+
+        // Then its position is still reported and its fills still go to node3, so the sell is not oversold
+        assertEquals("node3", router.nodeFor(ticker));
+        assertEquals(5, router.queryPositions().get("Account1").get(ticker).getQuantity());
+        assertTrue(router.submit(new Fill(ticker, 11.0, -10)));
+        assertTrue(nodes.get(2).queryPositions().isEmpty());
+
+        // When the flat ticker is seen by a query
+        assertTrue(router.queryPositions().isEmpty());
+
+        // Then its next fills go to its owner on the ring
+        String owner = router.nodeFor(ticker);
+        assertNotEquals("node3", owner);
+        assertTrue(router.submit(new Fill(ticker, 12.0, 4)));
+        assertEquals(2, router.queryPositions().get("Account2").get(ticker).getQuantity());
+        assertEquals(2, nodes.get(owner.equals("node1") ? 0 : 1).queryPositions().get("Account2").get(ticker).getQuantity());
+    }
+
+    private String firstTickerOf(String nodeId) {
+        for (int i = 0; ; i++) {
+            if (router.nodeFor("TICK" + i).equals(nodeId)) {
+                return "TICK" + i;
+            }
+        }
+    }
+
+    // positions compared by their string form, which holds every field
+    private static Map<String, Map<String, String>> describe(Map<String, Map<String, Position>> positions) {
+        Map<String, Map<String, String>> description = new TreeMap<>();
+        positions.forEach((account, tickers) -> tickers.forEach((ticker, position) ->
+                description.computeIfAbsent(account, k -> new TreeMap<>()).put(ticker, position.toString())));
+        return description;
+    }
+}
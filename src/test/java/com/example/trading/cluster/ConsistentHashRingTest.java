@@ -0,0 +1,62 @@
+package com.example.trading.cluster;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class ConsistentHashRingTest {
+
+    private static final int TICKERS = 10_000;
+
+    @Test
+    public void testTickersAreSpreadEvenly() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("node1", "node2", "node3", "node4"), 128);
+
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < TICKERS; i++) {
+            counts.merge(ring.nodeFor("TICK" + i), 1, Integer::sum);
+        }
+
+        assertEquals(4, counts.size());
+        for (int count : counts.values()) {
+            // within 25% of a fair share
+            assertTrue(Math.abs(count - TICKERS / 4) < TICKERS / 16, "Uneven share " + counts);
+        }
+    }
+
+    @Test
+    public void testAddingANodeOnlyMovesTickersToIt() {
+        // Given
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("node1", "node2", "node3"), 128);
+
+        // When
+        ConsistentHashRing grown = new ConsistentHashRing(List.of("node1", "node2", "node3", "node4"), 128);
+
+        // Then
+        int moved = 0;
+        for (int i = 0; i < TICKERS; i++) {
+            String before = ring.nodeFor("TICK" + i);
+            String after = grown.nodeFor("TICK" + i);
+            if (!before.equals(after)) {
+                assertEquals("node4", after);
+                moved++;
+            }
+        }
+        assertTrue(moved > TICKERS / 8 && moved < TICKERS / 3, "Moved " + moved);
+    }
+
+    @Test
+    public void testAssignmentDoesNotDependOnNodeOrder() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("node1", "node2"), 16);
+        ConsistentHashRing reversed = new ConsistentHashRing(List.of("node2", "node1"), 16);
+
+        for (int i = 0; i < TICKERS; i++) {
+            assertEquals(ring.nodeFor("TICK" + i), reversed.nodeFor("TICK" + i));
+        }
+    }
+}
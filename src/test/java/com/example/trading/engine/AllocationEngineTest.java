@@ -0,0 +1,117 @@
+package com.example.trading.engine;
+
+import com.example.trading.model.Fill;
+import com.example.trading.model.Position;
+import com.example.trading.service.AllocationServerService;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class AllocationEngineTest {
+
+    private AllocationEngine allocationEngine;
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        if (allocationEngine != null) {
+            allocationEngine.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrentFillsOnSameTickerAreNotLost() throws Exception {
+        // Given
+        AllocationServerService allocationServerService = new AllocationServerService();
+        allocationServerService.updateAUMSplits(Map.of(
+                "Account1", 50.0,
+                "Account2", 50.0
+        ));
+        allocationEngine = new AllocationEngine(4, 64, BackpressureStrategy.BLOCK, allocationServerService::allocateFill);
+        allocationEngine.start();
+
+        // When 4 producers buy 2 AAPL 1000 times each
+        int producers = 4;
+        int fillsPerProducer = 1000;
+        CountDownLatch start = new CountDownLatch(1);
+        // failures of the producer threads, asserted on the test thread
+        AtomicInteger rejected = new AtomicInteger();
+        AtomicInteger interrupted = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < producers; i++) {
+            Thread thread = new Thread(() -> {
+                Fill fill = new Fill("AAPL", 100.0, 2);
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    interrupted.incrementAndGet();
+                    return;
+                }
+                for (int j = 0; j < fillsPerProducer; j++) {
+                    if (!allocationEngine.submit(fill)) {
+                        rejected.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        allocationEngine.shutdown();
+
+        // Then every fill is accepted and every account receives exactly half of the 8000 shares
+        assertEquals(0, interrupted.get());
+        assertEquals(0, rejected.get());
+        Map<String, Map<String, Position>> positions = allocationServerService.getAccountPositions();
+        assertEquals(4000, positions.get("Account1").get("AAPL").getQuantity());
+        assertEquals(4000, positions.get("Account2").get("AAPL").getQuantity());
+    }
+
+    @Test
+    public void testRejectWhenShardIsFull() throws Exception {
+        // Given a single shard blocked on its first fill
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        allocationEngine = new AllocationEngine(1, 2, BackpressureStrategy.REJECT, fill -> {
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        allocationEngine.start();
+        Fill fill = new Fill("AAPL", 100.0, 1);
+        try {
+            assertTrue(allocationEngine.submit(fill));
+            blocked.await();
+
+            // When the ring buffer of 2 slots fills up, the slot being allocated is only freed once done
+            assertTrue(allocationEngine.submit(fill));
+            assertFalse(allocationEngine.submit(fill));
+
+            // Then
+            assertEquals(1, allocationEngine.getRejectedCount());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testSameTickerAlwaysMapsToSameShard() {
+        allocationEngine = new AllocationEngine(8, 16, BackpressureStrategy.REJECT, fill -> { });
+        assertEquals(allocationEngine.shardFor("AAPL"), allocationEngine.shardFor(new String("AAPL")));
+        assertTrue(allocationEngine.shardFor("GOOGL") >= 0 && allocationEngine.shardFor("GOOGL") < 8);
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.trading.engine;
+
+import com.example.trading.model.Fill;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class FillSequencerTest {
+
+    private static final long GAP_TIMEOUT_NANOS = 1_000;
+
+    private final List<Long> delivered = new ArrayList<>();
+    private FillSequencer sequencer;
+
+    @BeforeEach
+    public void setUp() {
+        sequencer = new FillSequencer(fill -> delivered.add(fill.getSequence()), 4, 64, GAP_TIMEOUT_NANOS);
+    }
+
+    @Test
+    public void testDuplicatesAreDeliveredOnce() {
+        // When
+        offer(0, 1, 0);
+        offer(0, 2, 0);
+        offer(0, 1, 0);
+        offer(0, 2, 0);
+        offer(1, 1, 0);
+
+        // Then
+        assertEquals(List.of(1L, 2L, 1L), delivered);
+        assertEquals(2, sequencer.getDuplicateCount());
+        assertEquals(3, sequencer.getNextSequence(0));
+        assertEquals(2, sequencer.getNextSequence(1));
+    }
+
+    @Test
+    public void testOutOfOrderFillsAreDeliveredInSequence() {
+        // When
+        offer(0, 3, 0);
+        offer(0, 2, 0);
+        offer(0, 3, 0);
+        assertTrue(delivered.isEmpty());
+        offer(0, 1, 0);
+
+        // Then
+        assertEquals(List.of(1L, 2L, 3L), delivered);
+        assertEquals(1, sequencer.getDuplicateCount());
+        assertEquals(0, sequencer.getMissingCount());
+    }
+
+    @Test
+    public void testGapsAreGivenUpAfterTheTimeout() {
+        // Given 2 never arrives
+        offer(0, 1, 0);
+        offer(0, 3, 100);
+        offer(0, 4, 100);
+
+        // When
+        sequencer.expireGaps(100 + GAP_TIMEOUT_NANOS - 1);
+        assertEquals(List.of(1L), delivered);
+        sequencer.expireGaps(100 + GAP_TIMEOUT_NANOS);
+
+        // Then it is dropped if it arrives late
+        assertEquals(List.of(1L, 3L, 4L), delivered);
+        assertEquals(1, sequencer.getMissingCount());
+        offer(0, 2, 2_000);
+        assertEquals(3, delivered.size());
+    }
+
+    @Test
+    public void testAFillBeyondTheWindowSlidesIt() {
+        // Given 2 is missing and 3 to 10 are buffered
+        offer(0, 1, 0);
+        for (long sequence = 3; sequence <= 10; sequence++) {
+            offer(0, sequence, 0);
+        }
+
+        // When
+        offer(0, 100, 0);
+
+        // Then the window now starts at 37, the fills up to it are delivered or missing
+        assertEquals(List.of(1L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L), delivered);
+        assertEquals(1 + 26, sequencer.getMissingCount());
+        assertEquals(37, sequencer.getNextSequence(0));
+        offer(0, 37, 0);
+        assertEquals(10, delivered.size());
+        sequencer.expireGaps(GAP_TIMEOUT_NANOS);
+        assertEquals(100, (long) delivered.get(10));
+        assertEquals(27 + 62, sequencer.getMissingCount());
+    }
+
+    @Test
+    public void testFillsWithoutSequenceAreAlwaysDelivered() {
+        offer(0, 0, 0);
+        offer(0, 0, 0);
+
+        assertEquals(2, sequencer.getDeliveredCount());
+        assertFalse(sequencer.accepts(4));
+        assertThrows(IllegalArgumentException.class, () -> offer(4, 1, 0));
+    }
+
+    private void offer(int sourceId, long sequence, long nowNanos) {
+        sequencer.offer(new Fill("AAPL", 1_000_000L, 1, 0, sourceId, sequence), nowNanos);
+    }
+}
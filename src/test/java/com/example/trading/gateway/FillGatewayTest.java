@@ -0,0 +1,129 @@
+package com.example.trading.gateway;
+
+import com.example.trading.engine.AllocationEngine;
+import com.example.trading.engine.BackpressureStrategy;
+import com.example.trading.model.Position;
+import com.example.trading.service.AllocationServerService;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class FillGatewayTest {
+
+    private AllocationServerService allocationServerService;
+    private AllocationEngine allocationEngine;
+    private FillGateway fillGateway;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        allocationServerService = new AllocationServerService();
+        allocationServerService.updateAUMSplits(Map.of(
+                "Account1", 50.0,
+                "Account2", 50.0
+        ));
+        allocationEngine = new AllocationEngine(2, 64, BackpressureStrategy.BLOCK,
+                (fills, count) -> allocationServerService.allocateFills(fills, count));
+        allocationEngine.start();
+        fillGateway = new FillGateway(0, new String[]{"AAPL", "MSFT"}, 4, 64, allocationEngine);
+        fillGateway.start();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        fillGateway.close();
+        allocationEngine.shutdown();
+    }
+
+    @Test
+    public void testMessagesAreDecodedAndAllocated() throws Exception {
+        // Given 1000 buys of 2 AAPL at 150.1234, a buy of 4 MSFT and a message with an unknown ticker id
+        int fills = 1000;
+        ByteBuffer messages = ByteBuffer.allocate((fills + 2) * FillMessage.SIZE);
+        for (int i = 0; i < fills; i++) {
+            FillMessage.encode(messages, 1, 0, 1_501_234, 2, i + 1);
+        }
+        FillMessage.encode(messages, 1, 1, 500_000, 4, fills + 1);
+        FillMessage.encode(messages, 1, 7, 500_000, 4, fills + 2);
+        messages.flip();
+
+        // When sent in chunks cutting messages in two, larger than the gateway's 64 byte buffer
+        send(messages);
+
+        // Then
+        waitFor(() -> fillGateway.getReceivedCount() == fills + 2 && processedCount() == fills + 1);
+        assertEquals(1, fillGateway.getDroppedCount());
+        assertEquals(0, fillGateway.getRejectedCount());
+        Position aapl = allocationServerService.getAccountPositions().get("Account1").get("AAPL");
+        assertEquals(fills, aapl.getQuantity());
+        assertEquals(fills * 150.1234, aapl.getTotalValue(), 1e-6);
+        assertEquals(2, allocationServerService.getAccountPositions().get("Account2").get("MSFT").getQuantity());
+    }
+
+    @Test
+    public void testResentAndReorderedMessagesAreAllocatedOnceInOrder() throws Exception {
+        // Given buys of 2, then a sell of 2 and a buy of 4 sent out of order, and everything sent again
+        ByteBuffer messages = ByteBuffer.allocate(8 * FillMessage.SIZE);
+        FillMessage.encode(messages, 3, 0, 1_000_000, 2, 1);
+        FillMessage.encode(messages, 3, 0, 1_000_000, 4, 3);
+        FillMessage.encode(messages, 3, 0, 1_100_000, -2, 2);
+        FillMessage.encode(messages, 3, 0, 1_000_000, 2, 1);
+        messages.flip();
+        ByteBuffer resent = ByteBuffer.allocate(3 * FillMessage.SIZE);
+        for (int sequence = 1; sequence <= 3; sequence++) {
+            FillMessage.encode(resent, 3, 0, 1_000_000, 99, sequence);
+        }
+        resent.flip();
+
+        // When the resend comes on a new connection
+        send(messages);
+        waitFor(() -> processedCount() == 3);
+        send(resent);
+
+        // Then
+        waitFor(() -> fillGateway.getReceivedCount() == 7);
+        assertEquals(3, processedCount());
+        assertEquals(4, fillGateway.getDuplicateCount());
+        assertEquals(0, fillGateway.getMissingCount());
+        Position aapl = allocationServerService.getAccountPositions().get("Account1").get("AAPL");
+        assertEquals(2, aapl.getQuantity());
+        // the sell came second and realized 10 on 1 share
+        assertEquals(10.0, aapl.getRealizedPnl(), 1e-9);
+    }
+
+    private void send(final ByteBuffer messages) throws Exception {
+        try (SocketChannel client = SocketChannel.open(new InetSocketAddress("localhost", fillGateway.getPort()))) {
+            while (messages.hasRemaining()) {
+                ByteBuffer chunk = messages.slice();
+                chunk.limit(Math.min(chunk.remaining(), 100));
+                client.write(chunk);
+                messages.position(messages.position() + chunk.position());
+            }
+        }
+    }
+
+    private long processedCount() {
+        long processed = 0;
+        for (int i = 0; i < allocationEngine.getShardCount(); i++) {
+            processed += allocationEngine.getProcessedCount(i);
+        }
+        return processed;
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for the gateway");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.example.trading.journal;
+
+import com.example.trading.model.Fill;
+import com.example.trading.model.Prices;
+import com.example.trading.service.AllocationServerService;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class FillJournalTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testRecordsAreReplayedInOrderAfterReopening() throws IOException {
+        // Given
+        try (FillJournal journal = new FillJournal(directory, 1, 4096, 0, 0)) {
+            assertEquals(1, journal.appendSplits(Map.of("Account1", 60.0, "Account2", 40.0), 1, 1_700_000_000_000L));
+            assertEquals(2, journal.appendFill("AAPL", Prices.toTicks(150.25), 10, 1));
+            assertEquals(3, journal.appendFill("GOOGL", Prices.toTicks(99.5), -4, 1));
+        }
+
+        // When
+        List<String> records = new ArrayList<>();
+        try (FillJournal journal = new FillJournal(directory, 1, 4096, 0, 0)) {
+            assertEquals(3, journal.lastSequence());
+            journal.replay(0, new RecordingListener(records));
+            // Then appending continues after the last record
+            assertEquals(4, journal.appendFill("AAPL", Prices.toTicks(1.0), 1, 1));
+        }
+
+        assertEquals(List.of(
+                "1 splits v1 at 1700000000000 {Account1=60.0, Account2=40.0}",
+                "2 fill v1 AAPL 150.25 10",
+                "3 fill v1 GOOGL 99.5 -4"
+        ), records);
+    }
+
+    @Test
+    public void testSegmentsRollAndReplayFromSequence() throws IOException {
+        // Given 200 fills in segments of 1024 bytes
+        try (FillJournal journal = new FillJournal(directory, 1, 1024, 10, 0)) {
+            for (int i = 1; i <= 200; i++) {
+                journal.appendFill("AAPL", Prices.toTicks(i), i, 1);
+            }
+        }
+        assertTrue(Files.list(directory).count() > 1);
+
+        // When
+        List<String> records = new ArrayList<>();
+        try (FillJournal journal = new FillJournal(directory, 1, 1024, 10, 0)) {
+            journal.replay(150, new RecordingListener(records));
+        }
+
+        // Then
+        assertEquals(51, records.size());
+        assertEquals("150 fill v1 AAPL 150.0 150", records.get(0));
+        assertEquals("200 fill v1 AAPL 200.0 200", records.get(50));
+    }
+
+    @Test
+    public void testTornRecordEndsTheJournal() throws IOException {
+        // Given
+        try (FillJournal journal = new FillJournal(directory, 1, 4096, 0, 0)) {
+            journal.appendFill("AAPL", Prices.toTicks(1.0), 1, 1);
+            journal.appendFill("AAPL", Prices.toTicks(2.0), 2, 1);
+        }
+        // When the crc of the last record is corrupted
+        Path segment = Files.list(directory).findFirst().orElseThrow();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            int secondRecord = 8 + 8 + 9 + 8 + 8 + 4 + 2 + 8;
+            channel.write(ByteBuffer.wrap(new byte[]{0x7F}), secondRecord + 6);
+        }
+
+        // Then only the first record is replayed and the next append overwrites the torn one
+        List<String> records = new ArrayList<>();
+        try (FillJournal journal = new FillJournal(directory, 1, 4096, 0, 0)) {
+            assertEquals(1, journal.lastSequence());
+            assertEquals(2, journal.appendFill("GOOGL", Prices.toTicks(3.0), 3, 1));
+            journal.replay(0, new RecordingListener(records));
+        }
+        assertEquals(List.of("1 fill v1 AAPL 1.0 1", "2 fill v1 GOOGL 3.0 3"), records);
+    }
+
+    @Test
+    public void testPositionsAreRecoveredOnRestart() throws IOException {
+        // Given
+        try (FillJournal journal = new FillJournal(directory, 1, 4096, 0, 0)) {
+            AllocationServerService allocationServerService = service(journal);
+            allocationServerService.recoverFromJournal();
+            allocationServerService.updateAUMSplits(Map.of("Account1", 70.0, "Account2", 30.0));
+            allocationServerService.allocateFill(new Fill("AAPL", 100.0, 11));
+            allocationServerService.allocateFills(new Fill[]{new Fill("AAPL", 100.0, -5), new Fill("GOOGL", 50.0, 10)});
+        }
+
+        // When
+        try (FillJournal journal = new FillJournal(directory, 1, 4096, 0, 0)) {
+            AllocationServerService recovered = service(journal);
+            recovered.recoverFromJournal();
+
+            // Then
+            assertEquals(1, recovered.getAllocationPlan().getVersion());
+            assertEquals(4, recovered.getAccountPositions().get("Account1").get("AAPL").getQuantity());
+            assertEquals(2, recovered.getAccountPositions().get("Account2").get("AAPL").getQuantity());
+            assertEquals(7, recovered.getAccountPositions().get("Account1").get("GOOGL").getQuantity());
+        }
+    }
+
+    @Test
+    public void testEqualSplitsAreRecoveredToTheSameShares() throws IOException {
+        // Given accounts interned in another order than on recovery
+        try (FillJournal journal = new FillJournal(directory, 1, 4096, 0, 0)) {
+            AllocationServerService allocationServerService = service(journal);
+            allocationServerService.recoverFromJournal();
+            allocationServerService.getPositionBook().accountId("Account2");
+            allocationServerService.updateAUMSplits(Map.of("Account1", 50.0, "Account2", 50.0));
+            allocationServerService.allocateFill(new Fill("AAPL", 100.0, 3));
+            assertEquals(2, allocationServerService.getAccountPositions().get("Account1").get("AAPL").getQuantity());
+        }
+
+        // When
+        try (FillJournal journal = new FillJournal(directory, 1, 4096, 0, 0)) {
+            AllocationServerService recovered = service(journal);
+            recovered.recoverFromJournal();
+
+            // Then the odd share goes to the same account
+            assertEquals(2, recovered.getAccountPositions().get("Account1").get("AAPL").getQuantity());
+            assertEquals(1, recovered.getAccountPositions().get("Account2").get("AAPL").getQuantity());
+        }
+    }
+
+    @Test
+    public void testSplitsHistoryIsRecoveredOnRestart() throws IOException {
+        // Given a fill executed before a split change and allocated after it
+        try (FillJournal journal = new FillJournal(directory, 1, 4096, 0, 0)) {
+            AllocationServerService allocationServerService = service(journal);
+            allocationServerService.recoverFromJournal();
+            allocationServerService.updateAUMSplits(Map.of("Account1", 50.0, "Account2", 50.0), 1, 1000);
+            allocationServerService.updateAUMSplits(Map.of("Account1", 80.0, "Account2", 20.0), 2, 2000);
+            allocationServerService.allocateFill(new Fill("AAPL", Prices.toTicks(100.0), 10, 0, 0, 0, 1500));
+        }
+
+        // When
+        try (FillJournal journal = new FillJournal(directory, 1, 4096, 0, 0)) {
+            AllocationServerService recovered = service(journal);
+            recovered.recoverFromJournal();
+
+            // Then the fill is replayed against the plan it was allocated against and the history is rebuilt
+            assertEquals(5, recovered.getAccountPositions().get("Account1").get("AAPL").getQuantity());
+            assertEquals(1, recovered.getPlanHistory().planAt(1500).getVersion());
+            assertEquals(2000, recovered.getAllocationPlan().getEffectiveFromMillis());
+        }
+    }
+
+    @Test
+    public void testPartitionsAreMergedInSequenceOrder() throws IOException {
+        // Given records of several tickers spread over 4 partitions
+        List<String> tickers = List.of("AAPL", "GOOGL", "MSFT", "AMZN", "TSLA", "NVDA", "META", "IBM");
+        try (FillJournal journal = new FillJournal(directory, 4, 1024, 0, 0)) {
+            journal.appendSplits(Map.of("Account1", 100.0), 1, 0);
+            for (int i = 0; i < 80; i++) {
+                journal.appendFill(tickers.get(i % tickers.size()), Prices.toTicks(1.0), i, 1);
+            }
+        }
+        assertTrue(Files.list(directory).anyMatch(path -> path.getFileName().toString().endsWith(".3.journal")));
+
+        // When reopened with fewer partitions
+        List<String> records = new ArrayList<>();
+        try (FillJournal journal = new FillJournal(directory, 1, 1024, 0, 0)) {
+            assertEquals(81, journal.lastSequence());
+            assertEquals(82, journal.appendFill("AAPL", Prices.toTicks(1.0), 80, 1));
+            journal.replay(40, new RecordingListener(records));
+        }
+
+        // Then every partition is kept and the records are replayed in sequence order
+        assertEquals(43, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            int quantity = 38 + i;
+            assertEquals((40 + i) + " fill v1 " + tickers.get(quantity % tickers.size()) + " 1.0 " + quantity, records.get(i));
+        }
+    }
+
+    @Test
+    public void testNettedFillsAreJournaledOneByOneAndRecoveredAsOneQuantity() throws IOException {
+        // Given two fills netted into 6 shares, split 3/3 where they would be split 2/1 each on their own
+        try (FillJournal journal = new FillJournal(directory, 1, 4096, 0, 0)) {
+            AllocationServerService allocationServerService = service(journal);
+            allocationServerService.setBatchNetting(true);
+            allocationServerService.recoverFromJournal();
+            allocationServerService.updateAUMSplits(Map.of("Account1", 50.0, "Account2", 50.0));
+            allocationServerService.allocateFills(new Fill[]{new Fill("AAPL", 100.0, 3), new Fill("AAPL", 100.0, 3)});
+            assertEquals(3, allocationServerService.getAccountPositions().get("Account1").get("AAPL").getQuantity());
+        }
+
+        // When
+        List<String> records = new ArrayList<>();
+        try (FillJournal journal = new FillJournal(directory, 1, 4096, 0, 0)) {
+            journal.replay(0, new RecordingListener(records));
+            AllocationServerService recovered = service(journal);
+            recovered.recoverFromJournal();
+
+            // Then
+            assertEquals(List.of("2 netted v1 AAPL 100.0 3", "3 fill v1 AAPL 100.0 3"), records.subList(1, 3));
+            assertEquals(3, recovered.getAccountPositions().get("Account1").get("AAPL").getQuantity());
+            assertEquals(3, recovered.getAccountPositions().get("Account2").get("AAPL").getQuantity());
+        }
+    }
+
+    private static AllocationServerService service(FillJournal journal) {
+        StaticListableBeanFactory beanFactory = new StaticListableBeanFactory();
+        beanFactory.addBean("fillJournal", journal);
+        return new AllocationServerService(beanFactory.getBeanProvider(FillJournal.class),
+                beanFactory.getBeanProvider(PositionCheckpointer.class));
+    }
+
+    private static class RecordingListener implements JournalListener {
+
+        private final List<String> records;
+
+        private RecordingListener(List<String> records) {
+            this.records = records;
+        }
+
+        @Override
+        public void onSplits(long sequence, long planVersion, long effectiveFromMillis, Map<String, Double> aumSplits) {
+            records.add(sequence + " splits v" + planVersion + " at " + effectiveFromMillis + " " + new TreeMap<>(aumSplits));
+        }
+
+        @Override
+        public void onFill(long sequence, long planVersion, String stockTicker, long priceTicks, int quantity) {
+            records.add(sequence + " fill v" + planVersion + " " + stockTicker + " " + Prices.toString(priceTicks) + " " + quantity);
+        }
+
+        @Override
+        public void onNettedFill(long sequence, long planVersion, String stockTicker, long priceTicks, int quantity) {
+            records.add(sequence + " netted v" + planVersion + " " + stockTicker + " " + Prices.toString(priceTicks) + " " + quantity);
+        }
+    }
+}
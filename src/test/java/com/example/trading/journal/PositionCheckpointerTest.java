@@ -0,0 +1,186 @@
+package com.example.trading.journal;
+
+import com.example.trading.book.LotRelief;
+import com.example.trading.model.Fill;
+import com.example.trading.model.Position;
+import com.example.trading.model.Prices;
+import com.example.trading.service.AllocationServerService;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class PositionCheckpointerTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testCheckpointAndJournalTailAreRecovered() throws IOException {
+        // Given a checkpoint followed by more fills and a split update
+        Map<String, Map<String, Position>> expected;
+        try (FillJournal journal = journal(); PositionCheckpointer checkpointer = checkpointer(journal, 10)) {
+            AllocationServerService allocationServerService = service(journal, checkpointer);
+            allocationServerService.recoverFromJournal();
+            allocationServerService.updateAUMSplits(Map.of("Account1", 70.0, "Account2", 30.0));
+            allocationServerService.allocateFill(new Fill("AAPL", 100.0, 11));
+            allocationServerService.allocateFill(new Fill("GOOGL", 50.0, 10));
+            assertTrue(allocationServerService.checkpoint());
+
+            allocationServerService.allocateFill(new Fill("AAPL", 101.0, -5));
+            allocationServerService.updateAUMSplits(Map.of("Account1", 50.0, "Account2", 50.0));
+            allocationServerService.allocateFill(new Fill("MSFT", 20.0, 4));
+            expected = allocationServerService.getAccountPositions();
+        }
+
+        // When
+        try (FillJournal journal = journal(); PositionCheckpointer checkpointer = checkpointer(journal, 10)) {
+            AllocationServerService recovered = service(journal, checkpointer);
+            recovered.recoverFromJournal();
+
+            // Then
+            assertEquals(2, recovered.getAllocationPlan().getVersion());
+            assertEquals(expected.toString(), recovered.getAccountPositions().toString());
+        }
+    }
+
+    @Test
+    public void testIncrementalCheckpointOnlyWritesChangedRows() throws IOException {
+        // Given
+        try (FillJournal journal = journal(); PositionCheckpointer checkpointer = checkpointer(journal, 10)) {
+            AllocationServerService allocationServerService = service(journal, checkpointer);
+            allocationServerService.updateAUMSplits(Map.of("Account1", 60.0, "Account2", 40.0));
+            for (int i = 0; i < 200; i++) {
+                allocationServerService.allocateFills(new Fill[]{new Fill("T" + i, 10.0, 10)});
+            }
+            assertTrue(allocationServerService.checkpoint());
+            // nothing changed
+            assertFalse(allocationServerService.checkpoint());
+
+            // When
+            allocationServerService.allocateFill(new Fill("T7", 11.0, 5));
+            assertTrue(allocationServerService.checkpoint());
+
+            // Then
+            Path full = checkpoint(".full.checkpoint");
+            Path incremental = checkpoint(".incremental.checkpoint");
+            assertTrue(Files.size(incremental) * 20 < Files.size(full));
+        }
+    }
+
+    @Test
+    public void testFullCheckpointPrunesOlderCheckpointsAndJournalSegments() throws IOException {
+        // Given checkpoints that are all full
+        try (FillJournal journal = new FillJournal(directory.resolve("journal"), 1, 1024, 0, 0);
+             PositionCheckpointer checkpointer = checkpointer(journal, 1)) {
+            AllocationServerService allocationServerService = service(journal, checkpointer);
+            allocationServerService.updateAUMSplits(Map.of("Account1", 60.0, "Account2", 40.0));
+            for (int i = 0; i < 100; i++) {
+                allocationServerService.allocateFills(new Fill[]{new Fill("AAPL", 10.0, 1)});
+            }
+            assertTrue(countFiles(directory.resolve("journal")) > 1);
+            allocationServerService.checkpoint();
+
+            // When
+            allocationServerService.allocateFills(new Fill[]{new Fill("AAPL", 10.0, 1)});
+            allocationServerService.checkpoint();
+
+            // Then
+            assertEquals(1, countFiles(directory.resolve("journal")));
+            assertEquals(1, countFiles(directory.resolve("checkpoints")));
+        }
+    }
+
+    @Test
+    public void testLotsAreRecoveredFromTheCheckpoint() throws IOException {
+        // Given lots of 10 at 100 and 10 at 110 in a full checkpoint, which prunes the journal records before it
+        try (FillJournal journal = journal(); PositionCheckpointer checkpointer = checkpointer(journal, 1)) {
+            AllocationServerService allocationServerService = service(journal, checkpointer, LotRelief.FIFO);
+            allocationServerService.updateAUMSplits(Map.of("Account1", 100.0));
+            allocationServerService.allocateFill(new Fill("AAPL", 100.0, 10));
+            allocationServerService.allocateFill(new Fill("AAPL", 110.0, 10));
+            assertTrue(allocationServerService.checkpoint());
+        }
+
+        // When
+        try (FillJournal journal = journal(); PositionCheckpointer checkpointer = checkpointer(journal, 1)) {
+            AllocationServerService recovered = service(journal, checkpointer, LotRelief.FIFO);
+            recovered.recoverFromJournal();
+            recovered.allocateFill(new Fill("AAPL", 120.0, -15));
+
+            // Then the sell relieves the 10 at 100 and 5 at 110
+            Position position = recovered.getAccountPositions().get("Account1").get("AAPL");
+            assertEquals(250.0, position.getRealizedPnl());
+            assertEquals(Prices.toTicks(550.0), position.getCostBasisTicks());
+        }
+    }
+
+    @Test
+    public void testPositionsCheckpointedWithoutLotsStartWithOneLotAtTheirAverageCost() throws IOException {
+        // Given a checkpoint of average cost positions
+        try (FillJournal journal = journal(); PositionCheckpointer checkpointer = checkpointer(journal, 1)) {
+            AllocationServerService allocationServerService = service(journal, checkpointer);
+            allocationServerService.updateAUMSplits(Map.of("Account1", 100.0));
+            allocationServerService.allocateFill(new Fill("AAPL", 100.0, 10));
+            allocationServerService.allocateFill(new Fill("AAPL", 110.0001, 10));
+            assertTrue(allocationServerService.checkpoint());
+        }
+
+        // When restored by a book keeping lots
+        try (FillJournal journal = journal(); PositionCheckpointer checkpointer = checkpointer(journal, 1)) {
+            AllocationServerService recovered = service(journal, checkpointer, LotRelief.HIGHEST_COST);
+            recovered.recoverFromJournal();
+            recovered.allocateFill(new Fill("AAPL", 120.0, -15));
+
+            // Then the cost basis of 2100.0010 is split into 10 lots at 105.0001 sold first and 10 at 105.0
+            Position position = recovered.getAccountPositions().get("Account1").get("AAPL");
+            assertEquals(Prices.toTicks(525.0), position.getCostBasisTicks());
+            assertEquals(15 * Prices.toTicks(120.0) - 15_750_010L, position.getRealizedPnlTicks());
+        }
+    }
+
+    private FillJournal journal() throws IOException {
+        return new FillJournal(directory.resolve("journal"), 1, 4096, 0, 0);
+    }
+
+    private PositionCheckpointer checkpointer(FillJournal journal, int fullEvery) throws IOException {
+        return new PositionCheckpointer(directory.resolve("checkpoints"), fullEvery, journal);
+    }
+
+    private Path checkpoint(String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory.resolve("checkpoints"))) {
+            return files.filter(path -> path.toString().endsWith(suffix)).findFirst().orElseThrow();
+        }
+    }
+
+    private static long countFiles(Path path) throws IOException {
+        try (Stream<Path> files = Files.list(path)) {
+            return files.count();
+        }
+    }
+
+    private static AllocationServerService service(FillJournal journal, PositionCheckpointer checkpointer,
+                                                   LotRelief lotRelief) {
+        AllocationServerService allocationServerService = service(journal, checkpointer);
+        allocationServerService.setLotRelief(lotRelief);
+        return allocationServerService;
+    }
+
+    private static AllocationServerService service(FillJournal journal, PositionCheckpointer checkpointer) {
+        StaticListableBeanFactory beanFactory = new StaticListableBeanFactory();
+        beanFactory.addBean("fillJournal", journal);
+        beanFactory.addBean("positionCheckpointer", checkpointer);
+        ObjectProvider<FillJournal> fillJournal = beanFactory.getBeanProvider(FillJournal.class);
+        return new AllocationServerService(fillJournal, beanFactory.getBeanProvider(PositionCheckpointer.class));
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.trading.load;
+
+import com.example.trading.engine.AllocationEngine;
+import com.example.trading.engine.BackpressureStrategy;
+import com.example.trading.metrics.TradingMetrics;
+import com.example.trading.model.Position;
+import com.example.trading.service.AllocationServerService;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class LoadRunnerTest {
+
+    private static final Map<String, Double> SPLITS = Map.of("Account1", 60.0, "Account2", 40.0);
+
+    @TempDir
+    Path tempDir;
+
+    private AllocationServerService allocationServerService;
+    private AllocationEngine allocationEngine;
+    private TradingMetrics tradingMetrics;
+
+    @BeforeEach
+    public void setUp() {
+        allocationServerService = new AllocationServerService();
+        tradingMetrics = new TradingMetrics(new SimpleMeterRegistry());
+        allocationServerService.setTradingMetrics(tradingMetrics);
+        allocationServerService.updateAUMSplits(SPLITS);
+        allocationEngine = newEngine(allocationServerService);
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        allocationEngine.shutdown();
+    }
+
+    @Test
+    public void testRunReportsEveryFillAllocated() {
+        // Given
+        LoadRunner runner = new LoadRunner(allocationEngine, tradingMetrics);
+
+        // When
+        LoadReport report = runner.run(new SyntheticFillSource(3, 100, 1.0, 0.6, 100, 0, 20_000), null, 10_000);
+
+        // Then
+        assertTrue(report.isDrained());
+        assertEquals(20_000, report.getSubmittedFills());
+        assertEquals(0, report.getRejectedFills());
+        assertEquals(20_000, report.getLatencyCount());
+        assertTrue(report.getThroughput() > 0);
+        assertTrue(report.getMaxNanos() >= report.getP50Nanos());
+    }
+
+    @Test
+    public void testReplayedRecordingAllocatesTheSamePositions() throws Exception {
+        // Given a paced run recorded to a file
+        Path recording = tempDir.resolve("fills.csv");
+        try (FillRecorder recorder = new FillRecorder(recording)) {
+            new LoadRunner(allocationEngine, tradingMetrics)
+                    .run(new SyntheticFillSource(5, 50, 1.0, 0.6, 100, 200_000, 5_000), recorder, 10_000);
+        }
+
+        // When it is replayed ten times faster on a fresh service
+        AllocationServerService replayed = new AllocationServerService();
+        replayed.updateAUMSplits(SPLITS);
+        AllocationEngine replayEngine = newEngine(replayed);
+        LoadReport report;
+        try (RecordedFillSource source = new RecordedFillSource(recording, 10)) {
+            report = new LoadRunner(replayEngine, null).run(source, null, 10_000);
+        } finally {
+            replayEngine.shutdown();
+        }
+
+        // Then
+        assertTrue(report.isDrained());
+        assertEquals(5_000, report.getSubmittedFills());
+        Map<String, Map<String, Position>> expected = allocationServerService.getAccountPositions();
+        Map<String, Map<String, Position>> actual = replayed.getAccountPositions();
+        assertEquals(expected.keySet(), actual.keySet());
+        expected.forEach((account, positions) -> {
+            assertEquals(positions.keySet(), actual.get(account).keySet());
+            positions.forEach((ticker, position) ->
+                    assertEquals(position.toString(), actual.get(account).get(ticker).toString()));
+        });
+    }
+
+    // fills allocated one by one, netting depends on how the fills were batched
+    private static AllocationEngine newEngine(AllocationServerService allocationServerService) {
+        AllocationEngine engine = new AllocationEngine(2, 1024, BackpressureStrategy.BLOCK,
+                allocationServerService::allocateFill);
+        engine.start();
+        return engine;
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.trading.load;
+
+import com.example.trading.model.Fill;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class SyntheticFillSourceTest {
+
+    @Test
+    public void testSameSeedGivesSameFills() {
+        // Given
+        SyntheticFillSource first = new SyntheticFillSource(7, 1000, 1.0, 0.55, 100, 0, 10_000);
+        SyntheticFillSource second = new SyntheticFillSource(7, 1000, 1.0, 0.55, 100, 0, 10_000);
+        Fill a = new Fill();
+        Fill b = new Fill();
+
+        // When / Then
+        while (first.next(a) >= 0) {
+            assertTrue(second.next(b) >= 0);
+            assertEquals(a.getStockTicker(), b.getStockTicker());
+            assertEquals(a.getPriceTicks(), b.getPriceTicks());
+            assertEquals(a.getQuantity(), b.getQuantity());
+        }
+        assertEquals(-1, second.next(b));
+    }
+
+    @Test
+    public void testFillsFollowTheConfiguredDistributions() {
+        // Given
+        SyntheticFillSource source = new SyntheticFillSource(1, 1000, 1.0, 0.7, 50, 0, 100_000);
+        Fill fill = new Fill();
+        Map<String, Integer> counts = new HashMap<>();
+        int buys = 0;
+
+        // When
+        while (source.next(fill) >= 0) {
+            counts.merge(fill.getStockTicker(), 1, Integer::sum);
+            assertTrue(Math.abs(fill.getQuantity()) >= 1 && Math.abs(fill.getQuantity()) <= 50);
+            if (fill.getQuantity() > 0) {
+                buys++;
+            }
+        }
+
+        // Then the most popular ticker is traded about twice as often as the second one
+        double ratio = (double) counts.get("TICKER0") / counts.get("TICKER1");
+        assertTrue(ratio > 1.8 && ratio < 2.2, "Ratio " + ratio);
+        assertTrue(counts.get("TICKER0") > counts.getOrDefault("TICKER999", 0) * 100);
+        assertTrue(Math.abs(buys - 70_000) < 1_000, "Buys " + buys);
+    }
+
+    @Test
+    public void testFillsAreDueAtTheConfiguredRate() {
+        SyntheticFillSource source = new SyntheticFillSource(1, 10, 1.0, 0.5, 10, 1_000_000, 3);
+        Fill fill = new Fill();
+
+        assertEquals(0, source.next(fill));
+        assertEquals(1_000, source.next(fill));
+        assertEquals(2_000, source.next(fill));
+        assertEquals(-1, source.next(fill));
+    }
+}
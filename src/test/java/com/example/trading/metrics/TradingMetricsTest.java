@@ -0,0 +1,100 @@
+package com.example.trading.metrics;
+
+import com.example.trading.engine.AllocationEngine;
+import com.example.trading.engine.BackpressureStrategy;
+import com.example.trading.model.Fill;
+import com.example.trading.service.AllocationServerService;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class TradingMetricsTest {
+
+    private SimpleMeterRegistry registry;
+    private TradingMetrics tradingMetrics;
+    private AllocationServerService allocationServerService;
+
+    @BeforeEach
+    public void setUp() {
+        registry = new SimpleMeterRegistry();
+        allocationServerService = new AllocationServerService();
+        tradingMetrics = new TradingMetrics(registry);
+        allocationServerService.setTradingMetrics(tradingMetrics);
+    }
+
+    @Test
+    public void testAllocatedFillsAreCountedPerTickerAndTimed() {
+        // Given
+        allocationServerService.updateAUMSplits(Map.of(
+                "Account1", 50.0,
+                "Account2", 50.0
+        ));
+        Fill received = new Fill("AAPL", 100.0, 10);
+        received.setReceivedNanos(System.nanoTime());
+
+        // When
+        allocationServerService.allocateFill(received);
+        allocationServerService.allocateFills(new Fill[]{new Fill("AAPL", 100.0, 2), new Fill("MSFT", 50.0, 4),
+                new Fill("MSFT", 50.0, 0), new Fill("IBM", 50.0, 0)});
+
+        // Then only the fill with a receipt time is timed and the fills without a quantity are not counted
+        assertEquals(2.0, registry.get("fills.allocated").tag("ticker", "AAPL").counter().count());
+        assertEquals(1.0, registry.get("fills.allocated").tag("ticker", "MSFT").counter().count());
+        assertNull(registry.find("fills.allocated").tag("ticker", "IBM").counter());
+        Timer latency = registry.get("fill.latency").timer();
+        assertEquals(1, latency.count());
+        assertTrue(latency.totalTime(TimeUnit.NANOSECONDS) > 0);
+    }
+
+    @Test
+    public void testSplitUpdatesAreTracked() {
+        assertEquals(-1.0, registry.get("aum.splits.age").gauge().value());
+
+        allocationServerService.updateAUMSplits(Map.of("Account1", 100.0));
+        allocationServerService.updateAUMSplits(Map.of("Account1", 100.0));
+
+        assertEquals(2.0, registry.get("aum.splits.version").gauge().value());
+        assertTrue(registry.get("aum.splits.age").gauge().value() >= 0);
+    }
+
+    @Test
+    public void testTimeToFirstFillIsRecordedOnce() {
+        // Given
+        allocationServerService.updateAUMSplits(Map.of("Account1", 100.0));
+        assertEquals(-1, tradingMetrics.getFirstFillMillis());
+
+        // When
+        allocationServerService.allocateFills(new Fill[]{new Fill("AAPL", 100.0, 0)});
+        assertEquals(-1, tradingMetrics.getFirstFillMillis());
+        allocationServerService.allocateFills(new Fill[]{new Fill("AAPL", 100.0, 2)});
+        long firstFillMillis = tradingMetrics.getFirstFillMillis();
+        allocationServerService.allocateFill(new Fill("AAPL", 100.0, 2));
+
+        // Then
+        assertTrue(firstFillMillis > 0);
+        assertEquals(firstFillMillis, tradingMetrics.getFirstFillMillis());
+        assertEquals(firstFillMillis / 1e3, registry.get("startup.first.fill").gauge().value());
+    }
+
+    @Test
+    public void testEngineQueueAndRejectionsAreExposed() {
+        // Given an engine that is not started, so every fill is rejected
+        AllocationEngine engine = new AllocationEngine(2, 4, BackpressureStrategy.REJECT, fill -> { });
+        tradingMetrics.bindEngine(engine);
+
+        // Then
+        assertEquals(4.0, registry.get("allocation.engine.queue.capacity").tag("shard", "1").gauge().value());
+        assertEquals(0.0, registry.get("allocation.engine.queue.depth").tag("shard", "0").gauge().value());
+        assertEquals(0.0, registry.get("allocation.engine.rejected").functionCounter().count());
+        assertFalse(engine.submit(new Fill("AAPL", 100.0, 1)));
+        assertEquals(1.0, registry.get("allocation.engine.rejected").functionCounter().count());
+    }
+}
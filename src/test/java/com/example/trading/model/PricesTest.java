@@ -0,0 +1,38 @@
+package com.example.trading.model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class PricesTest {
+
+    @Test
+    public void testTicksAreFormattedAsDecimals() {
+        assertEquals("150.0", Prices.toString(Prices.toTicks(150.0)));
+        assertEquals("150.1234", Prices.toString(Prices.toTicks(150.1234)));
+        assertEquals("99.5", Prices.toString(Prices.toTicks(99.5)));
+        assertEquals("0.005", Prices.toString(50));
+        assertEquals("-1.05", Prices.toString(-10_500));
+    }
+
+    @Test
+    public void testRescaleConvertsFromOtherScales() {
+        assertEquals(1_502_500, Prices.rescale(15_025, 2));
+        assertEquals(1_502_500, Prices.rescale(1_502_500, 4));
+        // 150.250049 rounds half up to the nearest tick
+        assertEquals(1_502_500, Prices.rescale(150_250_049, 6));
+        assertEquals(1_502_501, Prices.rescale(150_250_050, 6));
+        assertThrows(IllegalArgumentException.class, () -> Prices.rescale(1, 19));
+        assertThrows(ArithmeticException.class, () -> Prices.rescale(Long.MAX_VALUE, 0));
+    }
+
+    @Test
+    public void testProrateDoesNotOverflow() {
+        long amount = Long.MAX_VALUE / 3;
+        // amount * 2 does not fit in a long
+        assertEquals(2_049_638_230_412_172_401L, Prices.prorate(amount, 2, 3));
+        assertEquals(0, Prices.prorate(amount, 0, 7));
+        assertEquals(amount, Prices.prorate(amount, 7, 7));
+    }
+}
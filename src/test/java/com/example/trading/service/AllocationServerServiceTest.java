@@ -1,13 +1,23 @@
 package com.example.trading.service;
 
+import com.example.trading.allocation.BatchAllocationResult;
+import com.example.trading.allocation.ExposureLimits;
 import com.example.trading.model.Fill;
 import com.example.trading.model.Position;
+import com.example.trading.model.Prices;
 
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
 
 
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -72,9 +82,9 @@ public class AllocationServerServiceTest {
         // Sell 7 AAPL at $100 each
         allocationServerService.allocateFill(new Fill("AAPL", 100.0, -7));
 
-        // Account1 should retain 3 shares after selling
-        assertPositions("Account1", "AAPL", 3, 300.0);
-        // Account2 should retain 2 shares
+        // Account1 sells 4 and the share lost to rounding, it retains 1 share
+        assertPositions("Account1", "AAPL", 1, 100.0);
+        // Account2 sells 2 and retains 2 shares
         assertPositions("Account2", "AAPL", 2, 200.0);
     }
 
@@ -129,6 +139,195 @@ public class AllocationServerServiceTest {
         assertPositions("Account1", "AAPL", 10, 1500.0); // No change in quantity
     }
 
+    @Test
+    public void testBatchNetsFillsOfSameTickerAndSide() {
+        // Given
+        Map<String, Double> aumSplits = Map.of(
+                "Account1", 50.0,
+                "Account2", 50.0
+        );
+        allocationServerService.updateAUMSplits(aumSplits);
+        allocationServerService.setBatchNetting(true);
+
+        // When buying 3 + 3 AAPL at 100, 2 AAPL at 110 and 10 GOOGL in one batch
+        BatchAllocationResult result = allocationServerService.allocateFills(List.of(
+                new Fill("AAPL", 100.0, 3),
+                new Fill("GOOGL", 150.0, 10),
+                new Fill("AAPL", 100.0, 3),
+                new Fill("AAPL", 110.0, 2),
+                new Fill("GOOGL", 150.0, 0)
+        ));
+
+        // Then the 2 AAPL fills at 100 are allocated as one buy of 6, the fill at 110 is not netted with them
+        assertEquals(5, result.getFillCount());
+        assertEquals(3, result.getAllocationCount());
+        assertEquals(1, result.getNettedFills());
+        assertEquals(1, result.getSkippedFills());
+        assertPositions("Account1", "AAPL", 4, 440.0);
+        assertPositions("Account2", "AAPL", 4, 440.0);
+        assertPositions("Account1", "GOOGL", 5, 750.0);
+        // the cost basis is booked at the prices paid
+        Position aapl = allocationServerService.getAccountPositions().get("Account1").get("AAPL");
+        assertEquals(Prices.toTicks(410.0), aapl.getCostBasisTicks());
+    }
+
+    @Test
+    public void testBatchIsNotNettedByDefault() {
+        // Given
+        allocationServerService.updateAUMSplits(Map.of("Account1", 50.0, "Account2", 50.0));
+
+        // When buying 3 + 3 AAPL in one batch
+        BatchAllocationResult result = allocationServerService.allocateFills(new Fill[]{
+                new Fill("AAPL", 100.0, 3),
+                new Fill("AAPL", 100.0, 3)
+        });
+
+        // Then each fill is rounded on its own, like allocating them one by one: the first account by name gets the
+        // odd share of both fills instead of the accounts getting 3 each
+        assertEquals(2, result.getAllocationCount());
+        assertEquals(0, result.getNettedFills());
+        assertPositions("Account1", "AAPL", 4, 400.0);
+        assertPositions("Account2", "AAPL", 2, 200.0);
+    }
+
+    @Test
+    public void testBatchDoesNotNetOppositeSides() {
+        // Given
+        Map<String, Double> aumSplits = Map.of(
+                "Account1", 60.0,
+                "Account2", 40.0
+        );
+        allocationServerService.updateAUMSplits(aumSplits);
+        allocationServerService.setBatchNetting(true);
+
+        // When buying 10 then selling 7 AAPL in one batch
+        BatchAllocationResult result = allocationServerService.allocateFills(new Fill[]{
+                new Fill("AAPL", 100.0, 10),
+                new Fill("AAPL", 100.0, -7)
+        });
+
+        // Then the result is the same as allocating the fills one by one
+        assertEquals(2, result.getAllocationCount());
+        assertEquals(0, result.getNettedFills());
+        assertPositions("Account1", "AAPL", 1, 100.0);
+        assertPositions("Account2", "AAPL", 2, 200.0);
+    }
+
+    @Test
+    public void testFillIsAllocatedAgainstSplitsInEffectWhenExecuted() {
+        // Given splits changing at 2000
+        allocationServerService.updateAUMSplits(Map.of("Account1", 50.0, "Account2", 50.0), 1, 1000);
+        allocationServerService.updateAUMSplits(Map.of("Account1", 80.0, "Account2", 20.0), 2, 2000);
+
+        // When a fill executed before the change is allocated after it
+        long late = allocationServerService.allocateFill(new Fill("AAPL", Prices.toTicks(100.0), 10, 0, 0, 0, 1500));
+        long current = allocationServerService.allocateFill(new Fill("MSFT", Prices.toTicks(100.0), 10, 0, 0, 0, 2500));
+
+        // Then
+        assertEquals(1, late);
+        assertEquals(2, current);
+        assertPositions("Account1", "AAPL", 5, 500.0);
+        assertPositions("Account1", "MSFT", 8, 800.0);
+    }
+
+    @Test
+    public void testBatchDoesNotNetFillsOfDifferentSplits() {
+        // Given
+        allocationServerService.updateAUMSplits(Map.of("Account1", 50.0, "Account2", 50.0), 1, 1000);
+        allocationServerService.updateAUMSplits(Map.of("Account1", 80.0, "Account2", 20.0), 2, 2000);
+        allocationServerService.setBatchNetting(true);
+
+        // When buying 10 AAPL executed before the change and 10 after it in one batch
+        BatchAllocationResult result = allocationServerService.allocateFills(new Fill[]{
+                new Fill("AAPL", Prices.toTicks(100.0), 10, 0, 0, 0, 1500),
+                new Fill("AAPL", Prices.toTicks(100.0), 10, 0, 0, 0, 2500)
+        });
+
+        // Then each fill is allocated against its own splits
+        assertEquals(2, result.getAllocationCount());
+        assertEquals(1, result.getOldestPlanVersion());
+        assertEquals(2, result.getPlanVersion());
+        assertPositions("Account1", "AAPL", 13, 1300.0);
+        assertPositions("Account2", "AAPL", 7, 700.0);
+    }
+
+    @Test
+    public void testSellOfMoreThanHeldIsReported() {
+        // Given 6 and 4 AAPL under 60/40 splits
+        allocationServerService.updateAUMSplits(Map.of("Account1", 60.0, "Account2", 40.0));
+        allocationServerService.allocateFill(new Fill("AAPL", 100.0, 10));
+        // and splits under which Account2 should sell most
+        allocationServerService.updateAUMSplits(Map.of("Account1", 10.0, "Account2", 90.0));
+
+        // When selling 12
+        allocationServerService.allocateFill(new Fill("AAPL", 100.0, -12));
+
+        // Then Account1 sells what Account2 could not, the 2 shares nobody held are reported
+        assertTrue(allocationServerService.getAccountPositions().isEmpty());
+        assertEquals(1, allocationServerService.getExposureLimits().getBreachCount(ExposureLimits.Breach.OVERSOLD));
+    }
+
+    @Test
+    public void testLimitBreachesAreReported() {
+        // Given
+        allocationServerService.setExposureLimits(50, 0, 10_000.0);
+        allocationServerService.setAccountLimits("Account2", 0, 1_000.0, 0);
+        allocationServerService.updateAUMSplits(Map.of("Account1", 60.0, "Account2", 40.0));
+        ExposureLimits limits = allocationServerService.getExposureLimits();
+
+        // When
+        allocationServerService.allocateFill(new Fill("AAPL", 100.0, 100));
+        allocationServerService.allocateFill(new Fill("GOOGL", 10.0, 50));
+        allocationServerService.allocateFill(new Fill("AAPL", 100.0, -10));
+
+        // Then Account1 bought 60 AAPL above its 50 shares, Account2 40 AAPL worth 4000 above its 1000
+        assertEquals(1, limits.getBreachCount(ExposureLimits.Breach.POSITION_QUANTITY));
+        assertEquals(1, limits.getBreachCount(ExposureLimits.Breach.POSITION_NOTIONAL));
+        assertEquals(0, limits.getBreachCount(ExposureLimits.Breach.ACCOUNT_NOTIONAL));
+        int account1 = allocationServerService.getPositionBook().accountId("Account1");
+        assertEquals(Prices.toTicks(5700.0), limits.getAccountNotional(account1));
+        // the breaches do not change the allocation
+        assertPositions("Account1", "AAPL", 54, 5400.0);
+    }
+
+    @Test
+    public void testAllocationIsLoggedAsCompactEvent() {
+        // Given
+        Logger logger = (Logger) LoggerFactory.getLogger("allocation.events");
+        Level level = logger.getLevel();
+        logger.setLevel(Level.INFO);
+        ListAppender<ILoggingEvent> events = new ListAppender<>();
+        events.start();
+        logger.addAppender(events);
+        allocationServerService.updateAUMSplits(Map.of(
+                "Account1", 60.0,
+                "Account2", 40.0
+        ));
+
+        try {
+            // When
+            allocationServerService.allocateFill(new Fill("AAPL", 100.0, 10));
+            allocationServerService.allocateFill(new Fill("AAPL", 100.0, -5));
+
+            // Then
+            assertEquals(2, events.list.size());
+            // the accounts of an event follow the order of the plan
+            assertEvent("ticker=AAPL qty=10 price=100.0 plan=1", Set.of("Account1:6", "Account2:4"), events.list.get(0));
+            assertEvent("ticker=AAPL qty=-5 price=100.0 plan=1", Set.of("Account1:-3", "Account2:-2"), events.list.get(1));
+        } finally {
+            logger.detachAppender(events);
+            logger.setLevel(level);
+        }
+    }
+
+    private static void assertEvent(String expectedFill, Set<String> expectedAllocations, ILoggingEvent event) {
+        String message = event.getFormattedMessage();
+        int alloc = message.indexOf(" alloc=");
+        assertTrue(alloc > 0, "Event " + message + " has no allocations");
+        assertEquals(expectedFill, message.substring(0, alloc));
+        assertEquals(expectedAllocations, Set.of(message.substring(alloc + " alloc=".length()).split(",")));
+    }
+
     private void assertPositions(String account, String stock, int expectedQuantity, double expectedTotalValue) {
         Map<String, Position> positions = allocationServerService.getAccountPositions().get(account);
         assertNotNull(positions, "Positions for account " + account + " should not be null");
@@ -0,0 +1,78 @@
+package com.example.trading.service;
+
+import com.example.trading.model.Fill;
+import com.example.trading.model.Position;
+import com.example.trading.model.PositionTotals;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class PositionQueryServiceTest {
+
+    private AllocationServerService allocationServerService;
+    private PositionQueryService positionQueryService;
+
+    @BeforeEach
+    public void setUp() {
+        allocationServerService = new AllocationServerService();
+        positionQueryService = new PositionQueryService(allocationServerService);
+        positionQueryService.setMaxStalenessMillis(0);
+        allocationServerService.updateAUMSplits(Map.of("Account1", 60.0, "Account2", 40.0));
+    }
+
+    @Test
+    public void testQueriesMatchTheAllocatedPositions() {
+        // Given
+        allocationServerService.allocateFill(new Fill("AAPL", 150.0, 10));
+        allocationServerService.allocateFill(new Fill("GOOGL", 100.0, 5));
+
+        // When
+        Map<String, Position> holders = positionQueryService.getHolders("AAPL");
+        Map<String, Position> positions = positionQueryService.getPositions("Account1");
+        PositionTotals aapl = positionQueryService.getTickerTotals("AAPL");
+        PositionTotals account1 = positionQueryService.getAccountTotals("Account1");
+
+        // Then
+        assertEquals(2, holders.size());
+        assertEquals(6, holders.get("Account1").getQuantity());
+        assertEquals(4, holders.get("Account2").getQuantity());
+        assertEquals(2, positions.size());
+        assertEquals(3, positions.get("GOOGL").getQuantity());
+        assertEquals(2, aapl.getPositionCount());
+        assertEquals(10, aapl.getGrossQuantity());
+        assertEquals(1500.0, aapl.getNotional());
+        assertEquals(2, account1.getPositionCount());
+        assertEquals(9, account1.getNetQuantity());
+        assertEquals(1200.0, account1.getNotional());
+        assertEquals(2, positionQueryService.getAccountTotals().size());
+        assertEquals(2, positionQueryService.getTickerTotals().size());
+    }
+
+    @Test
+    public void testUnknownNamesAreNotFound() {
+        assertNull(positionQueryService.getHolders("AAPL"));
+        assertNull(positionQueryService.getTickerTotals("AAPL"));
+        assertNull(positionQueryService.getPositions("Account9"));
+        assertNull(positionQueryService.getAccountTotals("Account9"));
+    }
+
+    @Test
+    public void testAnswersFollowNewFills() {
+        // Given
+        allocationServerService.allocateFill(new Fill("AAPL", 150.0, 10));
+        assertEquals(10, positionQueryService.getTickerTotals("AAPL").getNetQuantity());
+
+        // When
+        allocationServerService.allocateFill(new Fill("AAPL", 160.0, -10));
+
+        // Then
+        assertTrue(positionQueryService.getHolders("AAPL").isEmpty());
+        assertEquals(0, positionQueryService.getAccountTotals("Account1").getPositionCount());
+        assertTrue(positionQueryService.getPositions("Account1").isEmpty());
+    }
+}
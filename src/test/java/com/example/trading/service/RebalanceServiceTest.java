@@ -0,0 +1,140 @@
+package com.example.trading.service;
+
+import com.example.trading.engine.AllocationEngine;
+import com.example.trading.engine.BackpressureStrategy;
+import com.example.trading.journal.FillJournal;
+import com.example.trading.journal.PositionCheckpointer;
+import com.example.trading.model.Fill;
+import com.example.trading.model.Position;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class RebalanceServiceTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testPositionsAreMovedToTheNewSplits() {
+        // Given positions allocated 50/50 and new splits of 80/20
+        AllocationServerService allocationServerService = new AllocationServerService();
+        allocationServerService.updateAUMSplits(Map.of("Account1", 50.0, "Account2", 50.0));
+        allocationServerService.allocateFill(new Fill("AAPL", 100.0, 100));
+        allocationServerService.allocateFill(new Fill("GOOGL", 50.0, 10));
+        allocationServerService.updateAUMSplits(Map.of("Account1", 80.0, "Account2", 20.0));
+        RebalanceService rebalanceService = new RebalanceService(allocationServerService, null, 2);
+
+        // When
+        int outOfLine = rebalanceService.rebalance();
+
+        // Then
+        try {
+            assertEquals(2, outOfLine);
+            Map<String, Map<String, Position>> positions = allocationServerService.getAccountPositions();
+            assertEquals(80, positions.get("Account1").get("AAPL").getQuantity());
+            assertEquals(20, positions.get("Account2").get("AAPL").getQuantity());
+            assertEquals(8, positions.get("Account1").get("GOOGL").getQuantity());
+            assertEquals(2, positions.get("Account2").get("GOOGL").getQuantity());
+            // crossed at the mark of the account giving the shares, which is also its cost
+            assertEquals(8000.0, positions.get("Account1").get("AAPL").getTotalValue());
+            assertEquals(0.0, positions.get("Account2").get("AAPL").getRealizedPnl());
+            assertEquals(0, rebalanceService.rebalance());
+        } finally {
+            rebalanceService.shutdown();
+        }
+    }
+
+    @Test
+    public void testRowsAreRebalancedByTheShardOwningThem() throws Exception {
+        // Given
+        AllocationServerService allocationServerService = new AllocationServerService();
+        AllocationEngine allocationEngine = new AllocationEngine(2, 64, BackpressureStrategy.BLOCK,
+                (fills, count) -> allocationServerService.allocateFills(fills, count));
+        allocationEngine.start();
+        RebalanceService rebalanceService = new RebalanceService(allocationServerService, allocationEngine, 2);
+        try {
+            allocationServerService.updateAUMSplits(Map.of("Account1", 50.0, "Account2", 50.0));
+            String[] tickers = {"AAPL", "GOOGL", "INTC", "AMZN", "TSLA"};
+            for (String ticker : tickers) {
+                assertTrue(allocationEngine.submit(new Fill(ticker, 10.0, 40)));
+            }
+            waitFor(() -> processedCount(allocationEngine) == tickers.length);
+            allocationServerService.updateAUMSplits(Map.of("Account1", 25.0, "Account2", 75.0));
+
+            // When
+            assertEquals(tickers.length, rebalanceService.rebalance());
+
+            // Then
+            waitFor(() -> allocationServerService.getAccountPositions().get("Account1").values().stream()
+                    .allMatch(position -> position.getQuantity() == 10));
+            assertEquals(0, rebalanceService.rebalance());
+        } finally {
+            rebalanceService.shutdown();
+            allocationEngine.shutdown();
+        }
+    }
+
+    @Test
+    public void testRebalancingIsReplayedFromTheJournal() throws IOException {
+        // Given a rebalancing followed by more fills
+        Map<String, Map<String, Position>> expected;
+        try (FillJournal journal = journal()) {
+            AllocationServerService allocationServerService = service(journal);
+            allocationServerService.updateAUMSplits(Map.of("Account1", 60.0, "Account2", 40.0));
+            allocationServerService.allocateFill(new Fill("AAPL", 100.0, 11));
+            allocationServerService.updateAUMSplits(Map.of("Account1", 20.0, "Account2", 30.0, "Account3", 50.0));
+            RebalanceService rebalanceService = new RebalanceService(allocationServerService, null, 1);
+            assertEquals(1, rebalanceService.rebalance());
+            rebalanceService.shutdown();
+            allocationServerService.allocateFill(new Fill("AAPL", 101.0, -5));
+            expected = allocationServerService.getAccountPositions();
+        }
+
+        // When
+        try (FillJournal journal = journal()) {
+            AllocationServerService recovered = service(journal);
+            recovered.recoverFromJournal();
+
+            // Then
+            assertEquals(expected.toString(), recovered.getAccountPositions().toString());
+            assertTrue(expected.containsKey("Account3"));
+        }
+    }
+
+    private FillJournal journal() throws IOException {
+        return new FillJournal(directory.resolve("journal"), 1, 4096, 0, 0);
+    }
+
+    private static AllocationServerService service(FillJournal journal) {
+        StaticListableBeanFactory beanFactory = new StaticListableBeanFactory();
+        beanFactory.addBean("fillJournal", journal);
+        return new AllocationServerService(beanFactory.getBeanProvider(FillJournal.class),
+                beanFactory.getBeanProvider(PositionCheckpointer.class));
+    }
+
+    private static long processedCount(AllocationEngine allocationEngine) {
+        long processed = 0;
+        for (int i = 0; i < allocationEngine.getShardCount(); i++) {
+            processed += allocationEngine.getProcessedCount(i);
+        }
+        return processed;
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for the shards");
+            Thread.sleep(10);
+        }
+    }
+}
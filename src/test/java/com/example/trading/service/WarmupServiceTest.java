@@ -0,0 +1,66 @@
+package com.example.trading.service;
+
+import com.example.trading.metrics.TradingMetrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class WarmupServiceTest {
+
+    private SimpleMeterRegistry registry;
+    private WarmupService warmupService;
+
+    @BeforeEach
+    public void setUp() {
+        registry = new SimpleMeterRegistry();
+        StaticListableBeanFactory beanFactory = new StaticListableBeanFactory();
+        beanFactory.addBean("tradingMetrics", new TradingMetrics(registry));
+        warmupService = new WarmupService(beanFactory.getBeanProvider(TradingMetrics.class));
+    }
+
+    @Test
+    public void testWarmupAllocatesTheSyntheticFills() {
+        // Given
+        warmupService.setFillCount(1000);
+
+        // When
+        warmupService.warmUp();
+        warmupService.onReady();
+
+        // Then every fill is allocated, without counting them as live fills
+        assertEquals(1000, warmupService.getWarmupFills());
+        assertTrue(warmupService.getWarmupMillis() >= 0);
+        assertTrue(registry.find("fills.allocated").counters().isEmpty());
+        assertEquals(-1.0, registry.get("startup.first.fill").gauge().value());
+        assertTrue(registry.get("startup.ready").gauge().value() > 0);
+        assertEquals(warmupService.getWarmupMillis() / 1e3, registry.get("startup.warmup").gauge().value());
+    }
+
+    @Test
+    public void testWarmupStopsAtTheDeadline() {
+        // Given
+        warmupService.setFillCount(1_000_000);
+
+        // When the deadline has already passed
+        long allocated = warmupService.allocate(System.nanoTime());
+
+        // Then only the first batch is allocated
+        assertEquals(16, allocated);
+    }
+
+    @Test
+    public void testNoWarmupByDefault() {
+        // When
+        warmupService.warmUp();
+        warmupService.onReady();
+
+        // Then
+        assertEquals(-1, warmupService.getWarmupMillis());
+        assertEquals(-1.0, registry.get("startup.warmup").gauge().value());
+    }
+}